@@ -0,0 +1,87 @@
+package com.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the end-to-end throughput of {@link ByteFileParser} over a synthetic transaction log, from mapping the file
+ * to the final metrics. The records/sec and bytes/sec are reported as the {@code records} and {@code bytes} counters.
+ * {@link PipelinedReaderBenchmark} measures the same pass read through a {@link PipelinedRecordReader}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ByteFileParserBenchmark {
+
+  /**
+   * The number of records in the generated log.
+   */
+  @Param({ "1000000", "10000000" })
+  public long records;
+
+  /**
+   * The share of DEBIT and CREDIT records; the rest are autopay records.
+   */
+  @Param({ "0.8", "0.2" })
+  public double amountShare;
+
+  /**
+   * The number of threads to parse on, or 0 for every core.
+   */
+  @Param({ "1", "0" })
+  public int parallelism;
+
+  /**
+   * Whether to build the per-user balance index as well.
+   */
+  @Param({ "false", "true" })
+  public boolean indexBalances;
+
+  private File file;
+  private ByteFileParser parser;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    file = File.createTempFile("txnlog", ".dat");
+    new Mps7Generator(records, amountShare, 100000, 7).write(file);
+
+    parser = new ByteFileParser();
+    parser.setUserId(Long.toUnsignedString(Mps7Generator.mix(0)));
+    parser.setParallelism(parallelism == 0 ? Runtime.getRuntime().availableProcessors() : parallelism);
+    if (indexBalances) {
+      parser.setTopCount(10);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Benchmark
+  public MetricsAccumulator aggregate(ThroughputCounters counters) throws IOException {
+    MetricsAccumulator metrics = parser.aggregate(file);
+    counters.records += records;
+    counters.bytes += file.length();
+    return metrics;
+  }
+
+}
@@ -0,0 +1,107 @@
+package com.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares repeated aggregations over a {@link ColumnarLog} with decoding the MPS7 file every time, for the whole log
+ * and for a tenth of its time range. The records/sec and bytes/sec of the MPS7 file are reported as the
+ * {@code records} and {@code bytes} counters, so the two are directly comparable.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ColumnarLogBenchmark {
+
+  /**
+   * The number of records in the generated log.
+   */
+  @Param({ "1000000", "10000000" })
+  public long records;
+
+  /**
+   * Whether to build the per-user balance index as well, which needs the user ID column.
+   */
+  @Param({ "false", "true" })
+  public boolean indexBalances;
+
+  private File file;
+  private File columnarFile;
+  private ColumnarLog log;
+  private ByteFileParser parser;
+  private long userId;
+  private long rangeStart;
+  private long rangeEnd;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    file = File.createTempFile("txnlog", ".dat");
+    new Mps7Generator(records, 0.8, 100000, 7).write(file);
+    columnarFile = File.createTempFile("txnlog", ".cols");
+    log = ColumnarLog.convert(file, columnarFile);
+
+    userId = Mps7Generator.mix(0);
+    parser = new ByteFileParser();
+    parser.setUserId(Long.toUnsignedString(userId));
+    if (indexBalances) {
+      parser.setTopCount(10);
+    }
+
+    // The generated timestamps only ever go up, so the middle tenth of the time covers a tenth of the blocks
+    long span = log.getMaxTimestamp() - log.getMinTimestamp();
+    rangeStart = log.getMinTimestamp() + span * 9 / 20;
+    rangeEnd = log.getMinTimestamp() + span * 11 / 20;
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    log.close();
+    file.delete();
+    columnarFile.delete();
+  }
+
+  @Benchmark
+  public MetricsAccumulator decode(ThroughputCounters counters) throws IOException {
+    MetricsAccumulator metrics = parser.aggregate(file);
+    counters.records += records;
+    counters.bytes += file.length();
+    return metrics;
+  }
+
+  @Benchmark
+  public MetricsAccumulator columnar(ThroughputCounters counters) throws IOException {
+    MetricsAccumulator metrics = new MetricsAccumulator(userId, indexBalances);
+    log.fold(metrics);
+    counters.records += records;
+    counters.bytes += file.length();
+    return metrics;
+  }
+
+  @Benchmark
+  public MetricsAccumulator columnarRange(ThroughputCounters counters) throws IOException {
+    MetricsAccumulator metrics = new MetricsAccumulator(userId, indexBalances);
+    log.fold(metrics, rangeStart, rangeEnd);
+    counters.records += records;
+    counters.bytes += file.length();
+    return metrics;
+  }
+
+}
@@ -0,0 +1,130 @@
+package com.parser;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+/**
+ * Writes synthetic MPS7 transaction logs for the benchmarks, following the specification in the proto README:
+ * <ul>
+ *    <li><b>Header : </b>"MPS7", a 1 byte version and a uint32 record count
+ *    <li><b>Record : </b>a 1 byte record type, a uint32 timestamp, a uint64 user ID and, for DEBIT and CREDIT records, a
+ *    float64 amount
+ * </ul>
+ * <p>
+ * The record count, the share of records that carry an amount and the number of distinct users are configurable, and
+ * the same seed always produces the same file.
+ */
+public class Mps7Generator {
+  /**
+   * The first timestamp written, 2014-01-01T00:00:00Z.
+   */
+  private static final long START_TIMESTAMP = 1388534400L;
+
+  private final long records;
+  private final double amountShare;
+  private final long users;
+  private final long seed;
+
+  /**
+   * Creates a generator.
+   *
+   * @param records the number of records to write
+   * @param amountShare the share of records, between 0 and 1, that are DEBIT or CREDIT records
+   * @param users the number of distinct user IDs to draw from
+   * @param seed the random seed
+   */
+  public Mps7Generator(long records, double amountShare, long users, long seed) {
+    if (records < 0 || records > 0xffffffffL) {
+      throw new IllegalArgumentException("The record count must fit in an unsigned INT32.");
+    }
+    if (amountShare < 0 || amountShare > 1) {
+      throw new IllegalArgumentException("The amount share must be between 0 and 1.");
+    }
+    if (users < 1) {
+      throw new IllegalArgumentException("There must be at least 1 user.");
+    }
+
+    this.records = records;
+    this.amountShare = amountShare;
+    this.users = users;
+    this.seed = seed;
+  }
+
+  /**
+   * Writes the transaction log to the given file, replacing it if it exists.
+   *
+   * @param file the file to write
+   * @throws IOException thrown if an error occurs writing the file
+   */
+  public void write(File file) throws IOException {
+    SplittableRandom random = new SplittableRandom(seed);
+
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+      // DataOutputStream writes in network byte order, as the specification requires
+      out.writeBytes("MPS7");
+      out.writeByte(1);
+      out.writeInt((int) records);
+
+      long timestamp = START_TIMESTAMP;
+      for (long i = 0; i < records; i++) {
+        boolean hasAmount = random.nextDouble() < amountShare;
+        // DEBIT or CREDIT when there is an amount, otherwise StartAutopay or EndAutopay
+        int type = (hasAmount ? 0 : 2) + random.nextInt(2);
+        timestamp += random.nextInt(5);
+
+        out.writeByte(type);
+        out.writeInt((int) timestamp);
+        // Spread the user numbers over the whole unsigned INT64 range
+        out.writeLong(mix(random.nextLong(users)));
+        if (hasAmount) {
+          out.writeDouble(random.nextInt(100000) / 100.0 + random.nextDouble() / 1000.0);
+        }
+      }
+    }
+  }
+
+  /**
+   * Maps a user number to a user ID, so that consecutive user numbers do not give consecutive IDs.
+   *
+   * @param userNumber the user number
+   * @return the user ID
+   */
+  static long mix(long userNumber) {
+    long z = userNumber + 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * Writes a synthetic transaction log from the command line. Requires the following:
+   * <ul>
+   *    <li><b>Output file : </b>The location of the file to write.
+   *    <li><b>Record count : </b>The number of records to write.
+   * </ul>
+   * <p>
+   * Optionally followed by the share of DEBIT and CREDIT records (default 0.8), the number of distinct users (default
+   * 100000) and the random seed (default 7).
+   *
+   * @param args the arguments used within the application
+   * @throws IOException thrown if an error occurs writing the file
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Please provide the output file and the record count, optionally followed by the amount "
+          + "share, the user count and the seed.");
+      return;
+    }
+
+    double amountShare = args.length > 2 ? Double.parseDouble(args[2]) : 0.8;
+    long users = args.length > 3 ? Long.parseLong(args[3]) : 100000;
+    long seed = args.length > 4 ? Long.parseLong(args[4]) : 7;
+    new Mps7Generator(Long.parseLong(args[1]), amountShare, users, seed).write(new File(args[0]));
+  }
+
+}
@@ -0,0 +1,83 @@
+package com.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the single-field decode primitives of {@link ParserHelper} against the {@link RecordCursor} that decodes
+ * the same fields straight from a buffer. Run with {@code -prof gc} to see the allocation per decode.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserHelperBenchmark {
+
+  private final byte[] timestamp = { 0x53, 0x09, 0x27, (byte) 0xd1 };
+  private final byte[] amount = { 0x40, (byte) 0x82, (byte) 0xe2, 0x31, (byte) 0xd6, (byte) 0xd7, 0x2e, (byte) 0x8d };
+
+  /**
+   * A single DEBIT record, as it appears in a transaction log.
+   */
+  private byte[] record;
+  private ByteBuffer recordBuffer;
+  private ByteArrayInputStream recordStream;
+  private RecordCursor cursor;
+
+  @Setup
+  public void setup() {
+    record = ByteBuffer.allocate(21)
+        .put((byte) 0)
+        .put(timestamp)
+        .putLong(4136353673894269217L)
+        .put(amount)
+        .array();
+    recordBuffer = ByteBuffer.wrap(record);
+    recordStream = new ByteArrayInputStream(record);
+    cursor = new RecordCursor();
+  }
+
+  @Benchmark
+  public long getUnsignedInt() {
+    return ParserHelper.getUnsignedInt(timestamp);
+  }
+
+  @Benchmark
+  public Double getDouble() {
+    return ParserHelper.getDouble(amount);
+  }
+
+  @Benchmark
+  public RecordEntity readRecordFromStream() throws IOException {
+    // The original decode path: one read() per byte and a new array per field
+    recordStream.reset();
+    RecordEntity entity = new RecordEntity();
+    entity.setRecordType(ParserHelper.getSingleByte(recordStream));
+    entity.setTimestamp(ParserHelper.getArray(recordStream, 4));
+    entity.setUserId(ParserHelper.getArray(recordStream, 8));
+    entity.setAmount(ParserHelper.getArray(recordStream, 8));
+    return entity;
+  }
+
+  @Benchmark
+  public double readRecordWithCursor() {
+    cursor.wrap(recordBuffer, 0);
+    return cursor.getTimestamp() + cursor.getUserId() + cursor.getAmount();
+  }
+
+}
@@ -0,0 +1,83 @@
+package com.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the sequential pass of {@link ByteFileParser} with the file read on its own thread by a
+ * {@link PipelinedRecordReader}, to compare with the 1 thread runs of {@link ByteFileParserBenchmark}. The pipeline
+ * only applies on 1 thread, so there is no thread count to vary. The generated file sits in the page cache, so this
+ * measures the cost of the pipeline rather than the I/O it overlaps on a cold cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelinedReaderBenchmark {
+
+  /**
+   * The number of records in the generated log.
+   */
+  @Param({ "1000000", "10000000" })
+  public long records;
+
+  /**
+   * The share of DEBIT and CREDIT records; the rest are autopay records.
+   */
+  @Param({ "0.8", "0.2" })
+  public double amountShare;
+
+  /**
+   * Whether to build the per-user balance index as well.
+   */
+  @Param({ "false", "true" })
+  public boolean indexBalances;
+
+  private File file;
+  private ByteFileParser parser;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    file = File.createTempFile("txnlog", ".dat");
+    new Mps7Generator(records, amountShare, 100000, 7).write(file);
+
+    parser = new ByteFileParser();
+    parser.setUserId(Long.toUnsignedString(Mps7Generator.mix(0)));
+    parser.setParallelism(1);
+    if (indexBalances) {
+      parser.setTopCount(10);
+    }
+    parser.setPipelined(true);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Benchmark
+  public MetricsAccumulator aggregate(ThroughputCounters counters) throws IOException {
+    MetricsAccumulator metrics = parser.aggregate(file);
+    counters.records += records;
+    counters.bytes += file.length();
+    return metrics;
+  }
+
+}
@@ -0,0 +1,119 @@
+package com.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.parser.ParserHelper.RecordType;
+import com.parser.RecordQuery.RecordFilter;
+import com.parser.RecordQuery.RecordValue;
+
+/**
+ * Compares calculating the five metrics with one stream pass each over a list of {@link RecordEntity}, the way
+ * {@link ParserHelper#getAmountFromList} and {@link ParserHelper#getCountFromList} do, against a single fused
+ * {@link RecordQuery} pass over the same list and over {@link RecordColumns}. The records/sec are reported as the
+ * {@code records} counter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordQueryBenchmark {
+
+  /**
+   * The number of records to aggregate.
+   */
+  @Param({ "1000000" })
+  public int records;
+
+  private RecordColumns columns;
+  private List<RecordEntity> entities;
+  private long userId;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    File file = File.createTempFile("txnlog", ".dat");
+    try {
+      new Mps7Generator(records, 0.8, 100000, 7).write(file);
+      columns = RecordColumns.read(file);
+    } finally {
+      file.delete();
+    }
+
+    entities = new ArrayList<>(columns.size());
+    for (int i = 0; i < columns.size(); i++) {
+      RecordEntity entity = new RecordEntity();
+      entity.setRecordType((byte) columns.getType(i));
+      entity.setTimestamp(columns.getTimestamp(i));
+      entity.setUserId(columns.getUserId(i));
+      entity.setAmount(columns.getAmount(i));
+      entities.add(entity);
+    }
+    userId = Mps7Generator.mix(0);
+  }
+
+  @Benchmark
+  public long separatePasses(ThroughputCounters counters) {
+    MoneyAccumulator debits = new MoneyAccumulator();
+    entities.stream().filter(record -> record.getRecordType() == RecordType.DEBIT)
+        .mapToDouble(RecordEntity::getAmount).forEachOrdered(debits::add);
+    MoneyAccumulator credits = new MoneyAccumulator();
+    entities.stream().filter(record -> record.getRecordType() == RecordType.CREDIT)
+        .mapToDouble(RecordEntity::getAmount).forEachOrdered(credits::add);
+    long started = entities.stream().filter(record -> record.getRecordType() == RecordType.START_AUTO).count();
+    long ended = entities.stream().filter(record -> record.getRecordType() == RecordType.END_AUTO).count();
+    MoneyAccumulator balance = new MoneyAccumulator();
+    entities.stream()
+        .filter(record -> record.getUserId().longValue() == userId && record.getRecordType().isHasAmount())
+        .mapToDouble(record -> record.getRecordType() == RecordType.CREDIT ? record.getAmount() : -record.getAmount())
+        .forEachOrdered(balance::add);
+    counters.records += records;
+    return debits.toCents() + credits.toCents() + started + ended + balance.toCents();
+  }
+
+  @Benchmark
+  public RecordQuery fusedPassOverList(ThroughputCounters counters) {
+    RecordQuery query = newQuery();
+    for (RecordEntity record : entities) {
+      query.accept(record);
+    }
+    counters.records += records;
+    return query;
+  }
+
+  @Benchmark
+  public RecordQuery fusedPassOverColumns(ThroughputCounters counters) {
+    RecordQuery query = newQuery();
+    query.run(columns);
+    counters.records += records;
+    return query;
+  }
+
+  private RecordQuery newQuery() {
+    RecordQuery query = new RecordQuery();
+    query.sum(RecordFilter.ofType(RecordType.DEBIT), RecordValue.AMOUNT);
+    query.sum(RecordFilter.ofType(RecordType.CREDIT), RecordValue.AMOUNT);
+    query.count(RecordFilter.ofType(RecordType.START_AUTO));
+    query.count(RecordFilter.ofType(RecordType.END_AUTO));
+    query.sum(RecordFilter.ofUser(userId), RecordValue.BALANCE);
+    return query;
+  }
+
+}
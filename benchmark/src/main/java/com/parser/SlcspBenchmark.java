@@ -0,0 +1,120 @@
+package com.parser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.opencsv.exceptions.CsvException;
+
+/**
+ * Measures {@link SlcspCsvApplication#updateRates()} against scaled-up zips.csv and plans.csv data sets. The rows/sec
+ * filled in are reported as the {@code records} counter.
+ * <p>
+ * After the first invocation {@code updateRates} loads the saved {@link RateAreaIndex}, so the one-off cost of parsing
+ * the CSV files into the index is measured separately by {@code buildIndex}.
+ * <p>
+ * The application reads its data files as resources of the thread context class loader, so the generated files are
+ * put in front of the ones packaged in the slcsp jar by swapping in a class loader over the generated directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SlcspBenchmark {
+
+  /**
+   * The number of zip codes in zips.csv; the packaged file has roughly 39000.
+   */
+  @Param({ "40000", "100000" })
+  public int zips;
+
+  /**
+   * The number of plans in plans.csv; the packaged file has roughly 22000.
+   */
+  @Param({ "22000", "220000" })
+  public int plans;
+
+  /**
+   * The number of rows to fill in; the packaged slcsp.csv has 51.
+   */
+  @Param({ "51", "100000" })
+  public int queries;
+
+  /**
+   * The number of threads to fill in the rows on.
+   */
+  @Param({ "1", "4" })
+  public int threads;
+
+  private File directory;
+  private File queryFile;
+  private URLClassLoader dataLoader;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    directory = Files.createTempDirectory("slcsp").toFile();
+    queryFile = new File(directory, "slcsp.csv");
+
+    SlcspDataGenerator generator = new SlcspDataGenerator(zips, plans, queries, 60, 7);
+    generator.writeDataFiles(directory);
+    generator.writeQueryFile(queryFile);
+
+    // No parent, so the packaged zips.csv and plans.csv cannot shadow the generated ones
+    dataLoader = new URLClassLoader(new URL[] { directory.toURI().toURL() }, null);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    dataLoader.close();
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Benchmark
+  public void updateRates(ThroughputCounters counters) throws IOException, CsvException {
+    // The loader is swapped per invocation since JMH does not promise setup runs on the benchmark thread
+    Thread thread = Thread.currentThread();
+    ClassLoader originalLoader = thread.getContextClassLoader();
+    thread.setContextClassLoader(dataLoader);
+    try {
+      // Filling in the same file again is idempotent, so each invocation does the same work
+      new SlcspCsvApplication(queryFile.getPath(), threads).updateRates();
+    } finally {
+      thread.setContextClassLoader(originalLoader);
+    }
+    counters.records += queries;
+    counters.bytes += queryFile.length();
+  }
+
+  @Benchmark
+  public RateAreaIndex buildIndex() throws IOException, CsvException {
+    try (InputStream zipsIn = new FileInputStream(new File(directory, "zips.csv"));
+        InputStream plansIn = new FileInputStream(new File(directory, "plans.csv"))) {
+      return RateAreaIndex.build(zipsIn, plansIn);
+    }
+  }
+
+}
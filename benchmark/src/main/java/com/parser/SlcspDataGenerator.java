@@ -0,0 +1,105 @@
+package com.parser;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+/**
+ * Writes scaled-up synthetic versions of the SLCSP data files for the benchmarks, with the same headers as the real
+ * ones:
+ * <ul>
+ *    <li><b>zips.csv : </b>zipcode, state, county_code, name, rate_area
+ *    <li><b>plans.csv : </b>plan_id, state, metal_level, rate, rate_area
+ *    <li><b>slcsp.csv : </b>zipcode, rate; the file to fill in
+ * </ul>
+ * <p>
+ * Some zip codes are given a second county in another rate area, so the ambiguous-zip path is exercised too.
+ */
+public class SlcspDataGenerator {
+
+  private static final String[] STATES = { "AL", "AK", "AZ", "CA", "FL", "GA", "IL", "MO", "NY", "TX", "WI", "WY" };
+  private static final String[] METAL_LEVELS = { "Bronze", "Silver", "Gold", "Platinum", "Catastrophic" };
+
+  private final int zips;
+  private final int plans;
+  private final int queries;
+  private final int rateAreasPerState;
+  private final long seed;
+
+  /**
+   * Creates a generator.
+   *
+   * @param zips the number of distinct zip codes, at most 100000
+   * @param plans the number of plans
+   * @param queries the number of rows in the file to fill in
+   * @param rateAreasPerState the number of rate areas in each state
+   * @param seed the random seed
+   */
+  public SlcspDataGenerator(int zips, int plans, int queries, int rateAreasPerState, long seed) {
+    if (zips < 1 || zips > 100000) {
+      throw new IllegalArgumentException("The zip count must be between 1 and 100000.");
+    }
+
+    this.zips = zips;
+    this.plans = plans;
+    this.queries = queries;
+    this.rateAreasPerState = rateAreasPerState;
+    this.seed = seed;
+  }
+
+  /**
+   * Writes zips.csv and plans.csv to the given directory, replacing them if they exist.
+   *
+   * @param directory the directory to write the data files to
+   * @throws IOException thrown if an error occurs writing the files
+   */
+  public void writeDataFiles(File directory) throws IOException {
+    SplittableRandom random = new SplittableRandom(seed);
+
+    try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(directory, "zips.csv")))) {
+      writer.write("zipcode,state,county_code,name,rate_area\n");
+      for (int zip = 0; zip < zips; zip++) {
+        int state = zip % STATES.length;
+        int rateArea = 1 + random.nextInt(rateAreasPerState);
+        writeZip(writer, zip, state, rateArea);
+        // Roughly one zip in twenty crosses into a second county, half the time in a different rate area
+        if (random.nextInt(20) == 0) {
+          writeZip(writer, zip, state, random.nextBoolean() ? rateArea : 1 + random.nextInt(rateAreasPerState));
+        }
+      }
+    }
+
+    try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(directory, "plans.csv")))) {
+      writer.write("plan_id,state,metal_level,rate,rate_area\n");
+      for (int plan = 0; plan < plans; plan++) {
+        writer.write(String.format("%05dXX%07d,%s,%s,%.2f,%d\n", plan % 100000, plan,
+            STATES[random.nextInt(STATES.length)], METAL_LEVELS[random.nextInt(METAL_LEVELS.length)],
+            150 + random.nextInt(50000) / 100.0, 1 + random.nextInt(rateAreasPerState)));
+      }
+    }
+  }
+
+  /**
+   * Writes the file to fill in, with a blank rate column.
+   *
+   * @param file the file to write
+   * @throws IOException thrown if an error occurs writing the file
+   */
+  public void writeQueryFile(File file) throws IOException {
+    SplittableRandom random = new SplittableRandom(seed + 1);
+
+    try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+      writer.write("zipcode,rate\n");
+      for (int i = 0; i < queries; i++) {
+        writer.write(String.format("%05d,\n", random.nextInt(zips)));
+      }
+    }
+  }
+
+  private void writeZip(BufferedWriter writer, int zip, int state, int rateArea) throws IOException {
+    writer.write(String.format("%05d,%s,%05d,County %d,%d\n", zip, STATES[state], zip % 1000, zip % 1000, rateArea));
+  }
+
+}
@@ -0,0 +1,27 @@
+package com.parser;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.AuxCounters.Type;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Extra counters reported by JMH next to the benchmark score. Each benchmark adds the records (or rows) and bytes it
+ * processed per invocation, and JMH reports them as rates, giving records/sec and bytes/sec.
+ */
+@State(Scope.Thread)
+@AuxCounters(Type.OPERATIONS)
+public class ThroughputCounters {
+
+  public long records;
+  public long bytes;
+
+  @Setup(Level.Iteration)
+  public void reset() {
+    records = 0;
+    bytes = 0;
+  }
+
+}
@@ -0,0 +1,105 @@
+package com.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares putting records in time order with {@link TimestampOrder} against the original
+ * {@code Collections.sort} over a {@code LinkedList<RecordEntity>}. The generated timestamps only ever go up, so the
+ * records are shuffled first. The records/sec are reported as the {@code records} counter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimestampOrderBenchmark {
+
+  /**
+   * The number of records to order.
+   */
+  @Param({ "100000", "1000000" })
+  public int records;
+
+  private int[] timestamps;
+  private List<RecordEntity> entities;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    File file = File.createTempFile("txnlog", ".dat");
+    try {
+      new Mps7Generator(records, 0.8, 100000, 7).write(file);
+      RecordColumns columns = RecordColumns.read(file);
+
+      int[] order = new int[columns.size()];
+      for (int i = 0; i < order.length; i++) {
+        order[i] = i;
+      }
+      SplittableRandom random = new SplittableRandom(7);
+      for (int i = order.length - 1; i > 0; i--) {
+        int j = random.nextInt(i + 1);
+        int swap = order[i];
+        order[i] = order[j];
+        order[j] = swap;
+      }
+
+      timestamps = new int[order.length];
+      entities = new LinkedList<>();
+      for (int i = 0; i < order.length; i++) {
+        timestamps[i] = (int) columns.getTimestamp(order[i]);
+
+        RecordEntity entity = new RecordEntity();
+        entity.setRecordType((byte) columns.getType(order[i]));
+        entity.setTimestamp(columns.getTimestamp(order[i]));
+        entity.setUserId(columns.getUserId(order[i]));
+        entities.add(entity);
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Benchmark
+  public List<RecordEntity> collectionsSort(ThroughputCounters counters) {
+    // Sorting reorders the list, so each invocation sorts its own copy
+    List<RecordEntity> list = new LinkedList<>(entities);
+    Collections.sort(list);
+    counters.records += records;
+    return list;
+  }
+
+  @Benchmark
+  public TimestampOrder radixSort(ThroughputCounters counters) {
+    TimestampOrder order = TimestampOrder.sort(timestamps, timestamps.length);
+    counters.records += records;
+    return order;
+  }
+
+  @Benchmark
+  public TimestampOrder parallelRadixSort(ThroughputCounters counters) {
+    TimestampOrder order =
+        TimestampOrder.sort(timestamps, timestamps.length, Runtime.getRuntime().availableProcessors());
+    counters.records += records;
+    return order;
+  }
+
+}
@@ -1,14 +1,11 @@
 package com.parser;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.math.BigInteger;
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import com.parser.ParserHelper.RecordType;
 
@@ -27,52 +24,333 @@ import com.parser.ParserHelper.RecordType;
  */
 public class ByteFileParser {
   /**
-   * The user ID to calculate a balance for.
+   * The number of records decoded between checks of whether a snapshot is due.
    */
-  private BigInteger userId;
+  private static final long SNAPSHOT_CHECK_MASK = (1 << 20) - 1;
+
+  /**
+   * The user ID to calculate a balance for, as a primitive long holding an unsigned INT64.
+   */
+  private long userId;
 
   /**
    * Parses and sets the user ID.
    * 
-   * @param userId a string containing the user ID as an integer
-   * @throws NumberFormatException thrown if the given string cannot be parsed to an integer
+   * @param userId a string containing the user ID as an unsigned 64-bit integer
+   * @throws NumberFormatException thrown if the given string cannot be parsed to an unsigned 64-bit integer
    */
   public void setUserId(String userId) throws NumberFormatException {
-    this.userId = new BigInteger(userId);
+    this.userId = Long.parseUnsignedLong(userId);
   }
 
   /**
    * Get the user ID.
    * 
-   * @return the user ID as a {@link BigInteger}
+   * @return the user ID as a primitive long holding an unsigned INT64
    */
-  public BigInteger getUserId() {
+  public long getUserId() {
     return userId;
   }
 
+  /**
+   * The number of threads to process the file on, or 1 to process it sequentially.
+   */
+  private int parallelism = 1;
+
+  /**
+   * Sets the number of threads to process the file on.
+   * 
+   * @param parallelism the number of threads, or 1 to process the file sequentially
+   */
+  public void setParallelism(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("The number of threads must be at least 1.");
+    }
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Get the number of threads to process the file on.
+   * 
+   * @return the number of threads, or 1 if the file is processed sequentially
+   */
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * A file of user IDs to output balances for, one per line, or null to skip.
+   */
+  private File balancesFile;
+
+  /**
+   * The number of users with the highest balances to output, or 0 to skip.
+   */
+  private int topCount;
+
+  /**
+   * Sets a file of user IDs to output balances for, from the same pass over the records as the other metrics.
+   * 
+   * @param balancesFile a file holding one user ID per line, or null to skip
+   */
+  public void setBalancesFile(File balancesFile) {
+    this.balancesFile = balancesFile;
+  }
+
+  /**
+   * Sets the number of users with the highest balances to output.
+   * 
+   * @param topCount the number of users, or 0 to skip
+   */
+  public void setTopCount(int topCount) {
+    if (topCount < 0) {
+      throw new IllegalArgumentException("The number of users must not be negative.");
+    }
+    this.topCount = topCount;
+  }
+
+  /**
+   * The time to wait between polls when following the file, in milliseconds, or 0 to process the file once.
+   */
+  private long followInterval;
+
+  /**
+   * Sets the file to be followed as it is appended to, rather than processed once.
+   * 
+   * @param followInterval the time to wait between polls in milliseconds, or 0 to process the file once
+   */
+  public void setFollowInterval(long followInterval) {
+    if (followInterval < 0) {
+      throw new IllegalArgumentException("The poll interval must not be negative.");
+    }
+    this.followInterval = followInterval;
+  }
+
+  /**
+   * The length of each time window in seconds, or 0 to skip the windowed totals.
+   */
+  private long windowSize;
+
+  /**
+   * The time between the starts of consecutive windows in seconds.
+   */
+  private long windowSlide;
+
+  /**
+   * Sets the time windows to total the records over, by their timestamps.
+   * 
+   * @param windowSize the length of each window in seconds, or 0 to skip the windowed totals
+   * @param windowSlide the time between the starts of consecutive windows in seconds; the window size for tumbling
+   *          windows
+   */
+  public void setWindow(long windowSize, long windowSlide) {
+    if (windowSize != 0) {
+      // Fail on bad settings here rather than once the file is open
+      new WindowedAggregator(windowSize, windowSlide);
+    }
+    this.windowSize = windowSize;
+    this.windowSlide = windowSlide;
+  }
+
+  /**
+   * The file to save and resume the aggregated metrics from, or null to always process the whole file.
+   */
+  private File snapshotFile;
+
+  /**
+   * Sets a file to checkpoint the aggregated metrics to. If it holds a snapshot of the same file, processing resumes
+   * from the snapshot's offset rather than the start of the file.
+   * 
+   * @param snapshotFile the snapshot file, or null to always process the whole file
+   */
+  public void setSnapshotFile(File snapshotFile) {
+    this.snapshotFile = snapshotFile;
+  }
+
+  /**
+   * The columnar copy of the file to calculate the metrics from, or null to decode the file itself.
+   */
+  private File columnarFile;
+
+  /**
+   * Sets a {@link ColumnarLog} file to calculate the metrics from. It is converted from the MPS7 file on the first run,
+   * and again whenever the MPS7 file changes.
+   * 
+   * @param columnarFile the columnar file, or null to decode the MPS7 file itself
+   */
+  public void setColumnarFile(File columnarFile) {
+    this.columnarFile = columnarFile;
+  }
+
+  /**
+   * Whether the file is read on its own thread while the records are decoded, rather than memory-mapped.
+   */
+  private boolean pipelined;
+
+  /**
+   * Sets the file to be read on its own thread into a ring of buffers while the records are decoded, so reading
+   * overlaps decoding. Only applies when the file is processed sequentially.
+   * 
+   * @param pipelined whether to read the file on its own thread
+   */
+  public void setPipelined(boolean pipelined) {
+    this.pipelined = pipelined;
+  }
+
+  /**
+   * The operational statistics of the run, always collected since they cost next to nothing.
+   */
+  private ParserStats stats = new ParserStats();
+
+  /**
+   * Whether the statistics are exported after the results.
+   */
+  private boolean exportingStats;
+
+  /**
+   * Sets the statistics to be exported after the results, and after each poll when following the file.
+   * 
+   * @param format the format to export in
+   * @param exportFile the file to replace on each export, or null to output to the console
+   */
+  public void setStatsExport(ParserStats.Format format, File exportFile) {
+    stats.setExport(format, exportFile);
+    exportingStats = true;
+  }
+
+  /**
+   * Get the operational statistics of the run.
+   * 
+   * @return the statistics
+   */
+  public ParserStats getStats() {
+    return stats;
+  }
+
+  /**
+   * Checks whether the balance of every user needs to be calculated.
+   * 
+   * @return true if a balances file or a top user count is set
+   */
+  private boolean isIndexingBalances() {
+    return balancesFile != null || topCount > 0;
+  }
+
   /**
    * Main application entry point. Requires the following:
    * <ul>
    *    <li><b>MPS7 file : </b>The location of the file to be processed. Must have read access to the file.
    *    <li><b>User ID : </b>The ID of a user. Must be an Integer.
    * </ul>
+   * <p>
+   * Accepts the following options before the required arguments:
+   * <ul>
+   *    <li><b>--parallel[=threads] : </b>Process the file in chunks across the given number of threads, or every core.
+   *    <li><b>--balances=file : </b>Output the balance of every user ID listed in the file, one per line.
+   *    <li><b>--top=count : </b>Output the given number of users with the highest balances.
+   *    <li><b>--follow[=millis] : </b>Keep the file open and output the running metrics as records are appended,
+   *    polling at the given interval.
+   *    <li><b>--window=seconds[,slide] : </b>Also output the totals of each time window of the given length, starting
+   *    every slide seconds, or back to back if no slide is given.
+   *    <li><b>--snapshot=file : </b>Save the metrics to the file as they are calculated, and resume from it on the
+   *    next run.
+   *    <li><b>--stats=format[,file] : </b>Also output the bytes read, records per type, malformed records and phase
+   *    timings, as json or prometheus text, to the console or to the file.
+   *    <li><b>--columnar[=file] : </b>Calculate the metrics from a columnar copy of the file, converting it first if
+   *    it is missing or out of date; the copy sits next to the file unless another file is given.
+   *    <li><b>--pipelined : </b>Read the file on its own thread while the records are decoded, rather than mapping it.
+   * </ul>
+   * <p>
+   * Alternatively, <b>--sort=file[,records]</b> sorts the records of every MPS7 file given by timestamp into the file,
+   * holding at most the given number of records in memory at once. No user ID is given, and only --parallel applies.
    * 
    * @param args the arguments used within the application
    */
   public static void main(String[] args) {
+    ByteFileParser parser = new ByteFileParser();
+    List<String> arguments = new ArrayList<>();
+    String columnar = null;
+    String[] sort = null;
+
+    try {
+      // Pull the options off ahead of the required arguments
+      for (String arg : args) {
+        if (arg.equals("--parallel")) {
+          parser.setParallelism(Runtime.getRuntime().availableProcessors());
+        } else if (arg.startsWith("--parallel=")) {
+          parser.setParallelism(Integer.parseInt(arg.substring("--parallel=".length())));
+        } else if (arg.startsWith("--balances=")) {
+          parser.setBalancesFile(new File(arg.substring("--balances=".length())));
+        } else if (arg.startsWith("--top=")) {
+          parser.setTopCount(Integer.parseInt(arg.substring("--top=".length())));
+        } else if (arg.equals("--follow")) {
+          parser.setFollowInterval(TransactionLogFollower.DEFAULT_POLL_INTERVAL);
+        } else if (arg.startsWith("--follow=")) {
+          parser.setFollowInterval(Long.parseLong(arg.substring("--follow=".length())));
+        } else if (arg.startsWith("--window=")) {
+          String[] window = arg.substring("--window=".length()).split(",", 2);
+          long windowSize = Long.parseLong(window[0]);
+          parser.setWindow(windowSize, window.length > 1 ? Long.parseLong(window[1]) : windowSize);
+        } else if (arg.startsWith("--snapshot=")) {
+          parser.setSnapshotFile(new File(arg.substring("--snapshot=".length())));
+        } else if (arg.startsWith("--stats=")) {
+          String[] export = arg.substring("--stats=".length()).split(",", 2);
+          parser.setStatsExport(ParserStats.Format.fromName(export[0]),
+              export.length > 1 ? new File(export[1]) : null);
+        } else if (arg.equals("--columnar")) {
+          columnar = "";
+        } else if (arg.startsWith("--columnar=")) {
+          columnar = arg.substring("--columnar=".length());
+        } else if (arg.equals("--pipelined")) {
+          parser.setPipelined(true);
+        } else if (arg.startsWith("--sort=")) {
+          sort = arg.substring("--sort=".length()).split(",", 2);
+        } else if (arg.startsWith("--")) {
+          System.err.println("Unknown option : " + arg);
+          return;
+        } else {
+          arguments.add(arg);
+        }
+      }
+    } catch (IllegalArgumentException e) {
+      System.err.println("Invalid option : " + e.getMessage());
+      return;
+    }
+
+    if (sort != null) {
+      sortFiles(parser, sort, arguments, columnar != null);
+      return;
+    }
+
+    if (parser.pipelined && (parser.followInterval > 0 || parser.parallelism > 1 || columnar != null)) {
+      System.err.println("Invalid option : --pipelined cannot be combined with --follow, --parallel or --columnar.");
+      return;
+    }
+
     // Must provide 2 arguments for the application to run
-    if (args.length != 2) {
+    if (arguments.size() != 2) {
       System.err.println("Please provide the MPS7 file and the user ID to search for, in that order.");
       return;
     }
 
+    if (columnar != null) {
+      if (parser.followInterval > 0 || parser.snapshotFile != null || parser.parallelism > 1) {
+        System.err.println("Invalid option : --columnar cannot be combined with --follow, --snapshot or --parallel.");
+        return;
+      }
+      parser.setColumnarFile(new File(columnar.isEmpty() ? arguments.get(0) + ".cols" : columnar));
+    }
+
     try {
-      ByteFileParser parser = new ByteFileParser();
       // Set the user ID and file
-      parser.setUserId(args[1]);
-      File file = new File(args[0]);
-      // Process the file
-      parser.processFile(file);
+      parser.setUserId(arguments.get(1));
+      File file = new File(arguments.get(0));
+      // Process or follow the file
+      if (parser.followInterval > 0) {
+        parser.followFile(file);
+      } else {
+        parser.processFile(file);
+      }
 
     } catch (NumberFormatException e) {
       System.err.println("The given user ID is not a valid integer.");
@@ -80,6 +358,42 @@ public class ByteFileParser {
     }
   }
 
+  /**
+   * Sorts the records of the given MPS7 files by timestamp into a single MPS7 file.
+   * 
+   * @param parser the parser holding the other options, which must not be set apart from the parallelism
+   * @param sort the output file, optionally followed by the most records to hold in memory at once
+   * @param inputs the MPS7 files to sort
+   * @param columnar whether the --columnar option was given
+   */
+  private static void sortFiles(ByteFileParser parser, String[] sort, List<String> inputs, boolean columnar) {
+    if (parser.followInterval > 0 || parser.snapshotFile != null || columnar || parser.pipelined
+        || parser.isIndexingBalances() || parser.windowSize > 0 || parser.exportingStats) {
+      System.err.println("Invalid option : --sort can only be combined with --parallel.");
+      return;
+    }
+    if (inputs.isEmpty()) {
+      System.err.println("Please provide the MPS7 files to sort.");
+      return;
+    }
+
+    try {
+      int runRecords = sort.length > 1 ? Integer.parseInt(sort[1]) : ExternalRecordSorter.DEFAULT_RUN_RECORDS;
+      ExternalRecordSorter sorter = new ExternalRecordSorter(runRecords, parser.parallelism, null);
+      File output = new File(sort[0]);
+      long records = sorter.sort(inputs.stream().map(File::new).collect(Collectors.toList()), output);
+      System.out.println("Sorted " + records + " records by timestamp into " + output + ".");
+    } catch (IllegalArgumentException e) {
+      System.err.println("Invalid option : " + e.getMessage());
+    } catch (FileNotFoundException e) {
+      System.err.println("Error occurred finding the file.");
+      e.printStackTrace();
+    } catch (IOException e) {
+      System.err.println("Error occurred accessing or reading a file.");
+      e.printStackTrace();
+    }
+  }
+
   /**
    * Processes the given file from the following structure:
    * <ul>
@@ -91,95 +405,273 @@ public class ByteFileParser {
    */
   private void processFile(File file) {
     try {
-      InputStream in = new FileInputStream(file);
-      List<RecordEntity> recordList = new LinkedList<>();
+      MetricsAccumulator metrics = aggregate(file);
+
+      long start = stats.startPhase();
+      metrics.printMetrics();
+      if (metrics.getWindows() != null) {
+        metrics.getWindows().printUpdated();
+      }
+      if (isIndexingBalances()) {
+        printBalances(metrics.getBalanceIndex());
+      }
+      stats.endPhase(ParserStats.Phase.WRITE, start);
+
+      if (exportingStats) {
+        stats.export();
+      }
+    } catch (FileNotFoundException e) {
+      System.err.println("Error occurred finding the file.");
+      e.printStackTrace();
+    } catch (IOException e) {
+      System.err.println("Error occurred accessing or reading a file.");
+      e.printStackTrace();
+    } catch (IllegalStateException e) {
+      System.err.println("Error occurred calculating the metrics : " + e.getMessage());
+    }
+  }
 
-      // Read the header
-      readHeader(in);
+  /**
+   * Follows the given file as the mainframe appends to it, outputting the running metrics each time new records are
+   * decoded. Only the newly appended records are decoded on each poll. If a snapshot file is set, following resumes
+   * from the last snapshot and the running metrics are saved to it periodically. Runs until the application is stopped.
+   * 
+   * @param file the file to follow for records
+   */
+  private void followFile(File file) {
+    try {
+      // Pick up the running metrics from the last snapshot, if there is one for this file
+      MetricsSnapshot snapshot = loadSnapshot(file);
+      MetricsAccumulator metrics = snapshot == null ? newAccumulator() : snapshot.getMetrics();
 
-      // While the record is valid, continue processing
-      while (true) {
-        if (readRow(in, recordList) == -1) {
-          break;
+      try (TransactionLogFollower follower = new TransactionLogFollower(file, metrics)) {
+        if (snapshot != null) {
+          follower.setOffset(snapshot.getOffset());
         }
+        follower.setSnapshotFile(snapshotFile, MetricsSnapshot.DEFAULT_SAVE_INTERVAL);
+        follower.setStats(stats, exportingStats);
+        follower.follow(followInterval);
       }
-
-      in.close();
-      // Calculate the metrics
-      calculateMetrics(recordList);
     } catch (FileNotFoundException e) {
       System.err.println("Error occurred finding the file.");
       e.printStackTrace();
     } catch (IOException e) {
       System.err.println("Error occurred accessing or reading a file.");
       e.printStackTrace();
+    } catch (IllegalStateException e) {
+      System.err.println("Error occurred calculating the metrics : " + e.getMessage());
     }
   }
 
   /**
-   * Read off the header bytes according to the specification:
-   * <ul>
-   *    <li><b>Magic String : </b>4 bytes
-   *    <li><b>Version : </b>1 byte
-   *    <li><b>Record Count : </b>4 bytes, unsigned INT32
-   * </ul>
+   * Calculates the metrics for the given file without outputting them. The file is memory-mapped and each record is
+   * decoded straight from the mapped buffer by a {@link MappedRecordReader}, or by a {@link ParallelRecordParser} when
+   * more than one thread is set. If pipelined, the file is read on its own thread by a {@link PipelinedRecordReader}
+   * instead of being mapped. Decoding stops at the record count the header declares, and a short file or trailing
+   * data is reported.
+   * 
+   * @param file the file to process for records
+   * @return the metrics for every record the header declares
+   * @throws IOException thrown if an error occurs accessing or reading the file, or it does not have a supported MPS7
+   *         header
+   */
+  public MetricsAccumulator aggregate(File file) throws IOException {
+    if (columnarFile != null) {
+      return aggregateColumnar(file);
+    }
+
+    // Pick up from the last snapshot, if there is one for this file
+    MetricsSnapshot snapshot = loadSnapshot(file);
+    long startOffset = snapshot == null ? 0 : snapshot.getOffset();
+    long recordsBefore = snapshot == null ? 0 : snapshot.getMetrics().getRecordCount();
+
+    if (parallelism > 1) {
+      ParallelRecordParser parallelParser =
+          new ParallelRecordParser(parallelism, ParallelRecordParser.DEFAULT_CHUNK_SIZE);
+      parallelParser.setStats(stats);
+      MetricsAccumulator metrics = parallelParser.process(file, startOffset, recordsBefore, this::newAccumulator);
+      if (snapshot != null) {
+        long start = stats.startPhase();
+        snapshot.getMetrics().merge(metrics);
+        metrics = snapshot.getMetrics();
+        stats.endPhase(ParserStats.Phase.AGGREGATE, start);
+      }
+      saveSnapshot(file, parallelParser.getEndOffset(), metrics);
+      reportMismatch(parallelParser.getHeader(), recordsBefore + parallelParser.getRecordsRead(),
+          parallelParser.getEndOffset(), file.length());
+      return metrics;
+    }
+
+    MetricsAccumulator metrics = snapshot == null ? newAccumulator() : snapshot.getMetrics();
+    long start = stats.startPhase();
+    try (RecordReader reader = pipelined ? new PipelinedRecordReader(file) : new MappedRecordReader(file)) {
+      // Read the header and skip to the snapshot, then calculate the metrics from the records the header declares
+      Mps7Header header = reader.readHeader();
+      if (header != null && startOffset > 0) {
+        reader.seek(startOffset);
+        reader.setRecordLimit(header.getRecordCount() - recordsBefore);
+      }
+      stats.endPhase(ParserStats.Phase.READ, start);
+
+      if (header != null) {
+        calculateMetrics(file, reader, metrics);
+        stats.addUndecodedBytes(header, recordsBefore + reader.getRecordsRead(), reader.getPosition(),
+            reader.getFileSize());
+      }
+      saveSnapshot(file, reader.getPosition(), metrics);
+      reportMismatch(header, recordsBefore + reader.getRecordsRead(), reader.getPosition(), reader.getFileSize());
+    }
+    return metrics;
+  }
+
+  /**
+   * Calculates the metrics for the given file from its columnar copy, converting the file first if the copy is missing,
+   * unreadable or out of date. Converting is timed as the READ phase, along with opening the copy.
+   * 
+   * @param file the file to process for records
+   * @return the metrics for every record the header declares
+   * @throws IOException thrown if an error occurs reading or converting the file, or it does not have a supported MPS7
+   *         header
+   */
+  private MetricsAccumulator aggregateColumnar(File file) throws IOException {
+    long start = stats.startPhase();
+    ColumnarLog log = null;
+    if (columnarFile.exists()) {
+      try {
+        log = ColumnarLog.open(columnarFile);
+        if (!log.isCurrentFor(file)) {
+          log.close();
+          log = null;
+        }
+      } catch (IOException e) {
+        System.err.println("Converting the file again : " + e.getMessage());
+      }
+    }
+    if (log == null) {
+      log = ColumnarLog.convert(file, columnarFile);
+    }
+    stats.endPhase(ParserStats.Phase.READ, start);
+
+    try {
+      MetricsAccumulator metrics = newAccumulator();
+      start = stats.startPhase();
+      log.fold(metrics);
+      stats.endPhase(ParserStats.Phase.DECODE, start);
+
+      stats.addRecords(log.getTypeCounts());
+      stats.addBytesRead(log.getBytesRead());
+      stats.addUndecodedBytes(log.getSourceHeader(), log.getRecordCount(), log.getSourceEndOffset(),
+          log.getSourceLength());
+      reportMismatch(log.getSourceHeader(), log.getRecordCount(), log.getSourceEndOffset(), log.getSourceLength());
+      return metrics;
+    } finally {
+      log.close();
+    }
+  }
+
+  /**
+   * Reports a file that is too short to hold a header, holds fewer records than its header declares, or has data
+   * after them. Only the offsets are compared, so nothing past the last record is read.
    * 
-   * @param reader the input stream currently reading the file
-   * @throws IOException thrown if an error occurs reading the bytes
+   * @param header the header of the file, or null if it was too short to hold one
+   * @param records the number of records decoded, including any before a snapshot
+   * @param endOffset the offset just past the last record decoded
+   * @param fileSize the size of the file
    */
-  private void readHeader(InputStream reader) throws IOException {
-    // Read the Magic String
-    ParserHelper.getArray(reader, 4);
-    // Read the version
-    ParserHelper.getSingleByte(reader);
-    // Read the record count
-    ParserHelper.getArray(reader, 4);
+  private static void reportMismatch(Mps7Header header, long records, long endOffset, long fileSize) {
+    String mismatch = header == null
+        ? "The file is too short to hold the MPS7 header."
+        : header.describeMismatch(records, endOffset, fileSize);
+    if (mismatch != null) {
+      System.err.println("Warning : " + mismatch);
+    }
   }
 
   /**
-   * Read off a "row" of bytes according to the specification:
-   * <ul>
-   *    <li><b>Record Type : </b>1 byte
-   *    <li><b>Timestamp : </b>4 bytes, unsigned INT32
-   *    <li><b>User ID : </b>8 bytes, unsigned INT64
-   * </ul>
-   * <p>
-   * If the record type is CREDIT or DEBIT, read off an additional field:
-   * <ul>
-   *    <li><b>Amount : </b>8 bytes, FLOAT64
-   * </ul>
+   * Creates an empty accumulator for the user ID, indexing every balance and totalling windows if needed.
+   * 
+   * @return the empty accumulator
+   */
+  private MetricsAccumulator newAccumulator() {
+    WindowedAggregator windows = windowSize > 0 ? new WindowedAggregator(windowSize, windowSlide) : null;
+    return new MetricsAccumulator(getUserId(), isIndexingBalances(), windows);
+  }
+
+  /**
+   * Loads the snapshot file if one is set and it holds a snapshot of the given file that matches the current settings.
+   * A missing, corrupt or mismatched snapshot is reported and the file is processed from the start.
    * 
-   * @param reader the input stream currently reading the file
-   * @param recordList a linked list of RecordEntity POJOs
-   * @return the record type indicator integer, or -1
-   * @throws IOException thrown if an error occurs reading the bytes
+   * @param file the MPS7 file to resume
+   * @return the snapshot to resume from, or null to process the file from the start
+   * @throws IOException thrown if an error occurs reading the MPS7 file
    */
-  private int readRow(InputStream reader, List<RecordEntity> recordList) throws IOException {
-    RecordEntity record = new RecordEntity();
+  private MetricsSnapshot loadSnapshot(File file) throws IOException {
+    if (snapshotFile == null || !snapshotFile.exists()) {
+      return null;
+    }
+
+    MetricsSnapshot snapshot;
+    try {
+      snapshot = MetricsSnapshot.load(snapshotFile);
+    } catch (IOException e) {
+      System.err.println("Ignoring the snapshot : " + e.getMessage());
+      return null;
+    }
 
-    // Read the record type
-    record.setRecordType(ParserHelper.getSingleByte(reader));
-    // If no more records exist or an incorrect record type is decoded, return -1
-    if (record.getRecordType() == null) {
-      return -1;
+    if (!snapshot.appliesTo(file, newAccumulator())) {
+      System.err.println("Ignoring the snapshot : it was taken from another file or with other options.");
+      return null;
     }
+    return snapshot;
+  }
 
-    // Read the timestamp and user ID
-    record.setTimestamp(ParserHelper.getArray(reader, 4));
-    record.setUserId(ParserHelper.getArray(reader, 8));
+  /**
+   * Saves the given metrics to the snapshot file, if one is set.
+   * 
+   * @param file the MPS7 file the metrics were calculated from
+   * @param offset the offset just past the last record folded into the metrics
+   * @param metrics the metrics to save
+   * @throws IOException thrown if an error occurs writing the snapshot or reading the MPS7 file
+   */
+  private void saveSnapshot(File file, long offset, MetricsAccumulator metrics) throws IOException {
+    if (snapshotFile != null) {
+      long start = stats.startPhase();
+      new MetricsSnapshot(offset, MetricsSnapshot.fingerprint(file, offset), metrics).save(snapshotFile);
+      stats.endPhase(ParserStats.Phase.WRITE, start);
+    }
+  }
 
-    // If the record type has an amount attached to it, read the amount
-    if (record.getRecordType().isHasAmount()) {
-      record.setAmount(ParserHelper.getArray(reader, 8));
+  /**
+   * Outputs the balances of the users listed in the balances file, followed by the users with the highest balances.
+   * 
+   * @param index the balance of every user in the file
+   * @throws IOException thrown if an error occurs reading the balances file
+   */
+  private void printBalances(UserBalanceIndex index) throws IOException {
+    if (balancesFile != null) {
+      try {
+        // Look up every listed user in the index rather than parsing the file again per user
+        long[] userIds = UserBalanceIndex.readUserIds(balancesFile);
+        long[] balances = index.getBalancesCents(userIds);
+        for (int i = 0; i < userIds.length; i++) {
+          ParserHelper.printCents(balances[i], "Total for USER " + Long.toUnsignedString(userIds[i]) + " : ");
+        }
+      } catch (NumberFormatException e) {
+        System.err.println("The balances file contains a user ID that is not a valid integer.");
+        e.printStackTrace();
+      }
     }
 
-    // Add the record to the list and return the record type indicator integer
-    recordList.add(record);
-    return record.getRecordType().getRecordIndicator();
+    if (topCount > 0) {
+      System.out.println("Top " + topCount + " users by balance :");
+      for (long topUserId : index.topUsers(topCount)) {
+        ParserHelper.printCents(index.getBalanceCents(topUserId), "  USER " + Long.toUnsignedString(topUserId) + " : ");
+      }
+    }
   }
 
   /**
-   * Calculate the following metrics for the full record list:
+   * Calculate the following metrics in a single pass as the records are decoded:
    * <ul>
    *    <li>Total amount in DEBITS
    *    <li>Total amount in CREDITS
@@ -187,31 +679,40 @@ public class ByteFileParser {
    *    <li>Total number of autopays ENDED
    *    <li>Total balance of a user ID, assuming a $0.00 balance at the beginning of the given record list
    * </ul>
+   * <p>
+   * Each record is folded into the accumulator and then dropped, so memory use does not grow with the file. The
+   * records are not sorted since none of the metrics depend on their order. If a snapshot file is set, the metrics are
+   * saved to it periodically along the way. The records of each type are counted in a local array and added to the
+   * statistics at the end.
    * 
-   * @param records a linked list of RecordEntity POJOs holding record information
+   * @param file the file being processed
+   * @param reader the reader positioned at the first record
+   * @param metrics the accumulator to fold the records into
+   * @throws IOException thrown if an error occurs reading the bytes or writing a snapshot
    */
-  private void calculateMetrics(List<RecordEntity> records) {
-    // Sort the records according to the timestamp ascending
-    Collections.sort(records);
-
-    // Calculate the total amount in DEBITS
-    ParserHelper.getAmountFromList(record -> record.getRecordType().equals(RecordType.DEBIT),
-        record -> record.getAmount(), records, "Total DEBITS : ");
-
-    // Calculate the total amount in CREDITS
-    ParserHelper.getAmountFromList(record -> record.getRecordType().equals(RecordType.CREDIT),
-        record -> record.getAmount(), records, "Total CREDITS : ");
+  private void calculateMetrics(File file, RecordReader reader, MetricsAccumulator metrics) throws IOException {
+    // A single cursor is moved from record to record, so nothing is allocated per record
+    RecordCursor cursor = new RecordCursor();
+    long records = 0;
+    long[] counts = new long[RecordType.values().length];
+    long startPosition = reader.getPosition();
+    long start = stats.startPhase();
+    long nextSave = System.currentTimeMillis() + MetricsSnapshot.DEFAULT_SAVE_INTERVAL;
+    // While the record is valid, continue processing
+    while (reader.next(cursor)) {
+      metrics.accept(cursor);
+      counts[cursor.getType()]++;
 
-    // Calculate the total number of autopays STARTED
-    ParserHelper.getCountFromList(RecordType.START_AUTO, records, "Total autopays STARTED : ");
-
-    // Calculate the total number of autopays ENDED
-    ParserHelper.getCountFromList(RecordType.END_AUTO, records, "Total autopays ENDED : ");
+      // Only look at the clock every so often, so the loop stays tight
+      if ((++records & SNAPSHOT_CHECK_MASK) == 0 && snapshotFile != null && System.currentTimeMillis() >= nextSave) {
+        saveSnapshot(file, reader.getPosition(), metrics);
+        nextSave = System.currentTimeMillis() + MetricsSnapshot.DEFAULT_SAVE_INTERVAL;
+      }
+    }
+    stats.endPhase(ParserStats.Phase.DECODE, start);
 
-    // Calculate the balance for a user ID, assuming a $0.00 balance at the beginning of the given record list
-    ParserHelper.getAmountFromList(record -> record.getUserId().equals(getUserId()),
-        record -> record.getRecordType().equals(RecordType.DEBIT) ? record.getAmount() * -1 : record.getAmount(),
-        records, "Total for USER " + getUserId() + " : ");
+    stats.addRecords(counts);
+    stats.addBytesRead(reader.getPosition() - startPosition);
   }
 
 }
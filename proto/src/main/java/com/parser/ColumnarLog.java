@@ -0,0 +1,689 @@
+package com.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import com.parser.ParserHelper.RecordType;
+
+/**
+ * A columnar copy of an MPS7 file, converted once so that repeated questions against the same log skip the variable
+ * length decode. The records are split into blocks, and each block holds one column per field:
+ * <ul>
+ *    <li><b>Record Type : </b>1 byte per record
+ *    <li><b>Timestamp : </b>the difference from the previous record's timestamp as a zigzag varint, so timestamps in
+ *    order take a byte or two each
+ *    <li><b>User ID : </b>the position of the user ID in a sorted dictionary of every user ID, as a varint
+ *    <li><b>Amount : </b>a FLOAT64 for each DEBIT or CREDIT record only
+ * </ul>
+ * <p>
+ * Each column starts with its length in bytes, so a scan steps over the columns it does not need without reading them.
+ * The footer holds the dictionary and, for each block, its offset, its record count per type and the smallest and
+ * largest timestamp and dictionary position, so a scan skips the blocks that cannot match. The file has the following
+ * structure:
+ * <ul>
+ *    <li><b>Header : </b>"MPS7COLS", a 1 byte format version, then the length, modification time and fingerprint of
+ *    the MPS7 file
+ *    <li><b>Blocks : </b>the record count, then the type, timestamp, user ID and amount columns
+ *    <li><b>Footer : </b>the version and declared record count of the MPS7 file and the offset just past the last
+ *    record converted, the dictionary, then the statistics of each block
+ *    <li><b>Trailer : </b>the offset of the footer
+ * </ul>
+ * <p>
+ * Like {@link MetricsSnapshot}, the file is written to a temporary file and renamed into place, and it only applies to
+ * an MPS7 file with the same length, modification time and fingerprint, so a changed log is converted again.
+ */
+public class ColumnarLog implements Closeable {
+  /**
+   * The largest number of records in a block.
+   */
+  public static final int BLOCK_RECORDS = 1 << 16;
+
+  /**
+   * One past the largest timestamp, for scans without an upper bound.
+   */
+  public static final long END_OF_TIME = 1L << 32;
+
+  private static final byte[] MAGIC = { 'M', 'P', 'S', '7', 'C', 'O', 'L', 'S' };
+  private static final int FORMAT_VERSION = 1;
+  private static final int HEADER_LENGTH = MAGIC.length + 1 + 8 + 8 + 8;
+  private static final int TRAILER_LENGTH = 8;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+
+  private final long sourceLength;
+  private final long sourceModified;
+  private final long sourceFingerprint;
+  private final int sourceVersion;
+  private final long sourceRecordCount;
+  private final long sourceEndOffset;
+
+  /**
+   * Every distinct user ID, sorted, so the position of a user ID is found by binary search.
+   */
+  private final long[] dictionary;
+
+  /**
+   * The statistics of each block; the type counts hold one entry per record type per block.
+   */
+  private final long[] blockOffsets;
+  private final int[] blockLengths;
+  private final int[] blockRecords;
+  private final int[] blockTypeCounts;
+  private final long[] blockMinTimestamps;
+  private final long[] blockMaxTimestamps;
+  private final int[] blockMinUsers;
+  private final int[] blockMaxUsers;
+
+  /**
+   * The bytes of the columns read by scans so far.
+   */
+  private long bytesRead;
+
+  /**
+   * Opens a columnar file, reading its header and footer.
+   *
+   * @param columnarFile the file written by {@link #convert(File, File)}
+   * @throws IOException thrown if an error occurs reading the file, or it is not a columnar file of this version
+   */
+  private ColumnarLog(File columnarFile) throws IOException {
+    this.file = new RandomAccessFile(columnarFile, "r");
+    this.channel = file.getChannel();
+
+    try {
+      long length = channel.size();
+      if (length < HEADER_LENGTH + TRAILER_LENGTH) {
+        throw new IOException("The columnar file " + columnarFile + " is too short.");
+      }
+
+      byte[] magic = new byte[MAGIC.length];
+      file.readFully(magic);
+      if (!Arrays.equals(magic, MAGIC)) {
+        throw new IOException("The file " + columnarFile + " is not a columnar MPS7 file.");
+      }
+      int version = file.readUnsignedByte();
+      if (version != FORMAT_VERSION) {
+        throw new IOException("The columnar file " + columnarFile + " has unsupported version " + version + ".");
+      }
+      sourceLength = file.readLong();
+      sourceModified = file.readLong();
+      sourceFingerprint = file.readLong();
+
+      file.seek(length - TRAILER_LENGTH);
+      long footerOffset = file.readLong();
+      if (footerOffset < HEADER_LENGTH || footerOffset > length - TRAILER_LENGTH) {
+        throw new IOException("The columnar file " + columnarFile + " is truncated.");
+      }
+
+      file.seek(footerOffset);
+      // The stream is left open, since closing it would close the channel
+      DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+      sourceVersion = in.readUnsignedByte();
+      sourceRecordCount = in.readLong();
+      sourceEndOffset = in.readLong();
+      dictionary = new long[in.readInt()];
+      for (int i = 0; i < dictionary.length; i++) {
+        dictionary[i] = in.readLong();
+      }
+
+      int blocks = in.readInt();
+      blockOffsets = new long[blocks];
+      blockLengths = new int[blocks];
+      blockRecords = new int[blocks];
+      blockTypeCounts = new int[blocks * RecordType.values().length];
+      blockMinTimestamps = new long[blocks];
+      blockMaxTimestamps = new long[blocks];
+      blockMinUsers = new int[blocks];
+      blockMaxUsers = new int[blocks];
+      for (int block = 0; block < blocks; block++) {
+        blockOffsets[block] = in.readLong();
+        blockLengths[block] = in.readInt();
+        blockRecords[block] = in.readInt();
+        for (int type = 0; type < RecordType.values().length; type++) {
+          blockTypeCounts[block * RecordType.values().length + type] = in.readInt();
+        }
+        blockMinTimestamps[block] = in.readLong();
+        blockMaxTimestamps[block] = in.readLong();
+        blockMinUsers[block] = in.readInt();
+        blockMaxUsers[block] = in.readInt();
+      }
+    } catch (IOException | RuntimeException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * Opens a columnar file written by {@link #convert(File, File)}.
+   *
+   * @param columnarFile the columnar file
+   * @return the opened file
+   * @throws IOException thrown if an error occurs reading the file, or it is not a columnar file of this version
+   */
+  public static ColumnarLog open(File columnarFile) throws IOException {
+    return new ColumnarLog(columnarFile);
+  }
+
+  /**
+   * Converts the records the header of an MPS7 file declares into a columnar file, replacing it if it exists, and
+   * opens it. The MPS7 file is read twice: once to build the user ID dictionary, and once to write the blocks.
+   *
+   * @param source the MPS7 file
+   * @param columnarFile the columnar file to write
+   * @return the opened columnar file
+   * @throws IOException thrown if an error occurs reading or writing a file, or the MPS7 file does not have a
+   *         supported header
+   */
+  public static ColumnarLog convert(File source, File columnarFile) throws IOException {
+    long sourceLength = source.length();
+    long sourceModified = source.lastModified();
+    long[] dictionary = buildDictionary(source);
+
+    File temp = File.createTempFile(columnarFile.getName(), ".tmp", columnarFile.getAbsoluteFile().getParentFile());
+    try {
+      try (MappedRecordReader reader = new MappedRecordReader(source);
+          DataOutputStream out =
+              new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+        out.write(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeLong(sourceLength);
+        out.writeLong(sourceModified);
+        out.writeLong(MetricsSnapshot.fingerprint(source, sourceLength));
+
+        BlockWriter blocks = new BlockWriter(dictionary);
+        Mps7Header header = reader.readHeader();
+        if (header != null) {
+          RecordCursor cursor = new RecordCursor();
+          while (reader.next(cursor)) {
+            blocks.add(cursor, out);
+          }
+          blocks.flush(out);
+        }
+        blocks.writeFooter(out, header, reader.getPosition());
+      }
+
+      ParserHelper.replaceAtomically(temp, columnarFile);
+    } finally {
+      Files.deleteIfExists(temp.toPath());
+    }
+
+    return open(columnarFile);
+  }
+
+  /**
+   * Gathers every distinct user ID of the records the header declares, sorted. The IDs are collected into a hash set
+   * and sorted once at the end, so the work grows with the records plus the distinct users, not their product.
+   */
+  private static long[] buildDictionary(File source) throws IOException {
+    UserIdSet users = new UserIdSet();
+    try (MappedRecordReader reader = new MappedRecordReader(source)) {
+      if (reader.readHeader() != null) {
+        RecordCursor cursor = new RecordCursor();
+        while (reader.next(cursor)) {
+          users.add(cursor.getUserId());
+        }
+      }
+    }
+    return users.toSortedArray();
+  }
+
+  /**
+   * Checks whether this columnar file was converted from the given MPS7 file as it is now.
+   *
+   * @param source the MPS7 file
+   * @return true if the MPS7 file has the same length, modification time and fingerprint as when it was converted
+   * @throws IOException thrown if an error occurs reading the MPS7 file
+   */
+  public boolean isCurrentFor(File source) throws IOException {
+    return source.length() == sourceLength
+        && source.lastModified() == sourceModified
+        && MetricsSnapshot.fingerprint(source, sourceLength) == sourceFingerprint;
+  }
+
+  /**
+   * Get the header of the MPS7 file this was converted from.
+   *
+   * @return the header, or null if the MPS7 file was too short to hold one
+   */
+  public Mps7Header getSourceHeader() {
+    return sourceVersion == 0 ? null : new Mps7Header(sourceVersion, sourceRecordCount);
+  }
+
+  /**
+   * Get the length of the MPS7 file this was converted from.
+   *
+   * @return the length in bytes
+   */
+  public long getSourceLength() {
+    return sourceLength;
+  }
+
+  /**
+   * Get the offset just past the last record converted from the MPS7 file.
+   *
+   * @return the end offset
+   */
+  public long getSourceEndOffset() {
+    return sourceEndOffset;
+  }
+
+  /**
+   * Get the number of records held.
+   *
+   * @return the record count
+   */
+  public long getRecordCount() {
+    long records = 0;
+    for (int count : blockRecords) {
+      records += count;
+    }
+    return records;
+  }
+
+  /**
+   * Get the number of records of each type, from the block statistics alone.
+   *
+   * @return the record counts, indexed by record type indicator
+   */
+  public long[] getTypeCounts() {
+    long[] counts = new long[RecordType.values().length];
+    for (int i = 0; i < blockTypeCounts.length; i++) {
+      counts[i % counts.length] += blockTypeCounts[i];
+    }
+    return counts;
+  }
+
+  /**
+   * Get the smallest timestamp of any record, from the block statistics alone.
+   *
+   * @return the smallest timestamp, or {@link #END_OF_TIME} if there are no records
+   */
+  public long getMinTimestamp() {
+    long min = END_OF_TIME;
+    for (long timestamp : blockMinTimestamps) {
+      min = Math.min(min, timestamp);
+    }
+    return min;
+  }
+
+  /**
+   * Get the largest timestamp of any record, from the block statistics alone.
+   *
+   * @return the largest timestamp, or -1 if there are no records
+   */
+  public long getMaxTimestamp() {
+    long max = -1;
+    for (long timestamp : blockMaxTimestamps) {
+      max = Math.max(max, timestamp);
+    }
+    return max;
+  }
+
+  public int getBlockCount() {
+    return blockRecords.length;
+  }
+
+  public int getUserCount() {
+    return dictionary.length;
+  }
+
+  /**
+   * Get the bytes of the columns read by scans so far, which leaves out the columns and blocks that were skipped.
+   *
+   * @return the bytes read
+   */
+  public long getBytesRead() {
+    return bytesRead;
+  }
+
+  /**
+   * Folds every record into the given accumulator.
+   *
+   * @param metrics the accumulator to fold the records into
+   * @throws IOException thrown if an error occurs reading the file
+   */
+  public void fold(MetricsAccumulator metrics) throws IOException {
+    fold(metrics, 0, END_OF_TIME);
+  }
+
+  /**
+   * Folds the records with a timestamp in the given range into the given accumulator. Only the columns the metrics
+   * need are read:
+   * <ul>
+   *    <li>Blocks with no timestamps in the range are skipped whole
+   *    <li>The timestamp column is only read for blocks partly in the range, or when the metrics are windowed
+   *    <li>The user ID column is only read when every balance is indexed, or for blocks whose dictionary positions
+   *    cover the user ID; otherwise no record in the block can be for the user
+   * </ul>
+   *
+   * @param metrics the accumulator to fold the records into
+   * @param fromTimestamp the first timestamp in the range
+   * @param toTimestamp one past the last timestamp in the range
+   * @throws IOException thrown if an error occurs reading the file
+   */
+  public void fold(MetricsAccumulator metrics, long fromTimestamp, long toTimestamp) throws IOException {
+    WindowedAggregator windows = metrics.getWindows();
+    boolean allUsers = metrics.getBalanceIndex() != null;
+    int user = Arrays.binarySearch(dictionary, metrics.getUserId());
+    // Stands in for the user ID of records whose user column is skipped; it can never match the user
+    long otherUser = ~metrics.getUserId();
+
+    ColumnReader timestamps = new ColumnReader();
+    ColumnReader users = new ColumnReader();
+    for (int block = 0; block < blockRecords.length; block++) {
+      if (blockMaxTimestamps[block] < fromTimestamp || blockMinTimestamps[block] >= toTimestamp) {
+        continue;
+      }
+      boolean wholeBlock = blockMinTimestamps[block] >= fromTimestamp && blockMaxTimestamps[block] < toTimestamp;
+      boolean readTimestamps = windows != null || !wholeBlock;
+      boolean readUsers = allUsers || (user >= 0 && user >= blockMinUsers[block] && user <= blockMaxUsers[block]);
+
+      ByteBuffer buffer = channel.map(MapMode.READ_ONLY, blockOffsets[block], blockLengths[block]);
+      buffer.order(ByteOrder.BIG_ENDIAN);
+      int records = buffer.getInt(0);
+
+      // Find the start of each column from the lengths in front of them
+      int typesStart = 8;
+      int typesLength = buffer.getInt(4);
+      int timestampsStart = typesStart + typesLength + 4;
+      int timestampsLength = buffer.getInt(timestampsStart - 4);
+      int usersStart = timestampsStart + timestampsLength + 4;
+      int usersLength = buffer.getInt(usersStart - 4);
+      int amountsStart = usersStart + usersLength + 4;
+      int amountsLength = buffer.getInt(amountsStart - 4);
+      timestamps.reset(buffer, timestampsStart);
+      users.reset(buffer, usersStart);
+      bytesRead += typesLength + amountsLength + (readTimestamps ? timestampsLength : 0)
+          + (readUsers ? usersLength : 0);
+
+      long timestamp = 0;
+      int amountOffset = amountsStart;
+      for (int i = 0; i < records; i++) {
+        int type = buffer.get(typesStart + i);
+        double amount = 0.0;
+        if (type <= RecordType.CREDIT.getRecordIndicator()) {
+          amount = buffer.getDouble(amountOffset);
+          amountOffset += ParserHelper.AMOUNT_LENGTH;
+        }
+        if (readTimestamps) {
+          timestamp += ColumnReader.unzigzag(timestamps.nextVarint());
+        }
+        long userId = readUsers ? dictionary[(int) users.nextVarint()] : otherUser;
+
+        if (!wholeBlock && (timestamp < fromTimestamp || timestamp >= toTimestamp)) {
+          continue;
+        }
+        if (windows != null) {
+          windows.accept(timestamp, type, amount);
+        }
+        metrics.accept(type, userId, amount);
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+    file.close();
+  }
+
+  /**
+   * Reads varints from a column of a block.
+   */
+  private static class ColumnReader {
+    private ByteBuffer buffer;
+    private int position;
+
+    void reset(ByteBuffer buffer, int position) {
+      this.buffer = buffer;
+      this.position = position;
+    }
+
+    long nextVarint() {
+      long value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = buffer.get(position++);
+        value |= (long) (b & 0x7f) << shift;
+        shift += 7;
+      } while (b < 0);
+      return value;
+    }
+
+    static long unzigzag(long value) {
+      return (value >>> 1) ^ -(value & 1);
+    }
+  }
+
+  /**
+   * An open-addressing hash set of primitive user IDs, laid out like {@link LongAmountHashMap} without the amounts: a
+   * power of two table of keys, probed linearly, doubled once it is more than three quarters full. A key of 0 marks an
+   * empty slot, so the 0 user ID is held in a separate field.
+   */
+  private static class UserIdSet {
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    private long[] keys = new long[1 << 10];
+    private int size;
+    private boolean hasZero;
+
+    void add(long userId) {
+      if (userId == 0) {
+        hasZero = true;
+        return;
+      }
+
+      int mask = keys.length - 1;
+      int index = hash(userId) & mask;
+      while (keys[index] != 0) {
+        if (keys[index] == userId) {
+          return;
+        }
+        index = (index + 1) & mask;
+      }
+      keys[index] = userId;
+      if (++size > keys.length / 4 * 3) {
+        grow();
+      }
+    }
+
+    private void grow() {
+      if (keys.length == MAXIMUM_CAPACITY) {
+        throw new IllegalStateException("The dictionary cannot hold more than " + size + " user IDs.");
+      }
+
+      long[] oldKeys = keys;
+      keys = new long[oldKeys.length * 2];
+      int mask = keys.length - 1;
+      for (long key : oldKeys) {
+        if (key != 0) {
+          int index = hash(key) & mask;
+          while (keys[index] != 0) {
+            index = (index + 1) & mask;
+          }
+          keys[index] = key;
+        }
+      }
+    }
+
+    /**
+     * Copies the user IDs out into a new sorted array.
+     */
+    long[] toSortedArray() {
+      long[] sorted = new long[size + (hasZero ? 1 : 0)];
+      int count = 0;
+      if (hasZero) {
+        sorted[count++] = 0;
+      }
+      for (long key : keys) {
+        if (key != 0) {
+          sorted[count++] = key;
+        }
+      }
+      Arrays.sort(sorted);
+      return sorted;
+    }
+
+    private static int hash(long key) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32));
+    }
+  }
+
+  /**
+   * Encodes records into blocks, and gathers the statistics of each block for the footer.
+   */
+  private static class BlockWriter {
+    private final long[] dictionary;
+
+    private final byte[] types = new byte[BLOCK_RECORDS];
+    private final long[] timestamps = new long[BLOCK_RECORDS];
+    private final int[] users = new int[BLOCK_RECORDS];
+    private final double[] amounts = new double[BLOCK_RECORDS];
+    private int size;
+
+    private final ByteArrayOutputStream column = new ByteArrayOutputStream(BLOCK_RECORDS * 8);
+    private final ByteArrayOutputStream footer = new ByteArrayOutputStream();
+    private final DataOutputStream footerOut = new DataOutputStream(footer);
+    private int blocks;
+    private long offset = HEADER_LENGTH;
+
+    BlockWriter(long[] dictionary) {
+      this.dictionary = dictionary;
+    }
+
+    void add(RecordCursor cursor, DataOutputStream out) throws IOException {
+      types[size] = (byte) cursor.getType();
+      timestamps[size] = cursor.getTimestamp();
+      users[size] = Arrays.binarySearch(dictionary, cursor.getUserId());
+      amounts[size] = cursor.getAmount();
+      if (++size == BLOCK_RECORDS) {
+        flush(out);
+      }
+    }
+
+    /**
+     * Writes the records added since the last block as a block.
+     */
+    void flush(DataOutputStream out) throws IOException {
+      if (size == 0) {
+        return;
+      }
+
+      int[] typeCounts = new int[RecordType.values().length];
+      long minTimestamp = Long.MAX_VALUE;
+      long maxTimestamp = Long.MIN_VALUE;
+      int minUser = Integer.MAX_VALUE;
+      int maxUser = Integer.MIN_VALUE;
+      for (int i = 0; i < size; i++) {
+        typeCounts[types[i]]++;
+        minTimestamp = Math.min(minTimestamp, timestamps[i]);
+        maxTimestamp = Math.max(maxTimestamp, timestamps[i]);
+        minUser = Math.min(minUser, users[i]);
+        maxUser = Math.max(maxUser, users[i]);
+      }
+
+      int length = 4;
+      out.writeInt(size);
+
+      column.reset();
+      column.write(types, 0, size);
+      length += writeColumn(out);
+
+      column.reset();
+      long previous = 0;
+      for (int i = 0; i < size; i++) {
+        long delta = timestamps[i] - previous;
+        writeVarint((delta << 1) ^ (delta >> 63));
+        previous = timestamps[i];
+      }
+      length += writeColumn(out);
+
+      column.reset();
+      for (int i = 0; i < size; i++) {
+        writeVarint(users[i]);
+      }
+      length += writeColumn(out);
+
+      column.reset();
+      DataOutputStream amountOut = new DataOutputStream(column);
+      for (int i = 0; i < size; i++) {
+        if (types[i] <= RecordType.CREDIT.getRecordIndicator()) {
+          amountOut.writeDouble(amounts[i]);
+        }
+      }
+      length += writeColumn(out);
+
+      footerOut.writeLong(offset);
+      footerOut.writeInt(length);
+      footerOut.writeInt(size);
+      for (int count : typeCounts) {
+        footerOut.writeInt(count);
+      }
+      footerOut.writeLong(minTimestamp);
+      footerOut.writeLong(maxTimestamp);
+      footerOut.writeInt(minUser);
+      footerOut.writeInt(maxUser);
+
+      offset += length;
+      blocks++;
+      size = 0;
+    }
+
+    /**
+     * Writes the footer and the trailer.
+     *
+     * @param header the header of the MPS7 file, or null if it was too short to hold one
+     * @param endOffset the offset just past the last record converted
+     */
+    void writeFooter(DataOutputStream out, Mps7Header header, long endOffset) throws IOException {
+      // A version of 0 marks an MPS7 file too short to hold a header
+      out.writeByte(header == null ? 0 : header.getVersion());
+      out.writeLong(header == null ? 0 : header.getRecordCount());
+      out.writeLong(endOffset);
+      out.writeInt(dictionary.length);
+      for (long userId : dictionary) {
+        out.writeLong(userId);
+      }
+      out.writeInt(blocks);
+      footer.writeTo(out);
+      out.writeLong(offset);
+    }
+
+    /**
+     * Writes the column bytes after their length.
+     *
+     * @return the number of bytes written
+     */
+    private int writeColumn(DataOutputStream out) throws IOException {
+      out.writeInt(column.size());
+      column.writeTo(out);
+      return 4 + column.size();
+    }
+
+    private void writeVarint(long value) {
+      while ((value & ~0x7fL) != 0) {
+        column.write((int) (value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      column.write((int) value);
+    }
+  }
+
+}
@@ -0,0 +1,310 @@
+package com.parser;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.parser.ParserHelper.RecordType;
+
+/**
+ * Sorts the records of one or more MPS7 files by timestamp into a single MPS7 file, without holding more than a fixed
+ * number of records in memory, so logs larger than the heap can be put in time order.
+ * <p>
+ * The records are read in order into {@link RecordColumns} until they are full, ordered with a
+ * {@link TimestampOrder}, and spilled to a temporary MPS7 file as a sorted run. The runs are then merged with a heap
+ * holding the next record of each run, at most {@link #MERGE_FAN_IN} runs at a time; if there are more, consecutive
+ * runs are merged into longer runs first. Every file is read and written front to back.
+ * <p>
+ * The sort is stable: records with the same timestamp keep the order of the input files, and their order within each
+ * file.
+ */
+public class ExternalRecordSorter {
+  /**
+   * The number of records held in memory at once by default; about 70 MB of columns.
+   */
+  public static final int DEFAULT_RUN_RECORDS = 1 << 22;
+
+  /**
+   * The most runs merged at once, which bounds the files held open.
+   */
+  public static final int MERGE_FAN_IN = 64;
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final int runRecords;
+  private final int parallelism;
+  private final File tempDirectory;
+
+  /**
+   * Creates a sorter that holds the default number of records in memory and spills to the default temporary directory.
+   */
+  public ExternalRecordSorter() {
+    this(DEFAULT_RUN_RECORDS, 1, null);
+  }
+
+  /**
+   * Creates a sorter.
+   *
+   * @param runRecords the most records to hold in memory and sort at once
+   * @param parallelism the most threads to sort each run on
+   * @param tempDirectory the directory to spill the sorted runs to, or null for the default temporary directory
+   */
+  public ExternalRecordSorter(int runRecords, int parallelism, File tempDirectory) {
+    if (runRecords < 1) {
+      throw new IllegalArgumentException("The number of records to hold in memory must be at least 1.");
+    }
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("The number of threads must be at least 1.");
+    }
+    this.runRecords = runRecords;
+    this.parallelism = parallelism;
+    this.tempDirectory = tempDirectory;
+  }
+
+  /**
+   * Sorts the records the headers of the given files declare by timestamp into the output file, replacing it if it
+   * exists. An input file that is too short to hold a header, holds fewer records than its header declares, or has
+   * data after them is reported, and the records read from it are still sorted.
+   *
+   * @param inputs the MPS7 files to sort, in the order records with the same timestamp are kept in
+   * @param output the MPS7 file to write; may be one of the inputs
+   * @return the number of records written
+   * @throws IOException thrown if an error occurs reading or writing a file, an input does not have a supported MPS7
+   *         header, or there are more records than an MPS7 header can declare
+   */
+  public long sort(List<File> inputs, File output) throws IOException {
+    // No record is shorter than an autopay record, which bounds how many the inputs can hold
+    long fits = 0;
+    for (File input : inputs) {
+      fits += Math.max(0, input.length() - ParserHelper.HEADER_LENGTH) / ParserHelper.BASE_RECORD_LENGTH;
+    }
+    RecordColumns columns = new RecordColumns((int) Math.min(runRecords, fits));
+
+    List<File> runs = new ArrayList<>();
+    List<File> spilled = new ArrayList<>();
+    File temp = File.createTempFile(output.getName(), ".tmp", output.getAbsoluteFile().getParentFile());
+    try {
+      long records = 0;
+      RecordCursor cursor = new RecordCursor();
+      for (File input : inputs) {
+        try (MappedRecordReader reader = new MappedRecordReader(input)) {
+          Mps7Header header = reader.readHeader();
+          if (header == null) {
+            System.err.println("Warning : " + input + " is too short to hold the MPS7 header.");
+            continue;
+          }
+
+          while (reader.next(cursor)) {
+            if (columns.size() == columns.capacity()) {
+              runs.add(spill(columns, spilled));
+            }
+            columns.add(cursor);
+          }
+          records += reader.getRecordsRead();
+
+          String mismatch = header.describeMismatch(reader.getRecordsRead(), reader.getPosition(),
+              reader.getFileSize());
+          if (mismatch != null) {
+            System.err.println("Warning : " + input + " : " + mismatch);
+          }
+        }
+      }
+      if (records > 0xffffffffL) {
+        throw new IOException("The files hold " + records + " records, more than an MPS7 header can declare.");
+      }
+
+      // A single run needs no merge, so it is written straight to the output
+      if (runs.isEmpty()) {
+        writeRun(columns, temp);
+      } else {
+        if (columns.size() > 0) {
+          runs.add(spill(columns, spilled));
+        }
+        mergeRuns(runs, spilled, temp);
+      }
+
+      ParserHelper.replaceAtomically(temp, output);
+      return records;
+    } finally {
+      Files.deleteIfExists(temp.toPath());
+      for (File run : spilled) {
+        Files.deleteIfExists(run.toPath());
+      }
+    }
+  }
+
+  /**
+   * Sorts the records held and writes them to a new temporary file as a run, then empties the columns.
+   *
+   * @param columns the records to sort
+   * @param spilled the temporary files created so far, which the run file is added to
+   * @return the run file
+   * @throws IOException thrown if an error occurs writing the run
+   */
+  private File spill(RecordColumns columns, List<File> spilled) throws IOException {
+    File run = createRunFile(spilled);
+    writeRun(columns, run);
+    columns.clear();
+    return run;
+  }
+
+  /**
+   * Creates an empty temporary file for a run, and adds it to the files to delete once the sort is done.
+   *
+   * @param spilled the temporary files created so far
+   * @return the run file
+   * @throws IOException thrown if the file cannot be created
+   */
+  private File createRunFile(List<File> spilled) throws IOException {
+    File run = File.createTempFile("mps7-run-", ".dat", tempDirectory);
+    spilled.add(run);
+    return run;
+  }
+
+  /**
+   * Writes the records held to the given file as an MPS7 file, in timestamp order.
+   *
+   * @param columns the records to write
+   * @param file the file to write
+   * @throws IOException thrown if an error occurs writing the file
+   */
+  private void writeRun(RecordColumns columns, File file) throws IOException {
+    TimestampOrder order = columns.orderByTimestamp(parallelism);
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE))) {
+      new Mps7Header(Mps7Header.VERSION_1, columns.size()).write(out);
+      TimestampOrder.Cursor cursor = order.cursor();
+      while (cursor.next()) {
+        int index = cursor.getIndex();
+        writeRecord(out, columns.getType(index), cursor.getTimestamp(), columns.getUserId(index),
+            columns.getAmount(index));
+      }
+    }
+  }
+
+  /**
+   * Merges the runs into the given file, merging consecutive runs into longer runs first while there are more than
+   * {@link #MERGE_FAN_IN}. Each run is deleted as soon as it has been merged into a longer one.
+   *
+   * @param runs the sorted runs, in input order
+   * @param spilled the temporary files created so far, which any longer runs are added to
+   * @param file the file to write
+   * @throws IOException thrown if an error occurs reading or writing a run
+   */
+  private void mergeRuns(List<File> runs, List<File> spilled, File file) throws IOException {
+    while (runs.size() > MERGE_FAN_IN) {
+      List<File> merged = new ArrayList<>();
+      for (int start = 0; start < runs.size(); start += MERGE_FAN_IN) {
+        List<File> group = runs.subList(start, Math.min(start + MERGE_FAN_IN, runs.size()));
+        if (group.size() == 1) {
+          merged.add(group.get(0));
+          continue;
+        }
+
+        File run = createRunFile(spilled);
+        merged.add(run);
+        merge(group, run);
+        for (File done : group) {
+          Files.deleteIfExists(done.toPath());
+        }
+      }
+      runs.clear();
+      runs.addAll(merged);
+    }
+    merge(runs, file);
+  }
+
+  /**
+   * Merges the given runs into a single sorted MPS7 file, taking the earliest next record of any run each time, and
+   * the earlier run's on a tie.
+   *
+   * @param runs the sorted runs, in input order
+   * @param file the file to write
+   * @throws IOException thrown if an error occurs reading or writing a run
+   */
+  private static void merge(List<File> runs, File file) throws IOException {
+    List<Run> open = new ArrayList<>(runs.size());
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE))) {
+      PriorityQueue<Run> heap = new PriorityQueue<>(runs.size(),
+          Comparator.comparingLong((Run run) -> run.cursor.getTimestamp()).thenComparingInt(run -> run.index));
+      long records = 0;
+      for (int i = 0; i < runs.size(); i++) {
+        Run run = new Run(runs.get(i), i);
+        open.add(run);
+        records += run.records;
+        if (run.next()) {
+          heap.add(run);
+        }
+      }
+
+      new Mps7Header(Mps7Header.VERSION_1, records).write(out);
+      while (!heap.isEmpty()) {
+        Run run = heap.poll();
+        RecordCursor cursor = run.cursor;
+        writeRecord(out, cursor.getType(), cursor.getTimestamp(), cursor.getUserId(), cursor.getAmount());
+        if (run.next()) {
+          heap.add(run);
+        }
+      }
+    } finally {
+      for (Run run : open) {
+        run.reader.close();
+      }
+    }
+  }
+
+  /**
+   * Writes a single record according to the specification, with the amount only for CREDIT or DEBIT record types.
+   *
+   * @param out the output to write the record bytes to
+   * @param type the record type indicator
+   * @param timestamp the unsigned INT32 timestamp
+   * @param userId the unsigned INT64 user ID
+   * @param amount the amount
+   * @throws IOException thrown if an error occurs writing the record
+   */
+  private static void writeRecord(DataOutputStream out, int type, long timestamp, long userId, double amount)
+      throws IOException {
+    out.writeByte(type);
+    out.writeInt((int) timestamp);
+    out.writeLong(userId);
+    if (RecordType.getRecordTypeFromRecordIndicator(type).isHasAmount()) {
+      out.writeLong(Double.doubleToRawLongBits(amount));
+    }
+  }
+
+  /**
+   * A sorted run being merged, positioned on its next record.
+   */
+  private static class Run {
+    final MappedRecordReader reader;
+    final RecordCursor cursor = new RecordCursor();
+    final int index;
+    final long records;
+
+    Run(File file, int index) throws IOException {
+      this.reader = new MappedRecordReader(file);
+      this.index = index;
+      try {
+        Mps7Header header = reader.readHeader();
+        this.records = header == null ? 0 : header.getRecordCount();
+      } catch (IOException e) {
+        reader.close();
+        throw e;
+      }
+    }
+
+    boolean next() throws IOException {
+      return records > 0 && reader.next(cursor);
+    }
+  }
+
+}
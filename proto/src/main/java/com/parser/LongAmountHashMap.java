@@ -0,0 +1,299 @@
+package com.parser;
+
+/**
+ * An open-addressing hash map from primitive long keys to exact dollar amounts, used instead of a
+ * {@code HashMap<BigInteger, Double>} so that no objects are allocated per entry.
+ * <p>
+ * Each amount is held as the pair of fixed-point words summed by {@link MoneyAccumulator}, so totals are exact and do
+ * not depend on the order the amounts are added in. Keys are held in one array and the amount words in another twice
+ * its length; both are always a power of two long, and collisions are resolved by linear probing. The table doubles
+ * once it is more than three quarters full, so the memory used is predictable: 24 bytes per slot, or between roughly 32
+ * and 64 bytes per entry.
+ * <p>
+ * A key of 0 marks an empty slot in the table, so the 0 key is held in separate fields.
+ */
+public class LongAmountHashMap {
+  /**
+   * The largest number of slots the table can hold.
+   */
+  private static final int MAXIMUM_CAPACITY = 1 << 29;
+
+  /**
+   * The fraction of the slots that may be used before the table doubles.
+   */
+  private static final double LOAD_FACTOR = 0.75;
+
+  private long[] keys;
+  private long[] amounts;
+  private int mask;
+  private int size;
+  private int resizeThreshold;
+
+  private boolean hasZeroKey;
+  private final long[] zeroAmount = new long[2];
+
+  /**
+   * Creates an empty map with room for a small number of entries.
+   */
+  public LongAmountHashMap() {
+    this(16);
+  }
+
+  /**
+   * Creates an empty map with room for the given number of entries before it has to grow.
+   *
+   * @param expectedSize the number of entries expected
+   */
+  public LongAmountHashMap(int expectedSize) {
+    if (expectedSize < 0) {
+      throw new IllegalArgumentException("The expected size must not be negative.");
+    }
+
+    allocate(capacityFor(expectedSize));
+  }
+
+  /**
+   * Get the number of entries in the map.
+   *
+   * @return the number of entries
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the number of slots in the table, not counting the separate 0 key.
+   *
+   * @return the number of slots
+   */
+  public int capacity() {
+    return keys.length;
+  }
+
+  /**
+   * Checks whether the map holds the given key.
+   *
+   * @param key the key to look up
+   * @return true if the key has an amount
+   */
+  public boolean containsKey(long key) {
+    if (key == 0) {
+      return hasZeroKey;
+    }
+    return keys[indexOf(key)] == key;
+  }
+
+  /**
+   * Get the amount of the given key.
+   *
+   * @param key the key to look up
+   * @return a copy of the amount of the key, or $0.00 if the key is not in the map
+   */
+  public MoneyAccumulator get(long key) {
+    if (key == 0) {
+      return new MoneyAccumulator(zeroAmount[0], zeroAmount[1]);
+    }
+
+    int index = indexOf(key);
+    if (keys[index] != key) {
+      return new MoneyAccumulator();
+    }
+    return new MoneyAccumulator(amounts[2 * index], amounts[2 * index + 1]);
+  }
+
+  /**
+   * Get the amount of the given key rounded to the nearest cent, without allocating.
+   *
+   * @param key the key to look up
+   * @return the amount of the key in cents, or 0 if the key is not in the map
+   */
+  public long getCents(long key) {
+    if (key == 0) {
+      return MoneyAccumulator.toCents(zeroAmount, 0);
+    }
+
+    int index = indexOf(key);
+    return keys[index] == key ? MoneyAccumulator.toCents(amounts, 2 * index) : 0;
+  }
+
+  /**
+   * Adds the given dollar amount to the amount of the given key, starting from $0.00 if the key is not in the map yet.
+   *
+   * @param key the key to update
+   * @param amount the amount to add
+   */
+  public void addTo(long key, double amount) {
+    if (key == 0) {
+      claimZeroKey();
+      MoneyAccumulator.add(zeroAmount, 0, amount);
+    } else {
+      // Claim before reading the amounts field, since claiming may grow the table
+      int index = claim(key);
+      MoneyAccumulator.add(amounts, 2 * index, amount);
+    }
+  }
+
+  /**
+   * Adds the given fixed-point amount to the amount of the given key, starting from $0.00 if the key is not in the map
+   * yet.
+   *
+   * @param key the key to update
+   * @param high the high word of the amount to add
+   * @param low the low word of the amount to add
+   */
+  public void addTo(long key, long high, long low) {
+    if (key == 0) {
+      claimZeroKey();
+      MoneyAccumulator.add(zeroAmount, 0, high, low);
+    } else {
+      // Claim before reading the amounts field, since claiming may grow the table
+      int index = claim(key);
+      MoneyAccumulator.add(amounts, 2 * index, high, low);
+    }
+  }
+
+  /**
+   * Adds every entry of the given map into this one.
+   *
+   * @param other the map to add in
+   */
+  public void addAll(LongAmountHashMap other) {
+    other.forEach(this::addTo);
+  }
+
+  /**
+   * Calls the given consumer once for every entry in the map, in no particular order.
+   *
+   * @param consumer the consumer to call
+   */
+  public void forEach(LongAmountConsumer consumer) {
+    if (hasZeroKey) {
+      consumer.accept(0, zeroAmount[0], zeroAmount[1]);
+    }
+
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != 0) {
+        consumer.accept(keys[i], amounts[2 * i], amounts[2 * i + 1]);
+      }
+    }
+  }
+
+  /**
+   * Marks the 0 key as present.
+   */
+  private void claimZeroKey() {
+    if (!hasZeroKey) {
+      hasZeroKey = true;
+      size++;
+    }
+  }
+
+  /**
+   * Makes sure the given non-zero key has a slot, growing the table if needed.
+   *
+   * @param key the key to update
+   * @return the index of the slot holding the key
+   */
+  private int claim(long key) {
+    int index = indexOf(key);
+    if (keys[index] != key) {
+      // Grow first if needed, so the claimed slot stays valid
+      if (size + 1 > resizeThreshold) {
+        resize(keys.length * 2);
+        index = indexOf(key);
+      }
+      keys[index] = key;
+      size++;
+    }
+    return index;
+  }
+
+  /**
+   * Finds the slot holding the given non-zero key, or the empty slot where it would go.
+   *
+   * @param key the key to look up
+   * @return the index of the slot
+   */
+  private int indexOf(long key) {
+    int index = hash(key) & mask;
+    while (keys[index] != 0 && keys[index] != key) {
+      index = (index + 1) & mask;
+    }
+    return index;
+  }
+
+  /**
+   * Rehashes every entry into a table with the given number of slots.
+   *
+   * @param capacity the new number of slots, a power of two
+   */
+  private void resize(int capacity) {
+    if (keys.length == MAXIMUM_CAPACITY) {
+      throw new IllegalStateException("The map cannot hold more than " + resizeThreshold + " entries.");
+    }
+
+    long[] oldKeys = keys;
+    long[] oldAmounts = amounts;
+    allocate(capacity);
+
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != 0) {
+        int index = indexOf(oldKeys[i]);
+        keys[index] = oldKeys[i];
+        amounts[2 * index] = oldAmounts[2 * i];
+        amounts[2 * index + 1] = oldAmounts[2 * i + 1];
+      }
+    }
+  }
+
+  /**
+   * Replaces the table with an empty one of the given number of slots.
+   *
+   * @param capacity the number of slots, a power of two
+   */
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    amounts = new long[2 * capacity];
+    mask = capacity - 1;
+    resizeThreshold = capacity == MAXIMUM_CAPACITY ? capacity - 1 : (int) (capacity * LOAD_FACTOR);
+  }
+
+  /**
+   * Get the smallest power of two number of slots that holds the given number of entries under the load factor.
+   *
+   * @param expectedSize the number of entries expected
+   * @return the number of slots
+   */
+  private static int capacityFor(int expectedSize) {
+    long needed = (long) Math.ceil(expectedSize / LOAD_FACTOR) + 1;
+    if (needed >= MAXIMUM_CAPACITY) {
+      return MAXIMUM_CAPACITY;
+    }
+    return Math.max(16, Integer.highestOneBit((int) needed - 1) << 1);
+  }
+
+  /**
+   * Spreads the bits of the key so that sequential user IDs do not land in neighbouring slots.
+   *
+   * @param key the key to hash
+   * @return the mixed hash
+   */
+  private static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  @Override
+  public String toString() {
+    return "LongAmountHashMap [size=" + size + ", capacity=" + keys.length + "]";
+  }
+
+  /**
+   * Receives the entries of a {@link LongAmountHashMap} without boxing them.
+   */
+  @FunctionalInterface
+  public interface LongAmountConsumer {
+    void accept(long key, long high, long low);
+  }
+
+}
@@ -0,0 +1,252 @@
+package com.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import com.parser.ParserHelper.RecordType;
+
+/**
+ * Reads an MPS7 file by memory-mapping it with a {@link FileChannel} and decoding the records straight from the mapped
+ * buffer, rather than reading a single byte at a time off of an input stream.
+ * <p>
+ * Files larger than the window size (by default just under 2 GB, the most a single {@link MappedByteBuffer} can hold)
+ * are mapped one window at a time. A new window is mapped from the current position whenever the next field would run
+ * past the end of the current window, so no record is ever split between two windows.
+ * <p>
+ * Once the header is read, decoding stops at the record count it declares, so trailing data is never decoded as
+ * records.
+ */
+public class MappedRecordReader implements RecordReader {
+  /**
+   * The largest window that can be mapped at once.
+   */
+  public static final long DEFAULT_WINDOW_SIZE = Integer.MAX_VALUE;
+
+  /**
+   * The smallest window allowed; must be able to hold the header or the longest record.
+   */
+  private static final long MINIMUM_WINDOW_SIZE = 64;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final long fileSize;
+  private final long windowSize;
+
+  /**
+   * The currently mapped window of the file, or null if nothing is mapped yet.
+   */
+  private MappedByteBuffer window;
+
+  /**
+   * The absolute file offset of the first byte of the current window.
+   */
+  private long windowStart;
+
+  /**
+   * The number of records left before the declared record count is reached.
+   */
+  private long recordsLeft = Long.MAX_VALUE;
+  private long recordsRead;
+
+  /**
+   * Opens the given file for reading with the default window size.
+   *
+   * @param file the MPS7 file to read
+   * @throws IOException thrown if the file cannot be opened
+   */
+  public MappedRecordReader(File file) throws IOException {
+    this(file, DEFAULT_WINDOW_SIZE);
+  }
+
+  /**
+   * Opens the given file for reading, mapping at most the given number of bytes at a time.
+   *
+   * @param file the MPS7 file to read
+   * @param windowSize the maximum number of bytes to map at once
+   * @throws IOException thrown if the file cannot be opened
+   */
+  public MappedRecordReader(File file, long windowSize) throws IOException {
+    if (windowSize < MINIMUM_WINDOW_SIZE || windowSize > DEFAULT_WINDOW_SIZE) {
+      throw new IllegalArgumentException("The window size must be between " + MINIMUM_WINDOW_SIZE + " and "
+          + DEFAULT_WINDOW_SIZE + " bytes.");
+    }
+
+    this.file = new RandomAccessFile(file, "r");
+    this.channel = this.file.getChannel();
+    this.fileSize = channel.size();
+    this.windowSize = windowSize;
+  }
+
+  /**
+   * Get the absolute file offset of the next byte to be read.
+   *
+   * @return the current position in the file
+   */
+  @Override
+  public long getPosition() {
+    return window == null ? windowStart : windowStart + window.position();
+  }
+
+  /**
+   * Moves the reader to the given offset, which must be the offset of a record boundary, such as a checkpoint saved by
+   * an earlier run. Read the header first, so that decoding still stops at its record count.
+   *
+   * @param position the absolute file offset to read the next record from
+   */
+  @Override
+  public void seek(long position) {
+    if (position < ParserHelper.HEADER_LENGTH || position > fileSize) {
+      throw new IllegalArgumentException("The offset " + position + " is not between the end of the header and the "
+          + "end of the file.");
+    }
+
+    window = null;
+    windowStart = position;
+  }
+
+  /**
+   * Get the size of the file being read.
+   *
+   * @return the file size in bytes
+   */
+  @Override
+  public long getFileSize() {
+    return fileSize;
+  }
+
+  /**
+   * Read off and validate the {@link Mps7Header}, and stop decoding at the record count it declares. Call
+   * {@link #seek(long)} afterwards to resume from a checkpoint, with {@link #setRecordLimit(long)} lowered by the
+   * records before it.
+   *
+   * @return the header, or null if the file is too short to hold one
+   * @throws IOException thrown if an error occurs mapping the file, or the header is not a supported MPS7 header
+   */
+  @Override
+  public Mps7Header readHeader() throws IOException {
+    if (!ensure(ParserHelper.HEADER_LENGTH)) {
+      return null;
+    }
+
+    // Mps7Header.read rejects any version without a decoder, so only version 1 records reach next(RecordCursor)
+    Mps7Header header = Mps7Header.read(window, window.position());
+    window.position(window.position() + ParserHelper.HEADER_LENGTH);
+    setRecordLimit(header.getRecordCount());
+    return header;
+  }
+
+  /**
+   * Sets the number of records to decode before {@link #next(RecordCursor)} stops, counted from now.
+   *
+   * @param records the number of records left to decode
+   */
+  @Override
+  public void setRecordLimit(long records) {
+    recordsLeft = Math.max(0, records);
+  }
+
+  /**
+   * Get the number of records decoded so far.
+   *
+   * @return the record count
+   */
+  @Override
+  public long getRecordsRead() {
+    return recordsRead;
+  }
+
+  /**
+   * Moves the given cursor onto the next record in the mapped buffer according to the specification:
+   * <ul>
+   *    <li><b>Record Type : </b>1 byte
+   *    <li><b>Timestamp : </b>4 bytes, unsigned INT32
+   *    <li><b>User ID : </b>8 bytes, unsigned INT64
+   * </ul>
+   * <p>
+   * If the record type is CREDIT or DEBIT, the record holds an additional field:
+   * <ul>
+   *    <li><b>Amount : </b>8 bytes, FLOAT64
+   * </ul>
+   * <p>
+   * The cursor decodes the fields on demand and stays valid until the next call; nothing is allocated per record.
+   *
+   * @param cursor the cursor to move onto the next record
+   * @return true if the cursor holds a record, or false if the declared record count, the end of the file, a partial
+   *         record or an unknown record type is reached
+   * @throws IOException thrown if an error occurs mapping the file
+   */
+  @Override
+  public boolean next(RecordCursor cursor) throws IOException {
+    // Check the header's record count has not been reached and there is a record type byte left to read
+    if (recordsLeft == 0 || !ensure(1)) {
+      return false;
+    }
+
+    // Peek at the record type, and stop if it is not a known type
+    RecordType type = RecordType.getRecordTypeFromRecordIndicator(window.get(window.position()));
+    if (type == null) {
+      return false;
+    }
+
+    // Make sure the whole record is in the window; a partial trailing record ends the file
+    if (!ensure(type.getRecordLength())) {
+      return false;
+    }
+
+    int offset = window.position();
+    window.position(offset + type.getRecordLength());
+    recordsLeft--;
+    recordsRead++;
+    return cursor.wrap(window, offset);
+  }
+
+  /**
+   * Decodes the next record into a new {@link RecordEntity}. Prefer {@link #next(RecordCursor)} on the hot path.
+   *
+   * @return the decoded record, or null if the declared record count, the end of the file, a partial record or an
+   *         unknown record type is reached
+   * @throws IOException thrown if an error occurs mapping the file
+   */
+  public RecordEntity readRecord() throws IOException {
+    RecordCursor cursor = new RecordCursor();
+    return next(cursor) ? cursor.toRecordEntity() : null;
+  }
+
+  /**
+   * Makes sure the given number of bytes can be read from the current window, mapping a new window from the current
+   * position if needed.
+   *
+   * @param length the number of bytes that must be readable
+   * @return true if the bytes are readable, or false if the file ends first
+   * @throws IOException thrown if an error occurs mapping the file
+   */
+  private boolean ensure(int length) throws IOException {
+    if (window != null && window.remaining() >= length) {
+      return true;
+    }
+
+    long position = getPosition();
+    if (position + length > fileSize) {
+      return false;
+    }
+
+    // Map the next window starting at the current position
+    window = channel.map(MapMode.READ_ONLY, position, Math.min(windowSize, fileSize - position));
+    window.order(ByteOrder.BIG_ENDIAN);
+    windowStart = position;
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    window = null;
+    channel.close();
+    file.close();
+  }
+
+}
@@ -0,0 +1,347 @@
+package com.parser;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Folds payment records into the metrics reported by {@link ByteFileParser} one record at a time, so the records never
+ * need to be held in memory:
+ * <ul>
+ *    <li>Total amount in DEBITS
+ *    <li>Total amount in CREDITS
+ *    <li>Total number of autopays STARTED
+ *    <li>Total number of autopays ENDED
+ *    <li>Total balance of a user ID, assuming a $0.00 balance at the beginning of the record list
+ * </ul>
+ * <p>
+ * The balance of every user and per-window totals can optionally be calculated in the same pass, through a
+ * {@link UserBalanceIndex} and a {@link WindowedAggregator}.
+ * <p>
+ * None of these metrics depend on the order of the records, so records can be accepted in file order. The amounts are
+ * summed exactly by {@link MoneyAccumulator}, so accumulators over any split of the same records merge into the same
+ * totals bit-for-bit.
+ */
+public class MetricsAccumulator {
+  /**
+   * The user ID to calculate a balance for, as a primitive long holding an unsigned INT64.
+   */
+  private final long userId;
+
+  private final MoneyAccumulator debitTotal = new MoneyAccumulator();
+  private final MoneyAccumulator creditTotal = new MoneyAccumulator();
+  private long autopaysStarted;
+  private long autopaysEnded;
+  private final MoneyAccumulator userBalance = new MoneyAccumulator();
+
+  /**
+   * The number of records folded in, to compare with the record count the MPS7 header declares.
+   */
+  private long recordCount;
+
+  /**
+   * The balance of every user, or null if only the balance of the single user ID is calculated.
+   */
+  private final UserBalanceIndex balances;
+
+  /**
+   * The per-window totals, or null if the records are not windowed.
+   */
+  private final WindowedAggregator windows;
+
+  /**
+   * Creates an empty accumulator.
+   *
+   * @param userId the user ID to calculate a balance for, as a primitive long holding an unsigned INT64
+   */
+  public MetricsAccumulator(long userId) {
+    this(userId, false);
+  }
+
+  /**
+   * Creates an empty accumulator, optionally also calculating the balance of every user.
+   *
+   * @param userId the user ID to calculate a balance for, as a primitive long holding an unsigned INT64
+   * @param indexBalances whether to build a {@link UserBalanceIndex} of every user's balance
+   */
+  public MetricsAccumulator(long userId, boolean indexBalances) {
+    this(userId, indexBalances, null);
+  }
+
+  /**
+   * Creates an empty accumulator, optionally also calculating the balance of every user and per-window totals.
+   *
+   * @param userId the user ID to calculate a balance for, as a primitive long holding an unsigned INT64
+   * @param indexBalances whether to build a {@link UserBalanceIndex} of every user's balance
+   * @param windows an empty aggregator to fold the records into by timestamp, or null to skip
+   */
+  public MetricsAccumulator(long userId, boolean indexBalances, WindowedAggregator windows) {
+    this.userId = userId;
+    this.balances = indexBalances ? new UserBalanceIndex() : null;
+    this.windows = windows;
+  }
+
+  /**
+   * Folds the record under the given cursor into the metrics.
+   *
+   * @param cursor a cursor positioned on a decoded payment record
+   */
+  public void accept(RecordCursor cursor) {
+    if (windows != null) {
+      windows.accept(cursor.getTimestamp(), cursor.getType(), cursor.getAmount());
+    }
+    accept(cursor.getType(), cursor.getUserId(), cursor.getAmount());
+  }
+
+  /**
+   * Folds a single record into the metrics.
+   *
+   * @param record the decoded payment record
+   */
+  public void accept(RecordEntity record) {
+    int type = record.getRecordType().getRecordIndicator();
+    double amount = record.getRecordType().isHasAmount() ? record.getAmount() : 0.0;
+    if (windows != null) {
+      windows.accept(record.getTimestamp().getTime() / 1000, type, amount);
+    }
+    // The low 64 bits of the BigInteger are the unsigned INT64 user ID
+    accept(type, record.getUserId().longValue(), amount);
+  }
+
+  /**
+   * Folds a single record, given as its primitive fields, into the metrics. Without a timestamp the record is not
+   * added to the windows.
+   *
+   * @param type the record type indicator
+   * @param recordUserId the user ID on the record, as a primitive long holding an unsigned INT64
+   * @param amount the amount on the record, or 0.0 if it has none
+   */
+  public void accept(int type, long recordUserId, double amount) {
+    recordCount++;
+    switch (type) {
+      case 0:
+        // DEBIT records reduce the user's balance
+        debitTotal.add(amount);
+        if (recordUserId == userId) {
+          userBalance.add(-amount);
+        }
+        break;
+      case 1:
+        // CREDIT records increase the user's balance
+        creditTotal.add(amount);
+        if (recordUserId == userId) {
+          userBalance.add(amount);
+        }
+        break;
+      case 2:
+        autopaysStarted++;
+        break;
+      case 3:
+        autopaysEnded++;
+        break;
+      default:
+        break;
+    }
+
+    if (balances != null) {
+      balances.accept(type, recordUserId, amount);
+    }
+  }
+
+  /**
+   * Adds the metrics of another accumulator for the same user ID into this one, such as the partial metrics of a
+   * different chunk of the same file.
+   *
+   * @param other the accumulator to merge in
+   */
+  public void merge(MetricsAccumulator other) {
+    if (other.userId != userId) {
+      throw new IllegalArgumentException("Cannot merge metrics calculated for a different user ID.");
+    }
+    if (windows != null && !windows.hasSameWindows(other.windows)) {
+      throw new IllegalArgumentException("Cannot merge metrics calculated over different windows.");
+    }
+
+    debitTotal.add(other.debitTotal);
+    creditTotal.add(other.creditTotal);
+    autopaysStarted += other.autopaysStarted;
+    autopaysEnded += other.autopaysEnded;
+    userBalance.add(other.userBalance);
+    recordCount += other.recordCount;
+
+    if (balances != null && other.balances != null) {
+      balances.merge(other.balances);
+    }
+    if (windows != null) {
+      windows.merge(other.windows);
+    }
+  }
+
+  /**
+   * Checks whether another accumulator calculates the same metrics: the same user ID, with or without the balance of
+   * every user, and over the same windows, if any.
+   *
+   * @param other the accumulator to compare against
+   * @return true if the accumulators calculate the same metrics
+   */
+  public boolean hasSameSettings(MetricsAccumulator other) {
+    return userId == other.userId
+        && (balances != null) == (other.balances != null)
+        && (windows == null ? other.windows == null : windows.hasSameWindows(other.windows));
+  }
+
+  public long getUserId() {
+    return userId;
+  }
+
+  public MoneyAccumulator getDebitTotal() {
+    return debitTotal;
+  }
+
+  public MoneyAccumulator getCreditTotal() {
+    return creditTotal;
+  }
+
+  public long getAutopaysStarted() {
+    return autopaysStarted;
+  }
+
+  public long getAutopaysEnded() {
+    return autopaysEnded;
+  }
+
+  public MoneyAccumulator getUserBalance() {
+    return userBalance;
+  }
+
+  public long getRecordCount() {
+    return recordCount;
+  }
+
+  /**
+   * Get the balance of every user.
+   *
+   * @return the {@link UserBalanceIndex}, or null if the accumulator was created without one
+   */
+  public UserBalanceIndex getBalanceIndex() {
+    return balances;
+  }
+
+  /**
+   * Get the per-window totals.
+   *
+   * @return the {@link WindowedAggregator}, or null if the accumulator was created without one
+   */
+  public WindowedAggregator getWindows() {
+    return windows;
+  }
+
+  /**
+   * Writes the full state of the accumulator, including the balance index if there is one.
+   *
+   * @param out the stream to write to
+   * @throws IOException thrown if an error occurs writing the stream
+   */
+  public void writeTo(DataOutputStream out) throws IOException {
+    out.writeLong(userId);
+    writeAmount(out, debitTotal);
+    writeAmount(out, creditTotal);
+    out.writeLong(autopaysStarted);
+    out.writeLong(autopaysEnded);
+    writeAmount(out, userBalance);
+    out.writeLong(recordCount);
+
+    out.writeBoolean(balances != null);
+    if (balances != null) {
+      balances.writeTo(out);
+    }
+    out.writeBoolean(windows != null);
+    if (windows != null) {
+      windows.writeTo(out);
+    }
+  }
+
+  /**
+   * Reads back an accumulator written by {@link #writeTo(DataOutputStream)}.
+   *
+   * @param in the stream to read from
+   * @return the restored accumulator
+   * @throws IOException thrown if an error occurs reading the stream
+   */
+  public static MetricsAccumulator readFrom(DataInputStream in) throws IOException {
+    long userId = in.readLong();
+    MoneyAccumulator debitTotal = readAmount(in);
+    MoneyAccumulator creditTotal = readAmount(in);
+    long autopaysStarted = in.readLong();
+    long autopaysEnded = in.readLong();
+    MoneyAccumulator userBalance = readAmount(in);
+    long recordCount = in.readLong();
+
+    boolean indexBalances = in.readBoolean();
+    UserBalanceIndex balances = indexBalances ? UserBalanceIndex.readFrom(in) : null;
+    WindowedAggregator windows = in.readBoolean() ? WindowedAggregator.readFrom(in) : null;
+
+    MetricsAccumulator metrics = new MetricsAccumulator(userId, indexBalances, windows);
+    metrics.debitTotal.add(debitTotal);
+    metrics.creditTotal.add(creditTotal);
+    metrics.autopaysStarted = autopaysStarted;
+    metrics.autopaysEnded = autopaysEnded;
+    metrics.userBalance.add(userBalance);
+    metrics.recordCount = recordCount;
+    if (indexBalances) {
+      metrics.balances.merge(balances);
+    }
+    return metrics;
+  }
+
+  private static void writeAmount(DataOutputStream out, MoneyAccumulator amount) throws IOException {
+    out.writeLong(amount.getHigh());
+    out.writeLong(amount.getLow());
+  }
+
+  private static MoneyAccumulator readAmount(DataInputStream in) throws IOException {
+    long high = in.readLong();
+    return new MoneyAccumulator(high, in.readLong());
+  }
+
+  /**
+   * Compares the totals, counts and user balance exactly; the balance index and the windows are not compared.
+   *
+   * @see java.lang.Object#equals(java.lang.Object)
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof MetricsAccumulator)) {
+      return false;
+    }
+    MetricsAccumulator other = (MetricsAccumulator) obj;
+    return userId == other.userId
+        && debitTotal.equals(other.debitTotal)
+        && creditTotal.equals(other.creditTotal)
+        && autopaysStarted == other.autopaysStarted
+        && autopaysEnded == other.autopaysEnded
+        && userBalance.equals(other.userBalance)
+        && recordCount == other.recordCount;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(userId, debitTotal, creditTotal, autopaysStarted, autopaysEnded, userBalance, recordCount);
+  }
+
+  /**
+   * Outputs the accumulated metrics on the command line.
+   */
+  public void printMetrics() {
+    ParserHelper.printAmount(debitTotal, "Total DEBITS : ");
+    ParserHelper.printAmount(creditTotal, "Total CREDITS : ");
+    ParserHelper.printCount(autopaysStarted, "Total autopays STARTED : ");
+    ParserHelper.printCount(autopaysEnded, "Total autopays ENDED : ");
+    ParserHelper.printAmount(userBalance, "Total for USER " + Long.toUnsignedString(userId) + " : ");
+  }
+
+}
@@ -0,0 +1,207 @@
+package com.parser;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+
+/**
+ * A checkpoint of the metrics aggregated from an MPS7 file, so that a restart resumes from where the last run stopped
+ * rather than decoding the whole file again. Each snapshot is a small binary file with the following structure:
+ * <ul>
+ *    <li><b>Header : </b>"MPS7SNAP", a 1 byte format version, the file offset just past the last record folded in
+ *    and a fingerprint of the MPS7 file
+ *    <li><b>Metrics : </b>the state written by {@link MetricsAccumulator#writeTo(DataOutputStream)}, including the
+ *    balance of every user and the window buckets when they are calculated
+ *    <li><b>Checksum : </b>a CRC-32 of everything before it
+ * </ul>
+ * <p>
+ * The fingerprint is a CRC-32 of the start of the MPS7 file, leaving out the record count since the mainframe may
+ * rewrite it as it appends. A snapshot only applies to a file with the same fingerprint that is at least as long as
+ * the stored offset, so a replaced or truncated file is processed from the start again.
+ * <p>
+ * Snapshots are written to a temporary file next to the target and then renamed over it, so a crash while saving
+ * leaves the previous snapshot in place.
+ */
+public class MetricsSnapshot {
+  /**
+   * The default time between snapshots while a file is being processed, in milliseconds.
+   */
+  public static final long DEFAULT_SAVE_INTERVAL = 10000;
+
+  private static final byte[] MAGIC = { 'M', 'P', 'S', '7', 'S', 'N', 'A', 'P' };
+  private static final int FORMAT_VERSION = 3;
+
+  /**
+   * The number of bytes from the start of the MPS7 file covered by the fingerprint.
+   */
+  private static final int FINGERPRINT_LENGTH = 4096;
+
+  /**
+   * The offset of the record count in the MPS7 header, which is left out of the fingerprint.
+   */
+  private static final int RECORD_COUNT_OFFSET = 5;
+
+  private final long offset;
+  private final long fingerprint;
+  private final MetricsAccumulator metrics;
+
+  /**
+   * Creates a snapshot of the given metrics.
+   *
+   * @param offset the file offset just past the last record folded into the metrics
+   * @param fingerprint the fingerprint of the MPS7 file, from {@link #fingerprint(File, long)}
+   * @param metrics the metrics aggregated up to the offset
+   */
+  public MetricsSnapshot(long offset, long fingerprint, MetricsAccumulator metrics) {
+    this.offset = offset;
+    this.fingerprint = fingerprint;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Get the file offset just past the last record folded into the metrics.
+   *
+   * @return the offset to resume from
+   */
+  public long getOffset() {
+    return offset;
+  }
+
+  /**
+   * Get the fingerprint of the MPS7 file the snapshot was taken from.
+   *
+   * @return the fingerprint
+   */
+  public long getFingerprint() {
+    return fingerprint;
+  }
+
+  /**
+   * Get the metrics aggregated up to the offset.
+   *
+   * @return the metrics
+   */
+  public MetricsAccumulator getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Checks whether the snapshot can be resumed from for the given file and settings.
+   *
+   * @param file the MPS7 file to resume
+   * @param settings an empty accumulator calculating the metrics needed
+   * @return true if the snapshot was taken from the same file and calculates the same metrics
+   * @throws IOException thrown if an error occurs reading the MPS7 file
+   */
+  public boolean appliesTo(File file, MetricsAccumulator settings) throws IOException {
+    return file.length() >= offset
+        && metrics.hasSameSettings(settings)
+        && fingerprint(file, offset) == fingerprint;
+  }
+
+  /**
+   * Writes the snapshot to the given file, replacing any previous snapshot.
+   *
+   * @param file the snapshot file
+   * @throws IOException thrown if an error occurs writing the snapshot
+   */
+  public void save(File file) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.write(MAGIC);
+      out.writeByte(FORMAT_VERSION);
+      out.writeLong(offset);
+      out.writeLong(fingerprint);
+      metrics.writeTo(out);
+    }
+
+    byte[] contents = bytes.toByteArray();
+    CRC32 checksum = new CRC32();
+    checksum.update(contents, 0, contents.length);
+
+    File directory = file.getAbsoluteFile().getParentFile();
+    File temp = File.createTempFile(file.getName(), ".tmp", directory);
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+        out.write(contents);
+        out.writeLong(checksum.getValue());
+      }
+
+      // Swap the new snapshot in whole, so a reader never sees a partly written one
+      ParserHelper.replaceAtomically(temp, file);
+    } finally {
+      Files.deleteIfExists(temp.toPath());
+    }
+  }
+
+  /**
+   * Reads a snapshot from the given file.
+   *
+   * @param file the snapshot file
+   * @return the snapshot
+   * @throws IOException thrown if an error occurs reading the snapshot, or it is not a valid snapshot
+   */
+  public static MetricsSnapshot load(File file) throws IOException {
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    if (bytes.length < MAGIC.length + 1 + 8) {
+      throw new IOException("The snapshot " + file + " is too short.");
+    }
+
+    // Check the trailing checksum before trusting any of the contents
+    CRC32 checksum = new CRC32();
+    checksum.update(bytes, 0, bytes.length - 8);
+    if (ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong() != checksum.getValue()) {
+      throw new IOException("The snapshot " + file + " is corrupt.");
+    }
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+    byte[] magic = new byte[MAGIC.length];
+    in.readFully(magic);
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (magic[i] != MAGIC[i]) {
+        throw new IOException("The file " + file + " is not a snapshot.");
+      }
+    }
+    int version = in.readUnsignedByte();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("The snapshot " + file + " has unsupported version " + version + ".");
+    }
+
+    long offset = in.readLong();
+    long fingerprint = in.readLong();
+    return new MetricsSnapshot(offset, fingerprint, MetricsAccumulator.readFrom(in));
+  }
+
+  /**
+   * Calculates the fingerprint of an MPS7 file: a CRC-32 of its header, without the record count, and of the records
+   * that follow it, up to the given offset or the first few kilobytes of the file, whichever is less.
+   *
+   * @param file the MPS7 file
+   * @param offset the offset the snapshot is taken at
+   * @return the fingerprint
+   * @throws IOException thrown if an error occurs reading the file
+   */
+  public static long fingerprint(File file, long offset) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      byte[] bytes = new byte[(int) Math.min(Math.min(offset, raf.length()), FINGERPRINT_LENGTH)];
+      raf.readFully(bytes);
+
+      CRC32 checksum = new CRC32();
+      checksum.update(bytes, 0, Math.min(bytes.length, RECORD_COUNT_OFFSET));
+      if (bytes.length > ParserHelper.HEADER_LENGTH) {
+        checksum.update(bytes, ParserHelper.HEADER_LENGTH, bytes.length - ParserHelper.HEADER_LENGTH);
+      }
+      return checksum.getValue();
+    }
+  }
+
+}
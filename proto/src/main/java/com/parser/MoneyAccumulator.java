@@ -0,0 +1,269 @@
+package com.parser;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Sums dollar amounts exactly, so the total does not depend on the order the amounts are added in. This lets the
+ * streaming, parallel and any other aggregation of the same records be compared bit-for-bit.
+ * <p>
+ * Summing {@code double}s rounds after every addition, so over hundreds of millions of records the total drifts and
+ * changes with the order of the records. Instead, each amount is converted exactly to a 128-bit fixed-point number with
+ * 64 integer bits and 64 fraction bits, and integer addition is used from then on:
+ * <ul>
+ *    <li><b>High word : </b>the signed whole dollars, rounded toward negative infinity
+ *    <li><b>Low word : </b>the unsigned fraction of a dollar, in units of 2<sup>-64</sup>
+ * </ul>
+ * <p>
+ * Every amount of at least 2<sup>-11</sup> dollars converts without losing a bit; smaller amounts keep every bit down
+ * to 2<sup>-64</sup> dollars. Totals can reach 2<sup>63</sup> dollars before overflowing. The static methods work on
+ * a pair of words in a {@code long[]}, so tables of amounts can be held in primitive arrays.
+ */
+public class MoneyAccumulator {
+  /**
+   * The number of bits after the binary point.
+   */
+  private static final int FRACTION_BITS = 64;
+
+  /**
+   * The value of one unit of the low word, as a {@link BigDecimal}.
+   */
+  private static final BigDecimal ULP = BigDecimal.ONE.divide(new BigDecimal(BigInteger.ONE.shiftLeft(FRACTION_BITS)));
+
+  /**
+   * One half of a cent scaled to the fixed-point format, used to round to the nearest cent.
+   */
+  private static final BigInteger HALF = BigInteger.ONE.shiftLeft(FRACTION_BITS - 1);
+
+  /**
+   * The high word followed by the low word.
+   */
+  private final long[] words = new long[2];
+
+  /**
+   * Creates an accumulator holding $0.00.
+   */
+  public MoneyAccumulator() {
+  }
+
+  /**
+   * Creates an accumulator holding the given fixed-point words, such as ones read back from a snapshot.
+   *
+   * @param high the signed whole dollars
+   * @param low the unsigned fraction of a dollar, in units of 2<sup>-64</sup>
+   */
+  public MoneyAccumulator(long high, long low) {
+    words[0] = high;
+    words[1] = low;
+  }
+
+  /**
+   * Adds a dollar amount.
+   *
+   * @param amount the amount to add
+   * @throws ArithmeticException thrown if the amount is not finite or is too large for the fixed-point format
+   */
+  public void add(double amount) {
+    add(words, 0, amount);
+  }
+
+  /**
+   * Adds the total of another accumulator.
+   *
+   * @param other the accumulator to add
+   */
+  public void add(MoneyAccumulator other) {
+    add(words, 0, other.words[0], other.words[1]);
+  }
+
+  public long getHigh() {
+    return words[0];
+  }
+
+  public long getLow() {
+    return words[1];
+  }
+
+  /**
+   * Get the total rounded to the nearest cent, with half a cent rounding up.
+   *
+   * @return the total in cents
+   */
+  public long toCents() {
+    return toCents(words, 0);
+  }
+
+  /**
+   * Get the total as the nearest {@code double}. Only use this where an approximate value is enough.
+   *
+   * @return the total in dollars
+   */
+  public double toDouble() {
+    return toDouble(words, 0);
+  }
+
+  /**
+   * Get the exact total.
+   *
+   * @return the total in dollars
+   */
+  public BigDecimal toBigDecimal() {
+    return toBigDecimal(words, 0);
+  }
+
+  /**
+   * Converts a dollar amount to fixed-point and adds it to the pair of words at the given index.
+   *
+   * @param words the array holding the total
+   * @param index the index of the high word; the low word follows it
+   * @param amount the amount to add
+   * @throws ArithmeticException thrown if the amount is not finite or is too large for the fixed-point format
+   */
+  public static void add(long[] words, int index, double amount) {
+    long bits = Double.doubleToRawLongBits(amount);
+    int exponent = (int) ((bits >>> 52) & 0x7ff);
+    if (exponent == 0x7ff) {
+      throw new ArithmeticException("The amount " + amount + " is not a finite number.");
+    }
+    // Zero and subnormal amounts are far below the smallest fixed-point unit
+    if (exponent == 0) {
+      return;
+    }
+
+    // The amount is mantissa * 2^(exponent - 1075); shift it so the binary point sits between the two words
+    long mantissa = (bits & 0xfffffffffffffL) | 0x10000000000000L;
+    int shift = exponent - 1075 + FRACTION_BITS;
+    long high;
+    long low;
+    if (shift >= FRACTION_BITS) {
+      if (shift - FRACTION_BITS > 10) {
+        throw new ArithmeticException("The amount " + amount + " is too large to sum exactly.");
+      }
+      high = mantissa << (shift - FRACTION_BITS);
+      low = 0;
+    } else if (shift > 0) {
+      high = mantissa >>> (FRACTION_BITS - shift);
+      low = mantissa << shift;
+    } else {
+      high = 0;
+      low = shift > -53 ? mantissa >>> -shift : 0;
+    }
+
+    // Negate the 128-bit magnitude for negative amounts
+    if (bits < 0) {
+      low = -low;
+      high = low == 0 ? -high : ~high;
+    }
+
+    add(words, index, high, low);
+  }
+
+  /**
+   * Adds a fixed-point value to the pair of words at the given index.
+   *
+   * @param words the array holding the total
+   * @param index the index of the high word; the low word follows it
+   * @param high the high word to add
+   * @param low the low word to add
+   */
+  public static void add(long[] words, int index, long high, long low) {
+    long sum = words[index + 1] + low;
+    // Carry into the high word if the unsigned low words overflowed
+    long carry = Long.compareUnsigned(sum, low) < 0 ? 1 : 0;
+    words[index] += high + carry;
+    words[index + 1] = sum;
+  }
+
+  /**
+   * Subtracts a fixed-point value from the pair of words at the given index, by adding its two's complement.
+   *
+   * @param words the array holding the total
+   * @param index the index of the high word; the low word follows it
+   * @param high the high word to subtract
+   * @param low the low word to subtract
+   */
+  public static void subtract(long[] words, int index, long high, long low) {
+    long negatedLow = -low;
+    add(words, index, low == 0 ? -high : ~high, negatedLow);
+  }
+
+  /**
+   * Rounds the pair of words at the given index to the nearest cent, with half a cent rounding up.
+   *
+   * @param words the array holding the total
+   * @param index the index of the high word; the low word follows it
+   * @return the total in cents
+   */
+  public static long toCents(long[] words, int index) {
+    // floor(value * 100 + 0.5), worked out exactly on the scaled integer
+    return toBigInteger(words[index], words[index + 1])
+        .multiply(BigInteger.valueOf(100))
+        .add(HALF)
+        .shiftRight(FRACTION_BITS)
+        .longValueExact();
+  }
+
+  /**
+   * Converts the pair of words at the given index to the nearest {@code double}.
+   *
+   * @param words the array holding the total
+   * @param index the index of the high word; the low word follows it
+   * @return the total in dollars
+   */
+  public static double toDouble(long[] words, int index) {
+    return toBigDecimal(words, index).doubleValue();
+  }
+
+  /**
+   * Compares the pairs of words at two indexes exactly.
+   *
+   * @param words the array holding the first total
+   * @param index the index of the first high word
+   * @param otherWords the array holding the second total
+   * @param otherIndex the index of the second high word
+   * @return a negative number, zero or a positive number as the first total is less than, equal to or greater than
+   *         the second
+   */
+  public static int compare(long[] words, int index, long[] otherWords, int otherIndex) {
+    int result = Long.compare(words[index], otherWords[otherIndex]);
+    return result != 0 ? result : Long.compareUnsigned(words[index + 1], otherWords[otherIndex + 1]);
+  }
+
+  private static BigDecimal toBigDecimal(long[] words, int index) {
+    return new BigDecimal(toBigInteger(words[index], words[index + 1])).multiply(ULP);
+  }
+
+  /**
+   * Joins the two words into the scaled 128-bit integer.
+   */
+  private static BigInteger toBigInteger(long high, long low) {
+    BigInteger lowPart = BigInteger.valueOf(low & Long.MAX_VALUE);
+    if (low < 0) {
+      lowPart = lowPart.setBit(Long.SIZE - 1);
+    }
+    return BigInteger.valueOf(high).shiftLeft(Long.SIZE).or(lowPart);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof MoneyAccumulator)) {
+      return false;
+    }
+    MoneyAccumulator other = (MoneyAccumulator) obj;
+    return words[0] == other.words[0] && words[1] == other.words[1];
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(words[0]) * 31 + Long.hashCode(words[1]);
+  }
+
+  @Override
+  public String toString() {
+    return "MoneyAccumulator [amount=" + toBigDecimal() + "]";
+  }
+
+}
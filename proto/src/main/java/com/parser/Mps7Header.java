@@ -0,0 +1,139 @@
+package com.parser;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The header of an MPS7 file, according to the specification:
+ * <ul>
+ *    <li><b>Magic String : </b>4 bytes, "MPS7"
+ *    <li><b>Version : </b>1 byte
+ *    <li><b>Record Count : </b>4 bytes, unsigned INT32
+ * </ul>
+ * <p>
+ * The header is the canonical description of how the records are processed, so a file that does not start with the
+ * magic string or has a version without a decoder is rejected outright, and decoding stops at the declared record
+ * count. {@link #describeMismatch(long, long, long)} then reports a short file or trailing data from the offsets alone,
+ * without scanning the rest of the file.
+ */
+public class Mps7Header {
+  /**
+   * The only format version so far.
+   */
+  public static final int VERSION_1 = 1;
+
+  private static final byte[] MAGIC = { 'M', 'P', 'S', '7' };
+
+  private final int version;
+  private final long recordCount;
+
+  /**
+   * Creates a header.
+   *
+   * @param version the format version
+   * @param recordCount the number of records the header declares, as an unsigned INT32
+   */
+  public Mps7Header(int version, long recordCount) {
+    this.version = version;
+    this.recordCount = recordCount;
+  }
+
+  /**
+   * Reads and validates the header at the given index of a buffer, without moving the buffer's position.
+   *
+   * @param buffer the buffer holding the header bytes, in network byte order
+   * @param offset the absolute index of the first header byte
+   * @return the header
+   * @throws IOException thrown if the magic string is wrong or the version is not supported
+   */
+  public static Mps7Header read(ByteBuffer buffer, int offset) throws IOException {
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (buffer.get(offset + i) != MAGIC[i]) {
+        throw new IOException("The file does not start with the MPS7 magic string.");
+      }
+    }
+
+    int version = buffer.get(offset + MAGIC.length) & 0xff;
+    if (!isSupportedVersion(version)) {
+      throw new IOException("The MPS7 file has unsupported version " + version + ".");
+    }
+    return new Mps7Header(version, buffer.getInt(offset + MAGIC.length + 1) & 0xffffffffL);
+  }
+
+  /**
+   * Writes the header to the given output.
+   *
+   * @param out the output to write the header bytes to
+   * @throws IOException thrown if an error occurs writing the header, or the record count does not fit in an unsigned
+   *         INT32
+   */
+  public void write(DataOutput out) throws IOException {
+    if (recordCount < 0 || recordCount > 0xffffffffL) {
+      throw new IOException("An MPS7 header cannot declare " + recordCount + " records.");
+    }
+
+    out.write(MAGIC);
+    out.writeByte(version);
+    out.writeInt((int) recordCount);
+  }
+
+  /**
+   * Checks whether there is a decoder for the given version. This is the only place versions are checked: a new
+   * version needs a case here, and a decoder in each {@link RecordReader}.
+   *
+   * @param version the format version
+   * @return true if the version can be decoded
+   */
+  public static boolean isSupportedVersion(int version) {
+    switch (version) {
+      case VERSION_1:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  public int getVersion() {
+    return version;
+  }
+
+  /**
+   * Get the number of records the header declares.
+   *
+   * @return the record count, as an unsigned INT32
+   */
+  public long getRecordCount() {
+    return recordCount;
+  }
+
+  /**
+   * Compares where decoding stopped with what the header declares.
+   *
+   * @param records the number of records decoded
+   * @param endOffset the offset just past the last record decoded
+   * @param fileSize the size of the file
+   * @return a description of the short file or the trailing data, or null if the file holds exactly the declared
+   *         records
+   */
+  public String describeMismatch(long records, long endOffset, long fileSize) {
+    if (records < recordCount) {
+      String shortfall = "The header declares " + recordCount + " records but only " + records + " were read; ";
+      if (endOffset < fileSize) {
+        return shortfall + "decoding stopped at a partial or malformed record at offset " + endOffset + ".";
+      }
+      return shortfall + "the file is short.";
+    }
+    if (endOffset < fileSize) {
+      return (fileSize - endOffset) + " bytes of trailing data follow the " + recordCount
+          + " records the header declares.";
+    }
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return "Mps7Header [version=" + version + ", recordCount=" + recordCount + "]";
+  }
+
+}
@@ -0,0 +1,333 @@
+package com.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+import com.parser.ParserHelper.RecordType;
+
+/**
+ * Calculates the {@link MetricsAccumulator} metrics for an MPS7 file using every core.
+ * <p>
+ * Records are variable length (13 bytes for autopay records and 21 bytes for debit and credit records), so a record
+ * boundary cannot be found from an arbitrary byte offset. The file is processed in two steps:
+ * <ol>
+ *    <li><b>Boundary scan : </b>a single sequential pass hops from record to record reading only the record type byte,
+ *    and notes the offset of the first record of each chunk, stopping at the record count the header declares
+ *    <li><b>Chunk decode : </b>each chunk is mapped, decoded and aggregated into its own accumulator on a
+ *    {@link ForkJoinPool}, and the partial accumulators are merged at the end
+ * </ol>
+ */
+public class ParallelRecordParser {
+  /**
+   * The default target size of a chunk in bytes.
+   */
+  public static final long DEFAULT_CHUNK_SIZE = 64L * 1024 * 1024;
+
+  private final int parallelism;
+  private final long chunkSize;
+
+  /**
+   * The offset just past the last whole record of the most recently processed file.
+   */
+  private long endOffset;
+
+  /**
+   * The header and the number of records scanned of the most recently processed file.
+   */
+  private Mps7Header header;
+  private long recordsRead;
+
+  /**
+   * The statistics to add the bytes, records and phase timings to.
+   */
+  private ParserStats stats = new ParserStats();
+
+  /**
+   * Creates a parser that uses every available core and the default chunk size.
+   */
+  public ParallelRecordParser() {
+    this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Creates a parser with the given parallelism and target chunk size.
+   *
+   * @param parallelism the number of threads to decode chunks on
+   * @param chunkSize the target size of a chunk in bytes; chunks end on the first record boundary past this size
+   */
+  public ParallelRecordParser(int parallelism, long chunkSize) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("The parallelism must be at least 1.");
+    }
+    if (chunkSize < 1 || chunkSize > MappedRecordReader.DEFAULT_WINDOW_SIZE / 2) {
+      throw new IllegalArgumentException("The chunk size must be between 1 and "
+          + MappedRecordReader.DEFAULT_WINDOW_SIZE / 2 + " bytes.");
+    }
+
+    this.parallelism = parallelism;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Sets the statistics to add the bytes, records and phase timings of each file to. The boundary scan is timed as the
+   * READ phase, the whole parallel decode as one DECODE, and each merge of two chunks' metrics as an AGGREGATE.
+   *
+   * @param stats the statistics
+   */
+  public void setStats(ParserStats stats) {
+    this.stats = stats;
+  }
+
+  /**
+   * Get the offset just past the last whole record of the most recently processed file, where a later run can resume.
+   *
+   * @return the end offset, or 0 if no file has been processed
+   */
+  public long getEndOffset() {
+    return endOffset;
+  }
+
+  /**
+   * Get the header of the most recently processed file.
+   *
+   * @return the header, or null if no file has been processed or the file was too short to hold one
+   */
+  public Mps7Header getHeader() {
+    return header;
+  }
+
+  /**
+   * Get the number of records processed from the most recently processed file.
+   *
+   * @return the record count
+   */
+  public long getRecordsRead() {
+    return recordsRead;
+  }
+
+  /**
+   * Processes the given file and returns the merged metrics.
+   *
+   * @param file the MPS7 file to process
+   * @param userId the user ID to calculate a balance for, as a primitive long holding an unsigned INT64
+   * @return the metrics for every record in the file
+   * @throws IOException thrown if an error occurs reading the file
+   */
+  public MetricsAccumulator process(File file, long userId) throws IOException {
+    return process(file, () -> new MetricsAccumulator(userId));
+  }
+
+  /**
+   * Processes the given file and returns the merged metrics, creating the accumulator for each chunk from the given
+   * factory.
+   *
+   * @param file the MPS7 file to process
+   * @param factory creates an empty accumulator; every accumulator must be for the same user ID
+   * @return the metrics for every record in the file
+   * @throws IOException thrown if an error occurs reading the file
+   */
+  public MetricsAccumulator process(File file, Supplier<MetricsAccumulator> factory) throws IOException {
+    return process(file, 0, 0, factory);
+  }
+
+  /**
+   * Processes the records of the given file from the given offset and returns the merged metrics, creating the
+   * accumulator for each chunk from the given factory.
+   *
+   * @param file the MPS7 file to process
+   * @param startOffset the offset of the first record to process, such as a saved checkpoint, or 0 to start after the
+   *          header
+   * @param recordsBefore the number of records before the offset, which count towards the header's record count
+   * @param factory creates an empty accumulator; every accumulator must be for the same user ID
+   * @return the metrics for every record from the offset on
+   * @throws IOException thrown if an error occurs reading the file, or it does not have a supported MPS7 header
+   */
+  public MetricsAccumulator process(File file, long startOffset, long recordsBefore,
+      Supplier<MetricsAccumulator> factory) throws IOException {
+    long start = stats.startPhase();
+    long[] boundaries = scanBoundaries(file, startOffset, recordsBefore);
+    endOffset = boundaries[boundaries.length - 1];
+    stats.endPhase(ParserStats.Phase.READ, start);
+
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      start = stats.startPhase();
+      MetricsAccumulator metrics =
+          pool.invoke(new ChunkTask(raf.getChannel(), boundaries, 0, boundaries.length - 1, factory, stats));
+      stats.endPhase(ParserStats.Phase.DECODE, start);
+
+      // The boundary scan stops at the declared record count, an unknown record type or a partial trailing record
+      stats.addBytesRead(endOffset - boundaries[0]);
+      stats.addUndecodedBytes(header, recordsBefore + recordsRead, endOffset, raf.length());
+      return metrics;
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Scans the record boundaries of the file once and splits the records into chunks of roughly the target size.
+   *
+   * @param file the MPS7 file to scan
+   * @return the offsets of the first record of each chunk, followed by the offset just past the last whole record
+   * @throws IOException thrown if an error occurs reading the file
+   */
+  long[] scanBoundaries(File file) throws IOException {
+    return scanBoundaries(file, 0, 0);
+  }
+
+  /**
+   * Scans the record boundaries of the file from the given offset once and splits the records into chunks of roughly
+   * the target size.
+   *
+   * @param file the MPS7 file to scan
+   * @param startOffset the offset of the first record to scan, or 0 to start after the header
+   * @param recordsBefore the number of records before the offset
+   * @return the offsets of the first record of each chunk, followed by the offset just past the last whole record
+   * @throws IOException thrown if an error occurs reading the file, or it does not have a supported MPS7 header
+   */
+  long[] scanBoundaries(File file, long startOffset, long recordsBefore) throws IOException {
+    try (MappedRecordReader reader = new MappedRecordReader(file)) {
+      // Aim for a few chunks per thread on smaller files so the work stays balanced
+      long targetSize = Math.max(1, Math.min(chunkSize, reader.getFileSize() / (parallelism * 4L)));
+
+      long[] boundaries = new long[16];
+      int count = 0;
+      long chunkStart = reader.getPosition();
+
+      header = reader.readHeader();
+      if (header != null && startOffset > 0) {
+        reader.seek(startOffset);
+        reader.setRecordLimit(header.getRecordCount() - recordsBefore);
+      }
+
+      if (header != null) {
+        RecordCursor cursor = new RecordCursor();
+        chunkStart = reader.getPosition();
+        boundaries[count++] = chunkStart;
+
+        // Only the record type byte is read here; the cursor decodes the other fields lazily
+        while (reader.next(cursor)) {
+          long position = reader.getPosition();
+          if (position - chunkStart >= targetSize) {
+            if (count == boundaries.length) {
+              boundaries = Arrays.copyOf(boundaries, count * 2);
+            }
+            boundaries[count++] = position;
+            chunkStart = position;
+          }
+        }
+      }
+
+      // Close off the last chunk; a file with no records ends up with a single empty chunk
+      if (count < 2 || reader.getPosition() != chunkStart) {
+        if (count == 0) {
+          boundaries[count++] = chunkStart;
+        }
+        if (count == boundaries.length) {
+          boundaries = Arrays.copyOf(boundaries, count + 1);
+        }
+        boundaries[count++] = reader.getPosition();
+      }
+
+      recordsRead = reader.getRecordsRead();
+      return Arrays.copyOf(boundaries, count);
+    }
+  }
+
+  /**
+   * Decodes a range of chunks, splitting it in half until a single chunk is left.
+   */
+  private static class ChunkTask extends RecursiveTask<MetricsAccumulator> {
+    private static final long serialVersionUID = 1L;
+
+    private final transient FileChannel channel;
+    private final long[] boundaries;
+    private final int firstChunk;
+    private final int lastChunk;
+    private final transient Supplier<MetricsAccumulator> factory;
+    private final transient ParserStats stats;
+
+    /**
+     * @param channel the open file channel to map chunks from
+     * @param boundaries the chunk boundaries from {@link ParallelRecordParser#scanBoundaries(File)}
+     * @param firstChunk the index of the first chunk in the range, inclusive
+     * @param lastChunk the index of the last chunk in the range, exclusive
+     * @param factory creates an empty accumulator for a single chunk
+     * @param stats the statistics to add the records and merge timings to
+     */
+    ChunkTask(FileChannel channel, long[] boundaries, int firstChunk, int lastChunk,
+        Supplier<MetricsAccumulator> factory, ParserStats stats) {
+      this.channel = channel;
+      this.boundaries = boundaries;
+      this.firstChunk = firstChunk;
+      this.lastChunk = lastChunk;
+      this.factory = factory;
+      this.stats = stats;
+    }
+
+    @Override
+    protected MetricsAccumulator compute() {
+      if (lastChunk - firstChunk > 1) {
+        int middle = (firstChunk + lastChunk) >>> 1;
+        ChunkTask left = new ChunkTask(channel, boundaries, firstChunk, middle, factory, stats);
+        ChunkTask right = new ChunkTask(channel, boundaries, middle, lastChunk, factory, stats);
+        left.fork();
+        MetricsAccumulator metrics = right.compute();
+        MetricsAccumulator leftMetrics = left.join();
+        long start = stats.startPhase();
+        metrics.merge(leftMetrics);
+        stats.endPhase(ParserStats.Phase.AGGREGATE, start);
+        return metrics;
+      }
+
+      MetricsAccumulator metrics = factory.get();
+      if (boundaries[lastChunk] > boundaries[firstChunk]) {
+        decodeChunk(boundaries[firstChunk], boundaries[lastChunk], metrics);
+      }
+      return metrics;
+    }
+
+    /**
+     * Maps a single chunk and folds all of its records into the given accumulator.
+     *
+     * @param start the offset of the first record in the chunk
+     * @param end the offset just past the last record in the chunk
+     * @param metrics the accumulator to fold the records into
+     */
+    private void decodeChunk(long start, long end, MetricsAccumulator metrics) {
+      try {
+        MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, start, end - start);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+
+        // The boundary scan already checked every record in the chunk is whole and of a known type
+        RecordCursor cursor = new RecordCursor();
+        long[] counts = new long[RecordType.values().length];
+        int offset = 0;
+        int limit = buffer.limit();
+        while (offset < limit) {
+          cursor.wrap(buffer, offset);
+          metrics.accept(cursor);
+          counts[cursor.getType()]++;
+          offset += cursor.getLength();
+        }
+        stats.addRecords(counts);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+}
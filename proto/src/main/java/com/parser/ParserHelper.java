@@ -1,20 +1,39 @@
 package com.parser;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.NumberFormat;
 import java.util.List;
 import java.util.Locale;
 import java.util.function.Predicate;
 import java.util.function.ToDoubleFunction;
-import java.util.stream.Collectors;
 
 /**
  * Helper class used by {@link ByteFileParser} to process input streams, byte arrays, and record calculations.
  */
 public class ParserHelper {
+  /**
+   * The number of bytes in the MPS7 header.
+   */
+  public static final int HEADER_LENGTH = 9;
+
+  /**
+   * The number of bytes in a record without an amount: record type, timestamp and user ID.
+   */
+  public static final int BASE_RECORD_LENGTH = 13;
+
+  /**
+   * The number of bytes in the amount field of a record.
+   */
+  public static final int AMOUNT_LENGTH = 8;
 
   /**
    * The type of payment record to be decoded.
@@ -48,6 +67,15 @@ public class ParserHelper {
       return hasAmount;
     }
 
+    /**
+     * Get the number of bytes in a record of this type, including the record type byte.
+     * 
+     * @return the record length in bytes
+     */
+    public int getRecordLength() {
+      return hasAmount ? BASE_RECORD_LENGTH + AMOUNT_LENGTH : BASE_RECORD_LENGTH;
+    }
+
     /**
      * Returns the matching record type enum from the record indicator value. If no enum values match, return null.
      * 
@@ -55,13 +83,29 @@ public class ParserHelper {
      * @return the {@link RecordType} enum, or null
      */
     public static RecordType getRecordTypeFromRecordIndicator(int recordIndicator) {
+      // Index straight into the cached table; values() would copy the array on every call
+      if (recordIndicator < 0 || recordIndicator >= BY_INDICATOR.length) {
+        return null;
+      }
+
+      return BY_INDICATOR[recordIndicator];
+    }
+
+    /**
+     * The record types indexed by record indicator value, with null for unused values.
+     */
+    private static final RecordType[] BY_INDICATOR;
+
+    static {
+      int maxIndicator = 0;
       for (RecordType type : values()) {
-        if (type.getRecordIndicator() == recordIndicator) {
-          return type;
-        }
+        maxIndicator = Math.max(maxIndicator, type.getRecordIndicator());
       }
 
-      return null;
+      BY_INDICATOR = new RecordType[maxIndicator + 1];
+      for (RecordType type : values()) {
+        BY_INDICATOR[type.getRecordIndicator()] = type;
+      }
     }
   }
 
@@ -83,7 +127,6 @@ public class ParserHelper {
       int r = reader.read();
       // If the byte comes back as -1 (null), break out of the loop
       if (r == -1) {
-        System.out.println("End of File");
         break;
       }
       // Set the byte to the proper position
@@ -118,6 +161,18 @@ public class ParserHelper {
     return bb.getInt() & 0xffffffffl;
   }
 
+  /**
+   * Converts a primitive long holding an unsigned INT64 to a {@link BigInteger}.
+   * 
+   * @param value the unsigned value to convert
+   * @return a non-negative {@link BigInteger}
+   */
+  public static BigInteger toUnsignedBigInteger(long value) {
+    BigInteger result = BigInteger.valueOf(value & Long.MAX_VALUE);
+    // Put the sign bit back as the highest magnitude bit
+    return value < 0 ? result.setBit(Long.SIZE - 1) : result;
+  }
+
   /**
    * Converts a byte array to a signed {@link Double}. Reads bytes big-endian.
    * 
@@ -127,12 +182,13 @@ public class ParserHelper {
   public static Double getDouble(byte[] data) {
     ByteBuffer bb = ByteBuffer.wrap(data);
     bb.order(ByteOrder.BIG_ENDIAN);
-    return new Double(bb.getDouble());
+    return Double.valueOf(bb.getDouble());
   }
 
   /**
    * Calculates a dollar amount from the given list of records, filter function, and mapping function. Outputs a message
-   * from the given log string and the final calculated amount.
+   * from the given log string and the final calculated amount. Each call is a full pass over the records; use
+   * {@link RecordQuery} to calculate several amounts and counts in a single pass.
    * 
    * @param filter a function used to filter the record list
    * @param mapper a function used to map the record list into a calculable format
@@ -144,25 +200,21 @@ public class ParserHelper {
       ToDoubleFunction<? super RecordEntity> mapper,
       List<RecordEntity> records,
       String log) {
-    // Apply the filter and mapper to the record list to get a valid, calculated amount as a Double
-    Double amount = 
-        (double) Math.round(
-            records
-              .stream()
-              .filter(filter)       // Apply the filter
-              .mapToDouble(mapper)  // Apply the mapper
-              .sum()                // Sum the values
-              * 100.00              // Multiply by 100
-            ) / 100.00;             // Divide the rounded value by 100
-    // Set the formatter to US currency
-    NumberFormat formatter = NumberFormat.getCurrencyInstance(Locale.US);
-    // Output the valid log statement and calculated, formatted amount
-    System.out.println(log + formatter.format(amount));
+    // Apply the filter and mapper to the record list, and sum the values exactly
+    MoneyAccumulator amount = new MoneyAccumulator();
+    records
+      .stream()
+      .filter(filter)       // Apply the filter
+      .mapToDouble(mapper)  // Apply the mapper
+      .forEachOrdered(amount::add);
+    // Output the valid log statement and rounded, formatted amount
+    printAmount(amount, log);
   }
 
   /**
    * Calculates a count of records from the given list of records and {@link RecordType} for comparison. Outputs a
-   * message from the given log string and the final count.
+   * message from the given log string and the final count. Each call is a full pass over the records; use
+   * {@link RecordQuery} to calculate several amounts and counts in a single pass.
    * 
    * @param compareType the {@link RecordType} to filter on
    * @param records a linked list of payment records
@@ -170,14 +222,72 @@ public class ParserHelper {
    */
   public static void getCountFromList(RecordType compareType, List<RecordEntity> records, String log) {
     // Calculate the count of applicable payment records for the given record type
-    int count = 
+    long count =
         records
           .stream()
-          .filter(record -> record.getRecordType().equals(compareType))
-          .collect(Collectors.toList())
-          .size();
+          .filter(record -> record.getRecordType() == compareType)
+          .count();
     // Output the valid log statement and calculated count
+    printCount(count, log);
+  }
+
+  /**
+   * Rounds the given exact dollar amount to the nearest cent and outputs it as US currency after the given log string.
+   * 
+   * @param amount the dollar amount to output
+   * @param log a log string used in the output
+   */
+  public static void printAmount(MoneyAccumulator amount, String log) {
+    printCents(amount.toCents(), log);
+  }
+
+  /**
+   * Outputs the given number of cents as US currency after the given log string.
+   * 
+   * @param cents the amount to output, in cents
+   * @param log a log string used in the output
+   */
+  public static void printCents(long cents, String log) {
+    // Output the valid log statement and formatted amount
+    System.out.println(log + formatCents(cents));
+  }
+
+  /**
+   * Formats the given number of cents as US currency.
+   * 
+   * @param cents the amount to format, in cents
+   * @return the formatted amount, such as $1,234.56 or -$0.10
+   */
+  public static String formatCents(long cents) {
+    // Set the formatter to US currency
+    NumberFormat formatter = NumberFormat.getCurrencyInstance(Locale.US);
+    return formatter.format(BigDecimal.valueOf(cents, 2));
+  }
+
+  /**
+   * Outputs the given count after the given log string.
+   * 
+   * @param count the count to output
+   * @param log a log string used in the output
+   */
+  public static void printCount(long count, String log) {
     System.out.println(log + count);
   }
 
+  /**
+   * Moves a fully written temporary file over the target in one step, so a reader never sees a partly written target.
+   * Where the file system cannot move atomically, the target is replaced with a plain move instead.
+   *
+   * @param temp the written file, in the target's directory
+   * @param target the file to replace
+   * @throws IOException thrown if the file cannot be moved
+   */
+  public static void replaceAtomically(File temp, File target) throws IOException {
+    try {
+      Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
 }
@@ -0,0 +1,372 @@
+package com.parser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.parser.ParserHelper.RecordType;
+
+/**
+ * Operational statistics for the parser, showing where the time goes without attaching a profiler:
+ * <ul>
+ *    <li><b>Bytes read : </b>the bytes of records decoded
+ *    <li><b>Records : </b>the number of records decoded, per {@link RecordType}
+ *    <li><b>Malformed records : </b>the number of times decoding stopped early on an unknown record type or a partial
+ *    record before the record count the header declares, and the bytes left undecoded because of it
+ *    <li><b>Trailing bytes : </b>the bytes following the records the header declares
+ *    <li><b>Phase latency : </b>a histogram of the time spent in each {@link Phase}, with the throughput of the
+ *    decode phase
+ * </ul>
+ * <p>
+ * Counters are {@link LongAdder}s, and decoders count records in local variables and add them once per pass or chunk,
+ * so nothing shared is touched per record. The statistics are exported as JSON or as Prometheus text, to the console
+ * or to a file that is replaced whole on every export, as a Prometheus textfile collector expects.
+ */
+public class ParserStats {
+  /**
+   * The phases of processing a file.
+   */
+  public enum Phase {
+    /**
+     * Opening the file and reading its header, and the boundary scan when processing in parallel.
+     */
+    READ,
+    /**
+     * Decoding the records. The sequential and follow decoders fold each record into the metrics as it is decoded,
+     * so their aggregation is timed here too.
+     */
+    DECODE,
+    /**
+     * Merging partial metrics, from parallel chunks or a snapshot.
+     */
+    AGGREGATE,
+    /**
+     * Outputting the results and saving snapshots.
+     */
+    WRITE
+  }
+
+  /**
+   * The formats the statistics can be exported in.
+   */
+  public enum Format {
+    JSON,
+    PROMETHEUS;
+
+    /**
+     * Finds the format with the given name, in any case.
+     *
+     * @param name the format name
+     * @return the format
+     * @throws IllegalArgumentException thrown if there is no format with the name
+     */
+    public static Format fromName(String name) {
+      for (Format format : values()) {
+        if (format.name().equalsIgnoreCase(name)) {
+          return format;
+        }
+      }
+      throw new IllegalArgumentException("The statistics format must be json or prometheus.");
+    }
+  }
+
+  /**
+   * The histogram bucket bounds are powers of 4 nanoseconds, from about 1 microsecond to about 18 minutes.
+   */
+  private static final int FIRST_BUCKET_SHIFT = 10;
+  private static final int BUCKET_SHIFT_STEP = 2;
+  private static final int BUCKETS = 16;
+
+  private final LongAdder bytesRead = new LongAdder();
+  private final LongAdder[] records = new LongAdder[RecordType.values().length];
+  private final LongAdder malformedRecords = new LongAdder();
+  private final LongAdder malformedBytes = new LongAdder();
+  private final LongAdder trailingBytes = new LongAdder();
+
+  /**
+   * Per phase, the number of observations in each bucket plus one past the last bound, then the count and the total.
+   */
+  private final AtomicLongArray[] phaseBuckets = new AtomicLongArray[Phase.values().length];
+  private final LongAdder[] phaseCounts = new LongAdder[Phase.values().length];
+  private final LongAdder[] phaseNanos = new LongAdder[Phase.values().length];
+
+  private Format format = Format.JSON;
+  private File exportFile;
+
+  /**
+   * Creates empty statistics.
+   */
+  public ParserStats() {
+    for (int i = 0; i < records.length; i++) {
+      records[i] = new LongAdder();
+    }
+    for (int i = 0; i < phaseBuckets.length; i++) {
+      phaseBuckets[i] = new AtomicLongArray(BUCKETS + 1);
+      phaseCounts[i] = new LongAdder();
+      phaseNanos[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Sets where {@link #export()} writes the statistics.
+   *
+   * @param format the format to export in
+   * @param exportFile the file to replace on each export, or null to output to the console
+   */
+  public void setExport(Format format, File exportFile) {
+    this.format = format;
+    this.exportFile = exportFile;
+  }
+
+  public void addBytesRead(long bytes) {
+    bytesRead.add(bytes);
+  }
+
+  /**
+   * Adds decoded record counts.
+   *
+   * @param counts the number of records decoded, indexed by record indicator
+   */
+  public void addRecords(long[] counts) {
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] != 0) {
+        records[i].add(counts[i]);
+      }
+    }
+  }
+
+  /**
+   * Counts a place where decoding stopped early on an unknown record type or a partial record.
+   *
+   * @param undecodedBytes the number of bytes left undecoded
+   */
+  public void addMalformedRecord(long undecodedBytes) {
+    malformedRecords.increment();
+    malformedBytes.add(undecodedBytes);
+  }
+
+  /**
+   * Counts the bytes left after decoding a file: a malformed record if decoding stopped before the record count the
+   * header declares, or trailing data if it reached it.
+   *
+   * @param header the header of the file, or null if the file is too short to hold one
+   * @param records the number of records read from the file, including any before a resumed offset
+   * @param endOffset the offset just past the last whole record read
+   * @param fileSize the size of the file
+   */
+  public void addUndecodedBytes(Mps7Header header, long records, long endOffset, long fileSize) {
+    if (endOffset >= fileSize) {
+      return;
+    }
+    if (header == null || records < header.getRecordCount()) {
+      addMalformedRecord(fileSize - endOffset);
+    } else {
+      trailingBytes.add(fileSize - endOffset);
+    }
+  }
+
+  /**
+   * Starts timing a phase.
+   *
+   * @return the start time, to pass to {@link #endPhase(Phase, long)}
+   */
+  public long startPhase() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Ends timing a phase, adding the time since the start to the phase's histogram.
+   *
+   * @param phase the phase that ended
+   * @param start the start time from {@link #startPhase()}
+   */
+  public void endPhase(Phase phase, long start) {
+    long nanos = Math.max(0, System.nanoTime() - start);
+    int bucket = 0;
+    while (bucket < BUCKETS && nanos > 1L << (FIRST_BUCKET_SHIFT + bucket * BUCKET_SHIFT_STEP)) {
+      bucket++;
+    }
+
+    phaseBuckets[phase.ordinal()].incrementAndGet(bucket);
+    phaseCounts[phase.ordinal()].increment();
+    phaseNanos[phase.ordinal()].add(nanos);
+  }
+
+  public long getBytesRead() {
+    return bytesRead.sum();
+  }
+
+  public long getRecords(RecordType type) {
+    return records[type.getRecordIndicator()].sum();
+  }
+
+  public long getMalformedRecords() {
+    return malformedRecords.sum();
+  }
+
+  public long getTrailingBytes() {
+    return trailingBytes.sum();
+  }
+
+  /**
+   * Get the total time spent in a phase.
+   *
+   * @param phase the phase
+   * @return the total time in nanoseconds
+   */
+  public long getPhaseNanos(Phase phase) {
+    return phaseNanos[phase.ordinal()].sum();
+  }
+
+  /**
+   * Writes the statistics where {@link #setExport(Format, File)} says, replacing the export file whole so a scraper
+   * never reads a partly written one.
+   *
+   * @throws IOException thrown if an error occurs writing the export file
+   */
+  public void export() throws IOException {
+    String text = format == Format.JSON ? toJson() : toPrometheus();
+    if (exportFile == null) {
+      System.out.print(text);
+      return;
+    }
+
+    File temp = File.createTempFile(exportFile.getName(), ".tmp", exportFile.getAbsoluteFile().getParentFile());
+    try {
+      try (OutputStream out = new FileOutputStream(temp)) {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+      }
+      ParserHelper.replaceAtomically(temp, exportFile);
+    } finally {
+      Files.deleteIfExists(temp.toPath());
+    }
+  }
+
+  /**
+   * Formats the statistics as a JSON object.
+   *
+   * @return the JSON text
+   */
+  public String toJson() {
+    StringBuilder json = new StringBuilder("{\n");
+    json.append("  \"bytes_read\": ").append(getBytesRead()).append(",\n");
+    json.append("  \"records\": {");
+    for (RecordType type : RecordType.values()) {
+      json.append(type.ordinal() == 0 ? " " : ", ").append('"').append(type.name().toLowerCase(Locale.ROOT))
+          .append("\": ").append(getRecords(type));
+    }
+    json.append(" },\n");
+    json.append("  \"malformed_records\": ").append(getMalformedRecords()).append(",\n");
+    json.append("  \"malformed_bytes\": ").append(malformedBytes.sum()).append(",\n");
+    json.append("  \"trailing_bytes\": ").append(getTrailingBytes()).append(",\n");
+    json.append("  \"decode_records_per_second\": ").append(formatDecimal(getDecodeRate(getTotalRecords())))
+        .append(",\n");
+    json.append("  \"decode_bytes_per_second\": ").append(formatDecimal(getDecodeRate(getBytesRead()))).append(",\n");
+
+    json.append("  \"phases\": {\n");
+    for (Phase phase : Phase.values()) {
+      AtomicLongArray buckets = phaseBuckets[phase.ordinal()];
+      json.append("    \"").append(phase.name().toLowerCase(Locale.ROOT)).append("\": { \"count\": ")
+          .append(phaseCounts[phase.ordinal()].sum()).append(", \"seconds\": ")
+          .append(formatDecimal(getPhaseNanos(phase) / 1e9)).append(", \"buckets\": {");
+      for (int i = 0; i <= BUCKETS; i++) {
+        json.append(i == 0 ? " " : ", ").append('"').append(getBucketBound(i)).append("\": ").append(buckets.get(i));
+      }
+      json.append(" } }").append(phase.ordinal() < Phase.values().length - 1 ? ",\n" : "\n");
+    }
+    json.append("  }\n}\n");
+    return json.toString();
+  }
+
+  /**
+   * Formats the statistics in the Prometheus text exposition format.
+   *
+   * @return the Prometheus text
+   */
+  public String toPrometheus() {
+    StringBuilder text = new StringBuilder();
+    text.append("# HELP mps7_bytes_read_total Bytes of records decoded.\n");
+    text.append("# TYPE mps7_bytes_read_total counter\n");
+    text.append("mps7_bytes_read_total ").append(getBytesRead()).append('\n');
+
+    text.append("# HELP mps7_records_total Records decoded, by record type.\n");
+    text.append("# TYPE mps7_records_total counter\n");
+    for (RecordType type : RecordType.values()) {
+      text.append("mps7_records_total{type=\"").append(type.name().toLowerCase(Locale.ROOT)).append("\"} ")
+          .append(getRecords(type)).append('\n');
+    }
+
+    text.append("# HELP mps7_malformed_records_total Places decoding stopped on an unknown type or partial record.\n");
+    text.append("# TYPE mps7_malformed_records_total counter\n");
+    text.append("mps7_malformed_records_total ").append(getMalformedRecords()).append('\n');
+    text.append("# HELP mps7_malformed_bytes_total Bytes left undecoded after a malformed record.\n");
+    text.append("# TYPE mps7_malformed_bytes_total counter\n");
+    text.append("mps7_malformed_bytes_total ").append(malformedBytes.sum()).append('\n');
+    text.append("# HELP mps7_trailing_bytes_total Bytes following the records a header declares.\n");
+    text.append("# TYPE mps7_trailing_bytes_total counter\n");
+    text.append("mps7_trailing_bytes_total ").append(getTrailingBytes()).append('\n');
+
+    text.append("# HELP mps7_decode_records_per_second Records decoded per second of the decode phase.\n");
+    text.append("# TYPE mps7_decode_records_per_second gauge\n");
+    text.append("mps7_decode_records_per_second ").append(formatDecimal(getDecodeRate(getTotalRecords())))
+        .append('\n');
+
+    text.append("# HELP mps7_phase_seconds Time spent in each phase of processing.\n");
+    text.append("# TYPE mps7_phase_seconds histogram\n");
+    for (Phase phase : Phase.values()) {
+      String label = "phase=\"" + phase.name().toLowerCase(Locale.ROOT) + "\"";
+      AtomicLongArray buckets = phaseBuckets[phase.ordinal()];
+      long cumulative = 0;
+      for (int i = 0; i <= BUCKETS; i++) {
+        cumulative += buckets.get(i);
+        text.append("mps7_phase_seconds_bucket{").append(label).append(",le=\"").append(getBucketBound(i))
+            .append("\"} ").append(cumulative).append('\n');
+      }
+      text.append("mps7_phase_seconds_sum{").append(label).append("} ")
+          .append(formatDecimal(getPhaseNanos(phase) / 1e9)).append('\n');
+      text.append("mps7_phase_seconds_count{").append(label).append("} ")
+          .append(phaseCounts[phase.ordinal()].sum()).append('\n');
+    }
+    return text.toString();
+  }
+
+  private long getTotalRecords() {
+    long total = 0;
+    for (LongAdder count : records) {
+      total += count.sum();
+    }
+    return total;
+  }
+
+  /**
+   * Get the given amount per second of the decode phase.
+   */
+  private double getDecodeRate(long amount) {
+    long nanos = getPhaseNanos(Phase.DECODE);
+    return nanos == 0 ? 0 : amount * 1e9 / nanos;
+  }
+
+  /**
+   * Get the inclusive upper bound of a histogram bucket in seconds, written out exactly as in the exports.
+   */
+  private static String getBucketBound(int bucket) {
+    if (bucket == BUCKETS) {
+      return "+Inf";
+    }
+    return BigDecimal.valueOf(1L << (FIRST_BUCKET_SHIFT + bucket * BUCKET_SHIFT_STEP), 9).stripTrailingZeros()
+        .toPlainString();
+  }
+
+  private static String formatDecimal(double value) {
+    return String.format(Locale.ROOT, "%.9g", value).replaceAll("(\\.\\d*?)0+(e|$)", "$1$2")
+        .replaceAll("\\.(e|$)", "$1");
+  }
+
+}
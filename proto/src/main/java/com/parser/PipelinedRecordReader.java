@@ -0,0 +1,356 @@
+package com.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.parser.ParserHelper.RecordType;
+
+/**
+ * Reads an MPS7 file on a dedicated reader thread while the calling thread decodes it, so waiting on the disk overlaps
+ * with decoding rather than alternating with it. This pays off on cold caches, spinning disks and network mounts, where
+ * a {@link MappedRecordReader} stalls on every page fault.
+ * <p>
+ * The reader thread fills a fixed ring of direct buffers front to back with positional reads, and hands each full
+ * buffer to the decoder through a bounded queue; the decoder hands each buffer back once it has moved past it. Memory
+ * is therefore fixed at the buffer count times the buffer size, and the reader runs at most that far ahead.
+ * <p>
+ * Each buffer keeps room in front of its data for the end of the previous buffer. When a record runs past the end of a
+ * buffer, its first bytes are copied into that room in the next buffer, so every record is decoded from contiguous
+ * bytes and the {@link RecordCursor} never sees a buffer edge.
+ */
+public class PipelinedRecordReader implements RecordReader {
+  /**
+   * The number of bytes read into each buffer by default.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 8 << 20;
+
+  /**
+   * The number of buffers in the ring by default: one being decoded, one being read, and two queued between them.
+   */
+  public static final int DEFAULT_BUFFER_COUNT = 4;
+
+  /**
+   * The room in front of each buffer's data, enough for the header or the longest record.
+   */
+  private static final int CARRY_SIZE = 32;
+
+  private final FileChannel channel;
+  private final long fileSize;
+  private final BlockingQueue<ByteBuffer> free;
+  private final BlockingQueue<Block> filled;
+
+  /**
+   * The reader thread, or null if it is not started yet.
+   */
+  private Thread readerThread;
+  private volatile boolean stopped;
+
+  /**
+   * The buffer being decoded, or null if none has been taken yet.
+   */
+  private ByteBuffer current;
+
+  /**
+   * The absolute file offset of index 0 of the current buffer.
+   */
+  private long currentStart;
+
+  /**
+   * The absolute file offset to start reading from, until the first buffer is taken.
+   */
+  private long startPosition;
+
+  /**
+   * Whether the buffer holding the end of the file has been taken.
+   */
+  private boolean endReached;
+
+  /**
+   * The number of records left before the declared record count is reached.
+   */
+  private long recordsLeft = Long.MAX_VALUE;
+  private long recordsRead;
+
+  /**
+   * Opens the given file for reading with the default buffers.
+   *
+   * @param file the MPS7 file to read
+   * @throws IOException thrown if the file cannot be opened
+   */
+  public PipelinedRecordReader(File file) throws IOException {
+    this(file, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+  }
+
+  /**
+   * Opens the given file for reading through the given number of buffers.
+   *
+   * @param file the MPS7 file to read
+   * @param bufferSize the number of bytes read into each buffer
+   * @param bufferCount the number of buffers in the ring; at least 2, so reading can overlap decoding
+   * @throws IOException thrown if the file cannot be opened
+   */
+  public PipelinedRecordReader(File file, int bufferSize, int bufferCount) throws IOException {
+    if (bufferSize < CARRY_SIZE || bufferSize > Integer.MAX_VALUE - CARRY_SIZE) {
+      throw new IllegalArgumentException("The buffer size must be between " + CARRY_SIZE + " and "
+          + (Integer.MAX_VALUE - CARRY_SIZE) + " bytes.");
+    }
+    if (bufferCount < 2) {
+      throw new IllegalArgumentException("There must be at least 2 buffers.");
+    }
+
+    this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    this.fileSize = channel.size();
+    this.free = new ArrayBlockingQueue<>(bufferCount);
+    this.filled = new ArrayBlockingQueue<>(bufferCount);
+    for (int i = 0; i < bufferCount; i++) {
+      free.add(ByteBuffer.allocateDirect(CARRY_SIZE + bufferSize));
+    }
+  }
+
+  @Override
+  public long getPosition() {
+    return current == null ? startPosition : currentStart + current.position();
+  }
+
+  /**
+   * Moves the reader to the given offset, which must be the offset of a record boundary, such as a checkpoint saved by
+   * an earlier run. The reader thread is stopped and started again from the offset, so read the header first.
+   *
+   * @param position the absolute file offset to read the next record from
+   */
+  @Override
+  public void seek(long position) {
+    if (position < ParserHelper.HEADER_LENGTH || position > fileSize) {
+      throw new IllegalArgumentException("The offset " + position + " is not between the end of the header and the "
+          + "end of the file.");
+    }
+
+    stopReader();
+    startPosition = position;
+  }
+
+  @Override
+  public long getFileSize() {
+    return fileSize;
+  }
+
+  @Override
+  public Mps7Header readHeader() throws IOException {
+    if (!ensure(ParserHelper.HEADER_LENGTH)) {
+      return null;
+    }
+
+    // Mps7Header.read rejects any version without a decoder, so only version 1 records reach next(RecordCursor)
+    Mps7Header header = Mps7Header.read(current, current.position());
+    current.position(current.position() + ParserHelper.HEADER_LENGTH);
+    setRecordLimit(header.getRecordCount());
+    return header;
+  }
+
+  @Override
+  public void setRecordLimit(long records) {
+    recordsLeft = Math.max(0, records);
+  }
+
+  @Override
+  public long getRecordsRead() {
+    return recordsRead;
+  }
+
+  @Override
+  public boolean next(RecordCursor cursor) throws IOException {
+    // Check the header's record count has not been reached and there is a record type byte left to read
+    if (recordsLeft == 0 || !ensure(1)) {
+      return false;
+    }
+
+    // Peek at the record type, and stop if it is not a known type
+    RecordType type = RecordType.getRecordTypeFromRecordIndicator(current.get(current.position()));
+    if (type == null) {
+      return false;
+    }
+
+    // Make sure the whole record is in the buffer; a partial trailing record ends the file
+    if (!ensure(type.getRecordLength())) {
+      return false;
+    }
+
+    int offset = current.position();
+    current.position(offset + type.getRecordLength());
+    recordsLeft--;
+    recordsRead++;
+    return cursor.wrap(current, offset);
+  }
+
+  /**
+   * Makes sure the given number of bytes can be read from the current buffer, taking the next buffer from the reader
+   * thread if needed and carrying the unread bytes over into the room in front of its data.
+   *
+   * @param length the number of bytes that must be readable, at most the room in front of each buffer
+   * @return true if the bytes are readable, or false if the file ends first
+   * @throws IOException thrown if the reader thread failed to read the file, or was interrupted waiting for it
+   */
+  private boolean ensure(int length) throws IOException {
+    while (current == null || current.remaining() < length) {
+      if (endReached) {
+        return false;
+      }
+      if (readerThread == null) {
+        startReader();
+      }
+
+      Block block;
+      try {
+        block = filled.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for the file to be read.");
+      }
+      if (block.error != null) {
+        free.add(block.buffer);
+        endReached = true;
+        throw new IOException("Error occurred reading the file at offset " + block.offset + ".", block.error);
+      }
+
+      ByteBuffer next = block.buffer;
+      int carry = 0;
+      if (current != null) {
+        carry = current.remaining();
+        for (int i = 0; i < carry; i++) {
+          next.put(CARRY_SIZE - carry + i, current.get(current.position() + i));
+        }
+        free.add(current);
+      }
+      next.position(CARRY_SIZE - carry);
+      current = next;
+      currentStart = block.offset - CARRY_SIZE;
+      endReached = block.last;
+    }
+    return true;
+  }
+
+  /**
+   * Starts the reader thread from the start position.
+   */
+  private void startReader() {
+    long position = startPosition;
+    stopped = false;
+    readerThread = new Thread(() -> read(position), "mps7-reader");
+    readerThread.setDaemon(true);
+    readerThread.start();
+  }
+
+  /**
+   * Fills free buffers from the given offset to the end of the file, and queues them for the decoder. Runs on the
+   * reader thread until the end of the file, an error, or the reader is stopped.
+   *
+   * @param position the absolute file offset to start reading from
+   */
+  private void read(long position) {
+    while (!stopped) {
+      ByteBuffer buffer;
+      try {
+        buffer = free.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (stopped) {
+        free.add(buffer);
+        return;
+      }
+
+      buffer.clear();
+      buffer.position(CARRY_SIZE);
+      buffer.limit((int) Math.min(buffer.capacity(), CARRY_SIZE + fileSize - position));
+      try {
+        while (buffer.hasRemaining()) {
+          if (channel.read(buffer, position + buffer.position() - CARRY_SIZE) < 0) {
+            break;
+          }
+        }
+      } catch (IOException e) {
+        filled.add(new Block(buffer, position, true, e));
+        return;
+      }
+
+      // A file truncated while being read ends early
+      int read = buffer.position() - CARRY_SIZE;
+      boolean last = buffer.hasRemaining() || position + read >= fileSize;
+      buffer.limit(buffer.position());
+      buffer.position(CARRY_SIZE);
+      // Every buffer fits in the queue, so this never blocks
+      filled.add(new Block(buffer, position, last, null));
+      position += read;
+      if (last) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Stops the reader thread if it is running, and returns every buffer to the free queue.
+   */
+  private void stopReader() {
+    if (readerThread != null) {
+      stopped = true;
+      if (current != null) {
+        free.add(current);
+      }
+      // Hand back every queued buffer so a reader waiting for a free one wakes up and sees it is stopped
+      drainFilled();
+      boolean interrupted = false;
+      while (readerThread.isAlive()) {
+        try {
+          readerThread.join();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      drainFilled();
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    readerThread = null;
+    current = null;
+    endReached = false;
+  }
+
+  private void drainFilled() {
+    Block block;
+    while ((block = filled.poll()) != null) {
+      free.add(block.buffer);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    stopReader();
+    channel.close();
+  }
+
+  /**
+   * A buffer filled by the reader thread, with the file offset of its first data byte.
+   */
+  private static class Block {
+    final ByteBuffer buffer;
+    final long offset;
+    final boolean last;
+    final IOException error;
+
+    Block(ByteBuffer buffer, long offset, boolean last, IOException error) {
+      this.buffer = buffer;
+      this.offset = offset;
+      this.last = last;
+      this.error = error;
+    }
+  }
+
+}
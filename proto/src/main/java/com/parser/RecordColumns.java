@@ -0,0 +1,194 @@
+package com.parser;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The records of an MPS7 file held column by column in primitive arrays, one array per field:
+ * <ul>
+ *    <li><b>Record Type : </b>the record type indicator of each record
+ *    <li><b>Timestamp : </b>the unsigned INT32 timestamp of each record, held in an int
+ *    <li><b>User ID : </b>the unsigned INT64 user ID of each record, held in a long
+ *    <li><b>Amount : </b>the amount of each record, or 0.0 for record types without one
+ * </ul>
+ * <p>
+ * When read from a file, the arrays are allocated once from the record count the header declares, so reading never
+ * grows or copies them, and no object is allocated per record. The count is capped at the most records the file could
+ * hold, so a corrupt count cannot allocate more than the file is worth.
+ */
+public class RecordColumns {
+
+  private final byte[] types;
+  private final int[] timestamps;
+  private final long[] userIds;
+  private final double[] amounts;
+  private int size;
+
+  /**
+   * Creates empty columns with room for the given number of records.
+   *
+   * @param capacity the most records the columns can hold
+   */
+  public RecordColumns(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("The capacity must not be negative.");
+    }
+
+    this.types = new byte[capacity];
+    this.timestamps = new int[capacity];
+    this.userIds = new long[capacity];
+    this.amounts = new double[capacity];
+  }
+
+  /**
+   * Reads the records the header of the given file declares into columns sized to hold them. A short file or trailing
+   * data is not an error here; compare {@link #size()} with the header to report it.
+   *
+   * @param file the MPS7 file to read
+   * @return the columns holding every record read
+   * @throws IOException thrown if an error occurs reading the file, it does not have a supported MPS7 header, or it
+   *         declares more records than an array can hold
+   */
+  public static RecordColumns read(File file) throws IOException {
+    try (MappedRecordReader reader = new MappedRecordReader(file)) {
+      Mps7Header header = reader.readHeader();
+      if (header == null) {
+        return new RecordColumns(0);
+      }
+
+      // No record is shorter than an autopay record, which bounds how many the file can hold
+      long fits = (reader.getFileSize() - ParserHelper.HEADER_LENGTH) / ParserHelper.BASE_RECORD_LENGTH;
+      long capacity = Math.min(header.getRecordCount(), fits);
+      if (capacity > Integer.MAX_VALUE - 8) {
+        throw new IOException("The file declares " + header.getRecordCount() + " records, more than can be held in "
+            + "memory at once.");
+      }
+
+      RecordColumns columns = new RecordColumns((int) capacity);
+      RecordCursor cursor = new RecordCursor();
+      while (columns.size < capacity && reader.next(cursor)) {
+        columns.add(cursor);
+      }
+      return columns;
+    }
+  }
+
+  /**
+   * Appends the record under the given cursor.
+   *
+   * @param cursor a cursor positioned on a decoded payment record
+   * @throws IllegalStateException thrown if the columns are full
+   */
+  public void add(RecordCursor cursor) {
+    if (size == types.length) {
+      throw new IllegalStateException("The columns are full at " + size + " records.");
+    }
+
+    types[size] = (byte) cursor.getType();
+    timestamps[size] = (int) cursor.getTimestamp();
+    userIds[size] = cursor.getUserId();
+    amounts[size] = cursor.getAmount();
+    size++;
+  }
+
+  /**
+   * Empties the columns so they can be filled again, without reallocating them.
+   */
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * Get the number of records held.
+   *
+   * @return the record count
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the number of records the columns have room for.
+   *
+   * @return the capacity
+   */
+  public int capacity() {
+    return types.length;
+  }
+
+  /**
+   * Get the record type indicator of a record.
+   *
+   * @param index the index of the record
+   * @return the record type indicator integer
+   */
+  public int getType(int index) {
+    checkIndex(index);
+    return types[index];
+  }
+
+  /**
+   * Get the timestamp of a record.
+   *
+   * @param index the index of the record
+   * @return the unsigned INT32 timestamp as seconds since the Unix epoch
+   */
+  public long getTimestamp(int index) {
+    checkIndex(index);
+    return timestamps[index] & 0xffffffffL;
+  }
+
+  /**
+   * Get the user ID of a record.
+   *
+   * @param index the index of the record
+   * @return the user ID as a primitive long holding an unsigned INT64
+   */
+  public long getUserId(int index) {
+    checkIndex(index);
+    return userIds[index];
+  }
+
+  /**
+   * Get the amount of a record.
+   *
+   * @param index the index of the record
+   * @return the amount, or 0.0 if the record type has no amount attached to it
+   */
+  public double getAmount(int index) {
+    checkIndex(index);
+    return amounts[index];
+  }
+
+  /**
+   * Orders the records by timestamp without moving them; visit them in time order through the returned permutation.
+   *
+   * @param parallelism the most threads to sort on
+   * @return the order of the records by timestamp, with records of the same timestamp in their original order
+   */
+  public TimestampOrder orderByTimestamp(int parallelism) {
+    return TimestampOrder.sort(timestamps, size, parallelism);
+  }
+
+  /**
+   * Folds every record into the given accumulator, in order.
+   *
+   * @param metrics the accumulator to fold the records into
+   */
+  public void fold(MetricsAccumulator metrics) {
+    WindowedAggregator windows = metrics.getWindows();
+    for (int i = 0; i < size; i++) {
+      if (windows != null) {
+        windows.accept(timestamps[i] & 0xffffffffL, types[i], amounts[i]);
+      }
+      metrics.accept(types[i], userIds[i], amounts[i]);
+    }
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " is outside the " + size + " records.");
+    }
+  }
+
+}
@@ -0,0 +1,119 @@
+package com.parser;
+
+import java.nio.ByteBuffer;
+
+import com.parser.ParserHelper.RecordType;
+
+/**
+ * A flyweight view over the raw bytes of a single payment record:
+ * <ul>
+ *    <li><b>Record Type : </b>1 byte
+ *    <li><b>Timestamp : </b>4 bytes, unsigned INT32
+ *    <li><b>User ID : </b>8 bytes, unsigned INT64
+ *    <li><b>Amount : </b>8 bytes, FLOAT64; only present for CREDIT or DEBIT record types
+ * </ul>
+ * <p>
+ * Unlike {@link RecordEntity}, the fields are decoded on demand as primitives straight from the buffer, and a single
+ * cursor is moved from record to record with {@link #wrap(ByteBuffer, int)}, so no objects are allocated per record.
+ * The buffer must be in network byte order.
+ */
+public class RecordCursor {
+
+  private ByteBuffer buffer;
+  private int offset;
+  private RecordType recordType;
+
+  /**
+   * Points the cursor at the record starting at the given index of the buffer. The buffer must hold the whole record.
+   *
+   * @param buffer the buffer holding the record bytes, in network byte order
+   * @param offset the absolute index of the record type byte
+   * @return true if the record type is known, or false if the cursor cannot decode the record
+   */
+  public boolean wrap(ByteBuffer buffer, int offset) {
+    this.buffer = buffer;
+    this.offset = offset;
+    this.recordType = RecordType.getRecordTypeFromRecordIndicator(buffer.get(offset));
+    return recordType != null;
+  }
+
+  /**
+   * Get the record type indicator.
+   *
+   * @return the record type indicator integer
+   */
+  public int getType() {
+    return recordType.getRecordIndicator();
+  }
+
+  /**
+   * Get the record type.
+   *
+   * @return the record type as a {@link RecordType}
+   */
+  public RecordType getRecordType() {
+    return recordType;
+  }
+
+  /**
+   * Get the number of bytes in the current record.
+   *
+   * @return the record length in bytes
+   */
+  public int getLength() {
+    return recordType.getRecordLength();
+  }
+
+  /**
+   * Get the timestamp.
+   *
+   * @return the unsigned INT32 timestamp as seconds since the Unix epoch
+   */
+  public long getTimestamp() {
+    return buffer.getInt(offset + 1) & 0xffffffffL;
+  }
+
+  /**
+   * Get the user ID. The value is an unsigned INT64, so IDs above {@link Long#MAX_VALUE} are negative; compare with
+   * {@code ==} and print with {@link Long#toUnsignedString(long)}.
+   *
+   * @return the user ID as a primitive long holding an unsigned INT64
+   */
+  public long getUserId() {
+    return buffer.getLong(offset + 5);
+  }
+
+  /**
+   * Get the amount.
+   *
+   * @return the amount, or 0.0 if the record type has no amount attached to it
+   */
+  public double getAmount() {
+    return recordType.isHasAmount() ? buffer.getDouble(offset + ParserHelper.BASE_RECORD_LENGTH) : 0.0;
+  }
+
+  /**
+   * Copies the current record into a new {@link RecordEntity}. This allocates, so keep it off the hot path.
+   *
+   * @return a new record holding the decoded fields
+   */
+  public RecordEntity toRecordEntity() {
+    RecordEntity record = new RecordEntity();
+    record.setRecordType((byte) getType());
+    record.setTimestamp(getTimestamp());
+    record.setUserId(getUserId());
+
+    if (recordType.isHasAmount()) {
+      record.setAmount(getAmount());
+    }
+
+    return record;
+  }
+
+  @Override
+  public String toString() {
+    return "RecordCursor [recordType=" + recordType + ", timestamp=" + getTimestamp() + ", userId="
+        + Long.toUnsignedString(getUserId()) + ", amount=" + getAmount() + "]";
+  }
+
+}
@@ -63,6 +63,15 @@ public class RecordEntity implements Comparable<RecordEntity> {
     this.timestamp = new Timestamp(ParserHelper.getUnsignedInt(array) * 1000);
   }
 
+  /**
+   * Sets the timestamp from an unsigned INT32 count of seconds since the Unix epoch.
+   * 
+   * @param unixSeconds the decoded timestamp in seconds
+   */
+  public void setTimestamp(long unixSeconds) {
+    this.timestamp = new Timestamp(unixSeconds * 1000);
+  }
+
   /**
    * Get the user ID.
    * 
@@ -81,6 +90,15 @@ public class RecordEntity implements Comparable<RecordEntity> {
     this.userId = new BigInteger(1, array);
   }
 
+  /**
+   * Sets the user ID from a primitive long holding an unsigned INT64.
+   * 
+   * @param userId the decoded user ID
+   */
+  public void setUserId(long userId) {
+    this.userId = ParserHelper.toUnsignedBigInteger(userId);
+  }
+
   /**
    * Get the amount.
    * 
@@ -99,6 +117,15 @@ public class RecordEntity implements Comparable<RecordEntity> {
     this.amount = ParserHelper.getDouble(array);
   }
 
+  /**
+   * Sets the amount from a decoded FLOAT64.
+   * 
+   * @param amount the decoded amount
+   */
+  public void setAmount(double amount) {
+    this.amount = amount;
+  }
+
   @Override
   public String toString() {
     return "RecordEntity [recordType=" + recordType + ", timestamp=" + timestamp + ", userId=" + userId + ", amount="
@@ -0,0 +1,446 @@
+package com.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.parser.ParserHelper.RecordType;
+
+/**
+ * Runs any number of filtered aggregations over payment records in a single pass. Each aggregation is registered as a
+ * filter and an aggregate (a sum, count, minimum, maximum or per-key sum), and every record is then decoded once and
+ * offered to each of them in turn, so adding an aggregation adds no extra pass over the records.
+ * <p>
+ * Filters, values and keys are given the primitive fields of a record, so no objects are allocated per record, and
+ * sums are exact through {@link MoneyAccumulator}:
+ *
+ * <pre>
+ * RecordQuery query = new RecordQuery();
+ * RecordQuery.Sum debits = query.sum(RecordFilter.ofType(RecordType.DEBIT), RecordValue.AMOUNT);
+ * RecordQuery.Count started = query.count(RecordFilter.ofType(RecordType.START_AUTO));
+ * RecordQuery.GroupBy balances = query.groupBy(RecordFilter.ALL, RecordKey.USER_ID, RecordValue.BALANCE);
+ * query.run(file);
+ * </pre>
+ */
+public class RecordQuery {
+
+  private Aggregate[] aggregates = new Aggregate[0];
+
+  /**
+   * Registers a sum of the given value over the records the filter accepts.
+   *
+   * @param filter the records to sum over
+   * @param value the value of each record to add
+   * @return the sum, filled in as records are accepted
+   */
+  public Sum sum(RecordFilter filter, RecordValue value) {
+    return register(new Sum(filter, value));
+  }
+
+  /**
+   * Registers a count of the records the filter accepts.
+   *
+   * @param filter the records to count
+   * @return the count, filled in as records are accepted
+   */
+  public Count count(RecordFilter filter) {
+    return register(new Count(filter));
+  }
+
+  /**
+   * Registers the smallest of the given value over the records the filter accepts.
+   *
+   * @param filter the records to look at
+   * @param value the value of each record to compare
+   * @return the minimum, filled in as records are accepted
+   */
+  public Min min(RecordFilter filter, RecordValue value) {
+    return register(new Min(filter, value));
+  }
+
+  /**
+   * Registers the largest of the given value over the records the filter accepts.
+   *
+   * @param filter the records to look at
+   * @param value the value of each record to compare
+   * @return the maximum, filled in as records are accepted
+   */
+  public Max max(RecordFilter filter, RecordValue value) {
+    return register(new Max(filter, value));
+  }
+
+  /**
+   * Registers a sum of the given value for each key over the records the filter accepts.
+   *
+   * @param filter the records to sum over
+   * @param key the key of each record to group by
+   * @param value the value of each record to add to its key's sum
+   * @return the sums by key, filled in as records are accepted
+   */
+  public GroupBy groupBy(RecordFilter filter, RecordKey key, RecordValue value) {
+    return register(new GroupBy(filter, key, value));
+  }
+
+  private <T extends Aggregate> T register(T aggregate) {
+    aggregates = Arrays.copyOf(aggregates, aggregates.length + 1);
+    aggregates[aggregates.length - 1] = aggregate;
+    return aggregate;
+  }
+
+  /**
+   * Offers every record the header of the given file declares to each registered aggregation.
+   *
+   * @param file the MPS7 file to read
+   * @return the number of records read
+   * @throws IOException thrown if an error occurs reading the file, or it does not have a supported MPS7 header
+   */
+  public long run(File file) throws IOException {
+    try (MappedRecordReader reader = new MappedRecordReader(file)) {
+      if (reader.readHeader() != null) {
+        RecordCursor cursor = new RecordCursor();
+        while (reader.next(cursor)) {
+          accept(cursor);
+        }
+      }
+      return reader.getRecordsRead();
+    }
+  }
+
+  /**
+   * Offers every record held in the given columns to each registered aggregation, in order.
+   *
+   * @param columns the records to aggregate
+   */
+  public void run(RecordColumns columns) {
+    for (int i = 0; i < columns.size(); i++) {
+      accept(columns.getType(i), columns.getTimestamp(i), columns.getUserId(i), columns.getAmount(i));
+    }
+  }
+
+  /**
+   * Offers the record under the given cursor to each registered aggregation.
+   *
+   * @param cursor a cursor positioned on a decoded payment record
+   */
+  public void accept(RecordCursor cursor) {
+    accept(cursor.getType(), cursor.getTimestamp(), cursor.getUserId(), cursor.getAmount());
+  }
+
+  /**
+   * Offers a single record to each registered aggregation.
+   *
+   * @param record the decoded payment record
+   */
+  public void accept(RecordEntity record) {
+    double amount = record.getRecordType().isHasAmount() ? record.getAmount() : 0.0;
+    // The low 64 bits of the BigInteger are the unsigned INT64 user ID
+    accept(record.getRecordType().getRecordIndicator(), record.getTimestamp().getTime() / 1000,
+        record.getUserId().longValue(), amount);
+  }
+
+  /**
+   * Offers a single record, given as its primitive fields, to each registered aggregation.
+   *
+   * @param type the record type indicator
+   * @param timestamp the unsigned INT32 timestamp as seconds since the Unix epoch
+   * @param userId the user ID, as a primitive long holding an unsigned INT64
+   * @param amount the amount, or 0.0 if the record type has none
+   */
+  public void accept(int type, long timestamp, long userId, double amount) {
+    for (Aggregate aggregate : aggregates) {
+      if (aggregate.filter.test(type, timestamp, userId, amount)) {
+        aggregate.add(type, timestamp, userId, amount);
+      }
+    }
+  }
+
+  /**
+   * Decides whether a record is aggregated, from its primitive fields.
+   */
+  public interface RecordFilter {
+    /**
+     * Accepts every record.
+     */
+    RecordFilter ALL = (type, timestamp, userId, amount) -> true;
+
+    /**
+     * Checks whether the record is aggregated.
+     *
+     * @param type the record type indicator
+     * @param timestamp the unsigned INT32 timestamp as seconds since the Unix epoch
+     * @param userId the user ID, as a primitive long holding an unsigned INT64
+     * @param amount the amount, or 0.0 if the record type has none
+     * @return true if the record is aggregated
+     */
+    boolean test(int type, long timestamp, long userId, double amount);
+
+    /**
+     * Accepts the records of the given type.
+     *
+     * @param recordType the record type to accept
+     * @return the filter
+     */
+    static RecordFilter ofType(RecordType recordType) {
+      int indicator = recordType.getRecordIndicator();
+      return (type, timestamp, userId, amount) -> type == indicator;
+    }
+
+    /**
+     * Accepts the records of the given user.
+     *
+     * @param user the user ID, as a primitive long holding an unsigned INT64
+     * @return the filter
+     */
+    static RecordFilter ofUser(long user) {
+      return (type, timestamp, userId, amount) -> userId == user;
+    }
+
+    /**
+     * Accepts the records with a timestamp in the given range.
+     *
+     * @param from the earliest timestamp accepted, in seconds since the Unix epoch
+     * @param to the latest timestamp accepted, in seconds since the Unix epoch
+     * @return the filter
+     */
+    static RecordFilter between(long from, long to) {
+      return (type, timestamp, userId, amount) -> timestamp >= from && timestamp <= to;
+    }
+
+    /**
+     * Accepts the records both this and the other filter accept.
+     *
+     * @param other the other filter
+     * @return the combined filter
+     */
+    default RecordFilter and(RecordFilter other) {
+      return (type, timestamp, userId, amount) ->
+          test(type, timestamp, userId, amount) && other.test(type, timestamp, userId, amount);
+    }
+  }
+
+  /**
+   * Maps a record to the value aggregated, from its primitive fields.
+   */
+  public interface RecordValue {
+    /**
+     * The amount, or 0.0 if the record type has none.
+     */
+    RecordValue AMOUNT = (type, timestamp, userId, amount) -> amount;
+
+    /**
+     * The amount added to the user's balance: the amount of a CREDIT, the negated amount of a DEBIT, and 0.0 for
+     * anything else.
+     */
+    RecordValue BALANCE = (type, timestamp, userId, amount) -> {
+      if (type == RecordType.CREDIT.getRecordIndicator()) {
+        return amount;
+      }
+      return type == RecordType.DEBIT.getRecordIndicator() ? -amount : 0.0;
+    };
+
+    /**
+     * The timestamp, in seconds since the Unix epoch.
+     */
+    RecordValue TIMESTAMP = (type, timestamp, userId, amount) -> timestamp;
+
+    /**
+     * Maps the record to its value.
+     *
+     * @param type the record type indicator
+     * @param timestamp the unsigned INT32 timestamp as seconds since the Unix epoch
+     * @param userId the user ID, as a primitive long holding an unsigned INT64
+     * @param amount the amount, or 0.0 if the record type has none
+     * @return the value aggregated
+     */
+    double value(int type, long timestamp, long userId, double amount);
+  }
+
+  /**
+   * Maps a record to the key it is grouped by, from its primitive fields.
+   */
+  public interface RecordKey {
+    /**
+     * The user ID, as a primitive long holding an unsigned INT64.
+     */
+    RecordKey USER_ID = (type, timestamp, userId) -> userId;
+
+    /**
+     * The record type indicator.
+     */
+    RecordKey TYPE = (type, timestamp, userId) -> type;
+
+    /**
+     * Maps the record to its key.
+     *
+     * @param type the record type indicator
+     * @param timestamp the unsigned INT32 timestamp as seconds since the Unix epoch
+     * @param userId the user ID, as a primitive long holding an unsigned INT64
+     * @return the key to group by
+     */
+    long key(int type, long timestamp, long userId);
+
+    /**
+     * The start of the time bucket of the given length the timestamp falls in, aligned to the Unix epoch.
+     *
+     * @param seconds the length of each bucket in seconds
+     * @return the key
+     */
+    static RecordKey timeBucket(long seconds) {
+      if (seconds < 1) {
+        throw new IllegalArgumentException("The bucket length must be at least 1 second.");
+      }
+      return (type, timestamp, userId) -> timestamp - timestamp % seconds;
+    }
+  }
+
+  /**
+   * A registered aggregation: the filter it applies and the running result of the records it accepted.
+   */
+  public abstract static class Aggregate {
+    private final RecordFilter filter;
+
+    Aggregate(RecordFilter filter) {
+      this.filter = filter;
+    }
+
+    abstract void add(int type, long timestamp, long userId, double amount);
+  }
+
+  /**
+   * The exact sum of a value over the accepted records.
+   */
+  public static class Sum extends Aggregate {
+    private final RecordValue value;
+    private final MoneyAccumulator total = new MoneyAccumulator();
+
+    Sum(RecordFilter filter, RecordValue value) {
+      super(filter);
+      this.value = value;
+    }
+
+    @Override
+    void add(int type, long timestamp, long userId, double amount) {
+      total.add(value.value(type, timestamp, userId, amount));
+    }
+
+    public MoneyAccumulator getTotal() {
+      return total;
+    }
+  }
+
+  /**
+   * The number of accepted records.
+   */
+  public static class Count extends Aggregate {
+    private long count;
+
+    Count(RecordFilter filter) {
+      super(filter);
+    }
+
+    @Override
+    void add(int type, long timestamp, long userId, double amount) {
+      count++;
+    }
+
+    public long getCount() {
+      return count;
+    }
+  }
+
+  /**
+   * The smallest value over the accepted records.
+   */
+  public static class Min extends Aggregate {
+    private final RecordValue value;
+    private double min = Double.POSITIVE_INFINITY;
+    private boolean empty = true;
+
+    Min(RecordFilter filter, RecordValue value) {
+      super(filter);
+      this.value = value;
+    }
+
+    @Override
+    void add(int type, long timestamp, long userId, double amount) {
+      min = Math.min(min, value.value(type, timestamp, userId, amount));
+      empty = false;
+    }
+
+    /**
+     * Get the smallest value.
+     *
+     * @return the minimum, or positive infinity if no record was accepted
+     */
+    public double getMin() {
+      return min;
+    }
+
+    public boolean isEmpty() {
+      return empty;
+    }
+  }
+
+  /**
+   * The largest value over the accepted records.
+   */
+  public static class Max extends Aggregate {
+    private final RecordValue value;
+    private double max = Double.NEGATIVE_INFINITY;
+    private boolean empty = true;
+
+    Max(RecordFilter filter, RecordValue value) {
+      super(filter);
+      this.value = value;
+    }
+
+    @Override
+    void add(int type, long timestamp, long userId, double amount) {
+      max = Math.max(max, value.value(type, timestamp, userId, amount));
+      empty = false;
+    }
+
+    /**
+     * Get the largest value.
+     *
+     * @return the maximum, or negative infinity if no record was accepted
+     */
+    public double getMax() {
+      return max;
+    }
+
+    public boolean isEmpty() {
+      return empty;
+    }
+  }
+
+  /**
+   * The exact sum of a value for each key over the accepted records, held in a {@link LongAmountHashMap}.
+   */
+  public static class GroupBy extends Aggregate {
+    private final RecordKey key;
+    private final RecordValue value;
+    private final LongAmountHashMap sums = new LongAmountHashMap();
+
+    GroupBy(RecordFilter filter, RecordKey key, RecordValue value) {
+      super(filter);
+      this.key = key;
+      this.value = value;
+    }
+
+    @Override
+    void add(int type, long timestamp, long userId, double amount) {
+      sums.addTo(key.key(type, timestamp, userId), value.value(type, timestamp, userId, amount));
+    }
+
+    /**
+     * Get the sums by key. A key is present once any accepted record had it, even if its sum is 0.
+     *
+     * @return the sum of each key
+     */
+    public LongAmountHashMap getSums() {
+      return sums;
+    }
+  }
+
+}
@@ -0,0 +1,65 @@
+package com.parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Decodes the records of an MPS7 file front to back onto a {@link RecordCursor}, stopping at the record count the
+ * header declares.
+ */
+public interface RecordReader extends Closeable {
+
+  /**
+   * Read off and validate the {@link Mps7Header}, and stop decoding at the record count it declares.
+   *
+   * @return the header, or null if the file is too short to hold one
+   * @throws IOException thrown if an error occurs reading the file, or the header is not a supported MPS7 header
+   */
+  Mps7Header readHeader() throws IOException;
+
+  /**
+   * Moves the reader to the given offset, which must be the offset of a record boundary.
+   *
+   * @param position the absolute file offset to read the next record from
+   */
+  void seek(long position);
+
+  /**
+   * Sets the number of records to decode before {@link #next(RecordCursor)} stops, counted from now.
+   *
+   * @param records the number of records left to decode
+   */
+  void setRecordLimit(long records);
+
+  /**
+   * Moves the given cursor onto the next record. The cursor stays valid until the next call.
+   *
+   * @param cursor the cursor to move onto the next record
+   * @return true if the cursor holds a record, or false if the declared record count, the end of the file, a partial
+   *         record or an unknown record type is reached
+   * @throws IOException thrown if an error occurs reading the file
+   */
+  boolean next(RecordCursor cursor) throws IOException;
+
+  /**
+   * Get the absolute file offset of the next byte to be read.
+   *
+   * @return the current position in the file
+   */
+  long getPosition();
+
+  /**
+   * Get the size of the file being read.
+   *
+   * @return the file size in bytes
+   */
+  long getFileSize();
+
+  /**
+   * Get the number of records decoded so far.
+   *
+   * @return the record count
+   */
+  long getRecordsRead();
+
+}
@@ -0,0 +1,299 @@
+package com.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * The order of a set of records by timestamp, as a permutation of their indexes, so that records can be visited in
+ * time order without moving them or comparing objects.
+ * <p>
+ * Timestamps are unsigned INT32 values, so they are sorted by a least significant digit radix sort over parallel
+ * primitive arrays of timestamps and record indexes: one counting pass per byte of the timestamp, skipping any byte
+ * that every timestamp shares, such as the high byte of timestamps from the same few years. Each pass is stable, so
+ * records with the same timestamp keep their original order.
+ * <p>
+ * Large inputs are sorted on several threads: each thread counts the bytes of its own slice, the counts are summed
+ * into the starting position of each thread's records in each bucket, and each thread then moves its slice into place.
+ */
+public class TimestampOrder {
+  /**
+   * The smallest number of records worth sorting on more than one thread.
+   */
+  public static final int PARALLEL_THRESHOLD = 1 << 18;
+
+  private static final int RADIX_BITS = 8;
+  private static final int BUCKETS = 1 << RADIX_BITS;
+  private static final int PASSES = Integer.SIZE / RADIX_BITS;
+
+  private final int[] timestamps;
+  private final int[] indexes;
+  private final int size;
+
+  private TimestampOrder(int[] timestamps, int[] indexes, int size) {
+    this.timestamps = timestamps;
+    this.indexes = indexes;
+    this.size = size;
+  }
+
+  /**
+   * Sorts the given timestamps on the calling thread.
+   *
+   * @param timestamps the unsigned INT32 timestamps of the records, held in ints; not modified
+   * @param size the number of records, from the start of the array
+   * @return the order of the records by timestamp
+   */
+  public static TimestampOrder sort(int[] timestamps, int size) {
+    return sort(timestamps, size, 1);
+  }
+
+  /**
+   * Sorts the given timestamps, on the given number of threads if there are enough records.
+   *
+   * @param timestamps the unsigned INT32 timestamps of the records, held in ints; not modified
+   * @param size the number of records, from the start of the array
+   * @param parallelism the most threads to sort on
+   * @return the order of the records by timestamp
+   */
+  public static TimestampOrder sort(int[] timestamps, int size, int parallelism) {
+    if (size < 0 || size > timestamps.length) {
+      throw new IllegalArgumentException("The size must be between 0 and " + timestamps.length + ".");
+    }
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("The parallelism must be at least 1.");
+    }
+
+    int[] keys = new int[size];
+    int[] indexes = new int[size];
+    System.arraycopy(timestamps, 0, keys, 0, size);
+    for (int i = 0; i < size; i++) {
+      indexes[i] = i;
+    }
+
+    int threads = Math.min(parallelism, Math.max(1, size / (PARALLEL_THRESHOLD / 2)));
+    if (size < PARALLEL_THRESHOLD || threads < 2) {
+      return sortSequential(keys, indexes);
+    }
+    return sortParallel(keys, indexes, threads);
+  }
+
+  private static TimestampOrder sortSequential(int[] keys, int[] indexes) {
+    int size = keys.length;
+    int[] keyBuffer = new int[size];
+    int[] indexBuffer = new int[size];
+    int[] counts = new int[BUCKETS];
+
+    for (int pass = 0; pass < PASSES; pass++) {
+      int shift = pass * RADIX_BITS;
+      Arrays.fill(counts, 0);
+      for (int i = 0; i < size; i++) {
+        counts[(keys[i] >>> shift) & (BUCKETS - 1)]++;
+      }
+      if (isSingleBucket(counts, size)) {
+        continue;
+      }
+
+      // Turn the counts into the first position of each bucket
+      int position = 0;
+      for (int bucket = 0; bucket < BUCKETS; bucket++) {
+        int count = counts[bucket];
+        counts[bucket] = position;
+        position += count;
+      }
+      for (int i = 0; i < size; i++) {
+        int bucket = (keys[i] >>> shift) & (BUCKETS - 1);
+        int target = counts[bucket]++;
+        keyBuffer[target] = keys[i];
+        indexBuffer[target] = indexes[i];
+      }
+
+      int[] swap = keys;
+      keys = keyBuffer;
+      keyBuffer = swap;
+      swap = indexes;
+      indexes = indexBuffer;
+      indexBuffer = swap;
+    }
+    return new TimestampOrder(keys, indexes, size);
+  }
+
+  private static TimestampOrder sortParallel(int[] keys, int[] indexes, int threads) {
+    int size = keys.length;
+    int[] keyBuffer = new int[size];
+    int[] indexBuffer = new int[size];
+    int[][] counts = new int[threads][BUCKETS];
+    int[] sliceStarts = new int[threads + 1];
+    for (int thread = 0; thread <= threads; thread++) {
+      sliceStarts[thread] = (int) ((long) size * thread / threads);
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      for (int pass = 0; pass < PASSES; pass++) {
+        int shift = pass * RADIX_BITS;
+        int[] source = keys;
+
+        // Count the bytes of each thread's slice
+        List<Callable<Void>> tasks = new ArrayList<>(threads);
+        for (int thread = 0; thread < threads; thread++) {
+          int[] threadCounts = counts[thread];
+          int start = sliceStarts[thread];
+          int end = sliceStarts[thread + 1];
+          tasks.add(() -> {
+            Arrays.fill(threadCounts, 0);
+            for (int i = start; i < end; i++) {
+              threadCounts[(source[i] >>> shift) & (BUCKETS - 1)]++;
+            }
+            return null;
+          });
+        }
+        invokeAll(pool, tasks);
+
+        // Each thread's records go after those of the earlier threads in the same bucket, keeping the sort stable
+        int position = 0;
+        boolean singleBucket = false;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+          int bucketStart = position;
+          for (int thread = 0; thread < threads; thread++) {
+            int count = counts[thread][bucket];
+            counts[thread][bucket] = position;
+            position += count;
+          }
+          singleBucket |= position - bucketStart == size;
+        }
+        if (singleBucket) {
+          continue;
+        }
+
+        int[] sourceIndexes = indexes;
+        int[] targetKeys = keyBuffer;
+        int[] targetIndexes = indexBuffer;
+        tasks.clear();
+        for (int thread = 0; thread < threads; thread++) {
+          int[] positions = counts[thread];
+          int start = sliceStarts[thread];
+          int end = sliceStarts[thread + 1];
+          tasks.add(() -> {
+            for (int i = start; i < end; i++) {
+              int target = positions[(source[i] >>> shift) & (BUCKETS - 1)]++;
+              targetKeys[target] = source[i];
+              targetIndexes[target] = sourceIndexes[i];
+            }
+            return null;
+          });
+        }
+        invokeAll(pool, tasks);
+
+        keyBuffer = keys;
+        keys = targetKeys;
+        indexBuffer = indexes;
+        indexes = targetIndexes;
+      }
+    } finally {
+      pool.shutdown();
+    }
+    return new TimestampOrder(keys, indexes, size);
+  }
+
+  private static boolean isSingleBucket(int[] counts, int size) {
+    for (int count : counts) {
+      if (count == size) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void invokeAll(ForkJoinPool pool, List<Callable<Void>> tasks) {
+    for (Future<Void> future : pool.invokeAll(tasks)) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while sorting the timestamps.", e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+  }
+
+  /**
+   * Get the number of records ordered.
+   *
+   * @return the record count
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the index of the record at the given position in time order.
+   *
+   * @param position the position in time order, from 0 for the earliest record
+   * @return the index of the record in the original arrays
+   */
+  public int getIndex(int position) {
+    return indexes[position];
+  }
+
+  /**
+   * Get the timestamp of the record at the given position in time order.
+   *
+   * @param position the position in time order, from 0 for the earliest record
+   * @return the unsigned INT32 timestamp as seconds since the Unix epoch
+   */
+  public long getTimestamp(int position) {
+    return timestamps[position] & 0xffffffffL;
+  }
+
+  /**
+   * Creates a cursor over the records in time order.
+   *
+   * @return a cursor before the earliest record
+   */
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * Steps through the permutation one record at a time, without copying it.
+   */
+  public class Cursor {
+    private int position = -1;
+
+    /**
+     * Moves on to the next record in time order.
+     *
+     * @return true if the cursor holds a record, or false past the last one
+     */
+    public boolean next() {
+      if (position < size) {
+        position++;
+      }
+      return position < size;
+    }
+
+    /**
+     * Get the index of the current record in the original arrays.
+     *
+     * @return the record index
+     */
+    public int getIndex() {
+      return indexes[position];
+    }
+
+    /**
+     * Get the timestamp of the current record.
+     *
+     * @return the unsigned INT32 timestamp as seconds since the Unix epoch
+     */
+    public long getTimestamp() {
+      return timestamps[position] & 0xffffffffL;
+    }
+  }
+
+}
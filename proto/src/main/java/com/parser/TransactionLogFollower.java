@@ -0,0 +1,290 @@
+package com.parser;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import com.parser.ParserHelper.RecordType;
+
+/**
+ * Follows an MPS7 transaction log that is still being appended to, the way {@code tail -f} follows a text log. The file
+ * is kept open, and each poll decodes only the records appended since the last one and folds them into a running
+ * {@link MetricsAccumulator}.
+ * <p>
+ * The offset just past the last fully decoded record is kept as a checkpoint. A record that has only been partly
+ * written is left for the next poll, once the rest of its bytes have arrived, rather than ending the file.
+ * <p>
+ * The header is validated once it has been written, but the records are decoded up to the end of the file rather than
+ * the record count the header declares, since the mainframe only rewrites the count after appending the records.
+ */
+public class TransactionLogFollower implements Closeable {
+  /**
+   * The default time to wait between polls, in milliseconds.
+   */
+  public static final long DEFAULT_POLL_INTERVAL = 1000;
+
+  /**
+   * The size of the buffer appended bytes are read into.
+   */
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  private final File path;
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final MetricsAccumulator metrics;
+  private final ByteBuffer buffer;
+  private final RecordCursor cursor = new RecordCursor();
+
+  /**
+   * The offset just past the last fully decoded record, or 0 if the header has not been read yet.
+   */
+  private long offset;
+
+  /**
+   * The validated header, or null if it has not been read yet.
+   */
+  private Mps7Header header;
+
+  /**
+   * Set to stop {@link #follow(long)} after its current poll.
+   */
+  private volatile boolean stopped;
+
+  /**
+   * The file to save a {@link MetricsSnapshot} to while following, or null to skip.
+   */
+  private File snapshotFile;
+  private long saveInterval;
+
+  /**
+   * The statistics to add the bytes, records and phase timings to, and whether to export them after each poll.
+   */
+  private ParserStats stats = new ParserStats();
+  private boolean exportingStats;
+
+  /**
+   * Opens the given file to follow from the start.
+   *
+   * @param file the MPS7 file to follow
+   * @param metrics the accumulator to fold the records into
+   * @throws IOException thrown if the file cannot be opened
+   */
+  public TransactionLogFollower(File file, MetricsAccumulator metrics) throws IOException {
+    this.path = file;
+    this.file = new RandomAccessFile(file, "r");
+    this.channel = this.file.getChannel();
+    this.metrics = metrics;
+    this.buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.BIG_ENDIAN);
+  }
+
+  /**
+   * Get the offset just past the last fully decoded record.
+   *
+   * @return the checkpoint offset, or 0 if the header has not been read yet
+   */
+  public long getOffset() {
+    return offset;
+  }
+
+  /**
+   * Get the header of the file.
+   *
+   * @return the header, or null if it has not been fully written yet
+   */
+  public Mps7Header getHeader() {
+    return header;
+  }
+
+  /**
+   * Sets the offset to resume decoding from. Must be 0 or the offset of a record boundary.
+   *
+   * @param offset the checkpoint offset to resume from
+   */
+  public void setOffset(long offset) {
+    if (offset != 0 && offset < ParserHelper.HEADER_LENGTH) {
+      throw new IllegalArgumentException("The offset " + offset + " is inside the header.");
+    }
+    this.offset = offset;
+  }
+
+  /**
+   * Sets a file to save the running metrics and the checkpoint offset to while following, so a restart can resume
+   * from the last snapshot rather than the start of the file.
+   *
+   * @param snapshotFile the snapshot file, or null to skip
+   * @param saveInterval the shortest time between snapshots, in milliseconds
+   */
+  public void setSnapshotFile(File snapshotFile, long saveInterval) {
+    this.snapshotFile = snapshotFile;
+    this.saveInterval = saveInterval;
+  }
+
+  /**
+   * Sets the statistics to add the bytes, records and phase timings of each poll to. Each poll that decodes records is
+   * timed as a DECODE, and outputting its metrics and saving snapshots as a WRITE.
+   *
+   * @param stats the statistics
+   * @param exportingStats true to export the statistics after each poll that decodes records
+   */
+  public void setStats(ParserStats stats, boolean exportingStats) {
+    this.stats = stats;
+    this.exportingStats = exportingStats;
+  }
+
+  /**
+   * Saves the running metrics and the checkpoint offset to the snapshot file.
+   *
+   * @throws IOException thrown if an error occurs writing the snapshot or reading the file
+   */
+  public void saveSnapshot() throws IOException {
+    new MetricsSnapshot(offset, MetricsSnapshot.fingerprint(path, offset), metrics).save(snapshotFile);
+  }
+
+  /**
+   * Get the running metrics.
+   *
+   * @return the accumulator the records are folded into
+   */
+  public MetricsAccumulator getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Decodes every whole record appended since the last poll.
+   *
+   * @return the number of records decoded
+   * @throws IOException thrown if an error occurs reading the file, the file shrank, the header is not a supported MPS7
+   *         header, or an unknown record type is read
+   */
+  public long poll() throws IOException {
+    long size = channel.size();
+    if (size < offset) {
+      throw new IOException("The file shrank to " + size + " bytes, below the checkpoint at " + offset + " bytes.");
+    }
+
+    // Validate the header once it has been fully written, then skip it
+    if (header == null) {
+      if (size < ParserHelper.HEADER_LENGTH) {
+        return 0;
+      }
+      buffer.clear();
+      buffer.limit(ParserHelper.HEADER_LENGTH);
+      if (channel.read(buffer, 0) < ParserHelper.HEADER_LENGTH) {
+        return 0;
+      }
+      header = Mps7Header.read(buffer, 0);
+      if (offset == 0) {
+        offset = ParserHelper.HEADER_LENGTH;
+      }
+    }
+
+    long records = 0;
+    long[] counts = new long[RecordType.values().length];
+    long startOffset = offset;
+    long start = stats.startPhase();
+    while (size - offset >= ParserHelper.BASE_RECORD_LENGTH) {
+      buffer.clear();
+      int read = channel.read(buffer, offset);
+      if (read <= 0) {
+        break;
+      }
+
+      // Decode every whole record in the buffer; a partial trailing record is read again next time
+      int position = 0;
+      int limit = buffer.position();
+      while (position < limit) {
+        if (RecordType.getRecordTypeFromRecordIndicator(buffer.get(position)) == null) {
+          stats.addMalformedRecord(size - offset - position);
+          throw new IOException("Unknown record type " + buffer.get(position) + " at offset " + (offset + position)
+              + ".");
+        }
+        cursor.wrap(buffer, position);
+        if (position + cursor.getLength() > limit) {
+          break;
+        }
+
+        metrics.accept(cursor);
+        counts[cursor.getType()]++;
+        position += cursor.getLength();
+        records++;
+      }
+
+      // Stop once the only bytes left are a partial record
+      if (position == 0) {
+        break;
+      }
+      offset += position;
+    }
+
+    if (records > 0) {
+      stats.endPhase(ParserStats.Phase.DECODE, start);
+      stats.addRecords(counts);
+      stats.addBytesRead(offset - startOffset);
+    }
+    return records;
+  }
+
+  /**
+   * Polls the file until {@link #stop()} is called or the thread is interrupted, outputting the running metrics each
+   * time new records are decoded, followed by any windows the new records fell in. If a snapshot file is set, the
+   * metrics are saved at most once per save interval while there are unsaved records.
+   *
+   * @param pollInterval the time to wait between polls, in milliseconds
+   * @throws IOException thrown if an error occurs reading the file, the file shrank, the header is not a supported MPS7
+   *         header, or an unknown record type is read
+   */
+  public void follow(long pollInterval) throws IOException {
+    boolean unsaved = false;
+    long nextSave = System.currentTimeMillis() + saveInterval;
+
+    while (!stopped) {
+      if (poll() > 0) {
+        long start = stats.startPhase();
+        metrics.printMetrics();
+        if (metrics.getWindows() != null) {
+          metrics.getWindows().printUpdated();
+        }
+        System.out.println();
+        stats.endPhase(ParserStats.Phase.WRITE, start);
+        unsaved = true;
+
+        if (exportingStats) {
+          stats.export();
+        }
+      }
+
+      if (unsaved && snapshotFile != null && System.currentTimeMillis() >= nextSave) {
+        long start = stats.startPhase();
+        saveSnapshot();
+        stats.endPhase(ParserStats.Phase.WRITE, start);
+        unsaved = false;
+        nextSave = System.currentTimeMillis() + saveInterval;
+      }
+
+      try {
+        Thread.sleep(pollInterval);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Stops {@link #follow(long)} after its current poll.
+   */
+  public void stop() {
+    stopped = true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+    file.close();
+  }
+
+}
@@ -0,0 +1,275 @@
+package com.parser;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * A table of the balance of every user in a transaction log, built in the same single pass as the other metrics, so
+ * that any number of user IDs can be looked up without parsing the file again. Each balance assumes a $0.00 balance at
+ * the beginning of the record list: DEBIT records reduce it and CREDIT records increase it.
+ * <p>
+ * The balances are held in a {@link LongAmountHashMap} keyed by the unsigned INT64 user ID, so memory use grows by a
+ * fixed number of bytes per distinct user rather than by the number of records, and each balance is summed exactly.
+ */
+public class UserBalanceIndex {
+
+  private final LongAmountHashMap balances;
+
+  /**
+   * Creates an empty index.
+   */
+  public UserBalanceIndex() {
+    this.balances = new LongAmountHashMap();
+  }
+
+  /**
+   * Creates an empty index with room for the given number of users before it has to grow.
+   *
+   * @param expectedUsers the number of distinct users expected
+   */
+  public UserBalanceIndex(int expectedUsers) {
+    this.balances = new LongAmountHashMap(expectedUsers);
+  }
+
+  /**
+   * Folds a single record, given as its primitive fields, into the balance of its user. Only DEBIT and CREDIT records
+   * change a balance.
+   *
+   * @param type the record type indicator
+   * @param userId the user ID on the record, as a primitive long holding an unsigned INT64
+   * @param amount the amount on the record, or 0.0 if it has none
+   */
+  public void accept(int type, long userId, double amount) {
+    if (type == 0) {
+      balances.addTo(userId, -amount);
+    } else if (type == 1) {
+      balances.addTo(userId, amount);
+    }
+  }
+
+  /**
+   * Adds the balances of another index, such as the partial index of a different chunk of the same file, into this
+   * one.
+   *
+   * @param other the index to merge in
+   */
+  public void merge(UserBalanceIndex other) {
+    balances.addAll(other.balances);
+  }
+
+  /**
+   * Get the number of users with a DEBIT or CREDIT record.
+   *
+   * @return the number of users in the index
+   */
+  public int size() {
+    return balances.size();
+  }
+
+  /**
+   * Get the exact balance of a single user.
+   *
+   * @param userId the user ID, as a primitive long holding an unsigned INT64
+   * @return the balance of the user, or $0.00 if the user has no DEBIT or CREDIT records
+   */
+  public MoneyAccumulator getBalance(long userId) {
+    return balances.get(userId);
+  }
+
+  /**
+   * Get the balance of a single user rounded to the nearest cent.
+   *
+   * @param userId the user ID, as a primitive long holding an unsigned INT64
+   * @return the balance of the user in cents, or 0 if the user has no DEBIT or CREDIT records
+   */
+  public long getBalanceCents(long userId) {
+    return balances.getCents(userId);
+  }
+
+  /**
+   * Get the balances of many users at once, rounded to the nearest cent.
+   *
+   * @param userIds the user IDs, as primitive longs holding unsigned INT64s
+   * @return the balance of each user in cents, in the same order as the given user IDs
+   */
+  public long[] getBalancesCents(long[] userIds) {
+    long[] result = new long[userIds.length];
+    for (int i = 0; i < userIds.length; i++) {
+      result[i] = getBalanceCents(userIds[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Get the users with the highest balances. Only a heap of the given size is held while the index is scanned, so
+   * this does not copy or sort the whole index.
+   *
+   * @param count the number of users to return
+   * @return the user IDs with the highest balances, highest first; fewer if the index holds fewer users
+   */
+  public long[] topUsers(int count) {
+    if (count < 0) {
+      throw new IllegalArgumentException("The number of users must not be negative.");
+    }
+
+    // A min-heap of the best users seen so far, so the lowest of them is the one to replace
+    int capacity = Math.min(count, balances.size());
+    long[] heapIds = new long[capacity];
+    long[] heapBalances = new long[2 * capacity];
+    long[] candidate = new long[2];
+    int[] heapSize = new int[1];
+
+    balances.forEach((userId, high, low) -> {
+      candidate[0] = high;
+      candidate[1] = low;
+      if (heapSize[0] < capacity) {
+        set(heapIds, heapBalances, heapSize[0], userId, candidate);
+        siftUp(heapIds, heapBalances, heapSize[0]++);
+      } else if (capacity > 0 && MoneyAccumulator.compare(candidate, 0, heapBalances, 0) > 0) {
+        set(heapIds, heapBalances, 0, userId, candidate);
+        siftDown(heapIds, heapBalances, capacity);
+      }
+    });
+
+    // Pop the heap from the back so the highest balance ends up first
+    for (int size = capacity; size > 1; size--) {
+      swap(heapIds, heapBalances, 0, size - 1);
+      siftDown(heapIds, heapBalances, size - 1);
+    }
+
+    return heapIds;
+  }
+
+  /**
+   * Writes every balance in the index.
+   *
+   * @param out the stream to write to
+   * @throws IOException thrown if an error occurs writing the stream
+   */
+  public void writeTo(DataOutputStream out) throws IOException {
+    out.writeInt(balances.size());
+    try {
+      balances.forEach((userId, high, low) -> {
+        try {
+          out.writeLong(userId);
+          out.writeLong(high);
+          out.writeLong(low);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Reads back an index written by {@link #writeTo(DataOutputStream)}.
+   *
+   * @param in the stream to read from
+   * @return the restored index
+   * @throws IOException thrown if an error occurs reading the stream
+   */
+  public static UserBalanceIndex readFrom(DataInputStream in) throws IOException {
+    int size = in.readInt();
+    if (size < 0) {
+      throw new IOException("The balance index holds a negative number of users.");
+    }
+
+    UserBalanceIndex index = new UserBalanceIndex(size);
+    for (int i = 0; i < size; i++) {
+      long userId = in.readLong();
+      long high = in.readLong();
+      index.balances.addTo(userId, high, in.readLong());
+    }
+    return index;
+  }
+
+  /**
+   * Reads a list of user IDs from a file, one unsigned 64-bit integer per line. Blank lines are skipped.
+   *
+   * @param file the file holding the user IDs
+   * @return the user IDs, as primitive longs holding unsigned INT64s
+   * @throws IOException thrown if an error occurs reading the file
+   * @throws NumberFormatException thrown if a line is not a valid unsigned 64-bit integer
+   */
+  public static long[] readUserIds(File file) throws IOException, NumberFormatException {
+    long[] userIds = new long[1024];
+    int count = 0;
+
+    try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty()) {
+          continue;
+        }
+        if (count == userIds.length) {
+          userIds = Arrays.copyOf(userIds, count * 2);
+        }
+        userIds[count++] = Long.parseUnsignedLong(line);
+      }
+    }
+
+    return Arrays.copyOf(userIds, count);
+  }
+
+  private static void set(long[] ids, long[] values, int index, long id, long[] value) {
+    ids[index] = id;
+    values[2 * index] = value[0];
+    values[2 * index + 1] = value[1];
+  }
+
+  private static int compare(long[] values, int a, int b) {
+    return MoneyAccumulator.compare(values, 2 * a, values, 2 * b);
+  }
+
+  private static void siftUp(long[] ids, long[] values, int index) {
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      if (compare(values, parent, index) <= 0) {
+        return;
+      }
+      swap(ids, values, parent, index);
+      index = parent;
+    }
+  }
+
+  private static void siftDown(long[] ids, long[] values, int size) {
+    int index = 0;
+    while (true) {
+      int smallest = index;
+      int left = 2 * index + 1;
+      int right = left + 1;
+      if (left < size && compare(values, left, smallest) < 0) {
+        smallest = left;
+      }
+      if (right < size && compare(values, right, smallest) < 0) {
+        smallest = right;
+      }
+      if (smallest == index) {
+        return;
+      }
+      swap(ids, values, smallest, index);
+      index = smallest;
+    }
+  }
+
+  private static void swap(long[] ids, long[] values, int a, int b) {
+    long id = ids[a];
+    ids[a] = ids[b];
+    ids[b] = id;
+    for (int word = 0; word < 2; word++) {
+      long value = values[2 * a + word];
+      values[2 * a + word] = values[2 * b + word];
+      values[2 * b + word] = value;
+    }
+  }
+
+}
@@ -0,0 +1,354 @@
+package com.parser;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * Aggregates payment records into time windows by their timestamp, reporting the following for each window:
+ * <ul>
+ *    <li>Number of records
+ *    <li>Total amount in DEBITS
+ *    <li>Total amount in CREDITS
+ *    <li>Total number of autopays STARTED
+ *    <li>Total number of autopays ENDED
+ * </ul>
+ * <p>
+ * Windows are aligned to the Unix epoch. Tumbling windows are set with a slide equal to the window size, and sliding
+ * windows with a smaller slide that divides the window size, such as 1 hour windows every minute.
+ * <p>
+ * Records are never sorted or held. Each record is added to a bucket one slide wide, held in primitive arrays indexed
+ * by bucket number from the earliest bucket seen, and a window is the sum of the buckets it covers. The arrays grow in
+ * either direction as earlier or later timestamps arrive, so the records may be in any order. Amounts are summed
+ * exactly, as in {@link MoneyAccumulator}, so aggregators over any split of the same records merge into the same
+ * totals.
+ */
+public class WindowedAggregator {
+  /**
+   * The largest number of buckets the records may span.
+   */
+  private static final int MAXIMUM_BUCKETS = 1 << 22;
+
+  /**
+   * The largest number of buckets in a single window.
+   */
+  private static final int MAXIMUM_BUCKETS_PER_WINDOW = 1 << 16;
+
+  private final long windowSize;
+  private final long slide;
+  private final int bucketsPerWindow;
+
+  /**
+   * The bucket number, the timestamp divided by the slide, of the first bucket in the arrays.
+   */
+  private long firstBucket;
+  private int bucketCount;
+
+  private long[] records = new long[0];
+  private long[] debits = new long[0];
+  private long[] credits = new long[0];
+  private long[] autopaysStarted = new long[0];
+  private long[] autopaysEnded = new long[0];
+
+  /**
+   * The earliest bucket number updated since the windows were last output.
+   */
+  private long firstUpdatedBucket = Long.MAX_VALUE;
+
+  /**
+   * Creates an empty aggregator.
+   *
+   * @param windowSize the length of each window, in seconds
+   * @param slide the time between the starts of consecutive windows, in seconds; equal to the window size for tumbling
+   *          windows, or a divisor of it for sliding windows
+   */
+  public WindowedAggregator(long windowSize, long slide) {
+    if (slide < 1 || windowSize < slide) {
+      throw new IllegalArgumentException("The slide must be at least 1 second and no longer than the window.");
+    }
+    if (windowSize % slide != 0 || windowSize / slide > MAXIMUM_BUCKETS_PER_WINDOW) {
+      throw new IllegalArgumentException("The window size must be a multiple of the slide, and at most "
+          + MAXIMUM_BUCKETS_PER_WINDOW + " times it.");
+    }
+
+    this.windowSize = windowSize;
+    this.slide = slide;
+    this.bucketsPerWindow = (int) (windowSize / slide);
+  }
+
+  public long getWindowSize() {
+    return windowSize;
+  }
+
+  public long getSlide() {
+    return slide;
+  }
+
+  /**
+   * Adds a single record to the window buckets.
+   *
+   * @param timestamp the record timestamp, in Unix seconds
+   * @param type the record type indicator
+   * @param amount the amount on the record, or 0.0 if it has none
+   */
+  public void accept(long timestamp, int type, double amount) {
+    int index = claim(timestamp / slide);
+    records[index]++;
+
+    switch (type) {
+      case 0:
+        MoneyAccumulator.add(debits, 2 * index, amount);
+        break;
+      case 1:
+        MoneyAccumulator.add(credits, 2 * index, amount);
+        break;
+      case 2:
+        autopaysStarted[index]++;
+        break;
+      case 3:
+        autopaysEnded[index]++;
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Adds the buckets of another aggregator with the same window size and slide into this one.
+   *
+   * @param other the aggregator to add in
+   */
+  public void merge(WindowedAggregator other) {
+    if (!hasSameWindows(other)) {
+      throw new IllegalArgumentException("Cannot merge windows of a different size or slide.");
+    }
+
+    for (int i = 0; i < other.bucketCount; i++) {
+      if (other.records[i] != 0) {
+        int index = claim(other.firstBucket + i);
+        addBucket(index, other, i);
+      }
+    }
+  }
+
+  /**
+   * Checks whether another aggregator has the same window size and slide.
+   *
+   * @param other the aggregator to compare against, or null
+   * @return true if the windows line up
+   */
+  public boolean hasSameWindows(WindowedAggregator other) {
+    return other != null && windowSize == other.windowSize && slide == other.slide;
+  }
+
+  /**
+   * Outputs, in time order, every window holding a record that was added since the windows were last output. The
+   * first call outputs every window holding a record. Empty windows are skipped.
+   * <p>
+   * The windows are totalled with a single running sum: each step adds the bucket entering the window and subtracts
+   * the one leaving it, so the work grows with the buckets rather than the buckets times the buckets per window.
+   */
+  public void printUpdated() {
+    if (firstUpdatedBucket == Long.MAX_VALUE) {
+      return;
+    }
+
+    // A window starting at bucket b covers buckets b to b + bucketsPerWindow - 1
+    long lastBucket = firstBucket + bucketCount - 1;
+    long[] window = new long[7];
+    long start = firstUpdatedBucket - bucketsPerWindow + 1;
+    for (long bucket = start; bucket < start + bucketsPerWindow - 1; bucket++) {
+      addToWindow(window, bucket, false);
+    }
+    for (; start <= lastBucket; start++) {
+      addToWindow(window, start + bucketsPerWindow - 1, false);
+      if (window[0] != 0) {
+        long startTime = start * slide;
+        System.out.println("Window " + Instant.ofEpochSecond(startTime) + " to "
+            + Instant.ofEpochSecond(startTime + windowSize) + " : RECORDS " + window[0]
+            + ", DEBITS " + ParserHelper.formatCents(MoneyAccumulator.toCents(window, 3))
+            + ", CREDITS " + ParserHelper.formatCents(MoneyAccumulator.toCents(window, 5))
+            + ", STARTED " + window[1] + ", ENDED " + window[2]);
+      }
+      addToWindow(window, start, true);
+    }
+
+    firstUpdatedBucket = Long.MAX_VALUE;
+  }
+
+  /**
+   * Adds a bucket to, or subtracts it from, the running window totals. Buckets outside the arrays hold nothing.
+   *
+   * @param window the record count, the autopay STARTED and ENDED counts, then the fixed-point DEBIT and CREDIT words
+   * @param bucket the bucket number
+   * @param subtract true to take the bucket out of the window, or false to add it in
+   */
+  private void addToWindow(long[] window, long bucket, boolean subtract) {
+    long offset = bucket - firstBucket;
+    if (offset < 0 || offset >= bucketCount || records[(int) offset] == 0) {
+      return;
+    }
+
+    int i = (int) offset;
+    if (subtract) {
+      window[0] -= records[i];
+      window[1] -= autopaysStarted[i];
+      window[2] -= autopaysEnded[i];
+      MoneyAccumulator.subtract(window, 3, debits[2 * i], debits[2 * i + 1]);
+      MoneyAccumulator.subtract(window, 5, credits[2 * i], credits[2 * i + 1]);
+    } else {
+      window[0] += records[i];
+      window[1] += autopaysStarted[i];
+      window[2] += autopaysEnded[i];
+      MoneyAccumulator.add(window, 3, debits[2 * i], debits[2 * i + 1]);
+      MoneyAccumulator.add(window, 5, credits[2 * i], credits[2 * i + 1]);
+    }
+  }
+
+  /**
+   * Writes every non-empty bucket.
+   *
+   * @param out the stream to write to
+   * @throws IOException thrown if an error occurs writing the stream
+   */
+  public void writeTo(DataOutputStream out) throws IOException {
+    out.writeLong(windowSize);
+    out.writeLong(slide);
+
+    int used = 0;
+    for (int i = 0; i < bucketCount; i++) {
+      if (records[i] != 0) {
+        used++;
+      }
+    }
+
+    out.writeInt(used);
+    for (int i = 0; i < bucketCount; i++) {
+      if (records[i] != 0) {
+        out.writeLong(firstBucket + i);
+        out.writeLong(records[i]);
+        out.writeLong(debits[2 * i]);
+        out.writeLong(debits[2 * i + 1]);
+        out.writeLong(credits[2 * i]);
+        out.writeLong(credits[2 * i + 1]);
+        out.writeLong(autopaysStarted[i]);
+        out.writeLong(autopaysEnded[i]);
+      }
+    }
+  }
+
+  /**
+   * Reads back an aggregator written by {@link #writeTo(DataOutputStream)}.
+   *
+   * @param in the stream to read from
+   * @return the restored aggregator
+   * @throws IOException thrown if an error occurs reading the stream
+   */
+  public static WindowedAggregator readFrom(DataInputStream in) throws IOException {
+    WindowedAggregator aggregator;
+    try {
+      long windowSize = in.readLong();
+      aggregator = new WindowedAggregator(windowSize, in.readLong());
+    } catch (IllegalArgumentException e) {
+      throw new IOException("The stored windows are not valid.", e);
+    }
+
+    int used = in.readInt();
+    for (int i = 0; i < used; i++) {
+      int index = aggregator.claim(in.readLong());
+      aggregator.records[index] += in.readLong();
+      long high = in.readLong();
+      MoneyAccumulator.add(aggregator.debits, 2 * index, high, in.readLong());
+      high = in.readLong();
+      MoneyAccumulator.add(aggregator.credits, 2 * index, high, in.readLong());
+      aggregator.autopaysStarted[index] += in.readLong();
+      aggregator.autopaysEnded[index] += in.readLong();
+    }
+    return aggregator;
+  }
+
+  /**
+   * Adds a bucket of another aggregator into a bucket of this one.
+   */
+  private void addBucket(int index, WindowedAggregator other, int otherIndex) {
+    records[index] += other.records[otherIndex];
+    MoneyAccumulator.add(debits, 2 * index, other.debits[2 * otherIndex], other.debits[2 * otherIndex + 1]);
+    MoneyAccumulator.add(credits, 2 * index, other.credits[2 * otherIndex], other.credits[2 * otherIndex + 1]);
+    autopaysStarted[index] += other.autopaysStarted[otherIndex];
+    autopaysEnded[index] += other.autopaysEnded[otherIndex];
+  }
+
+  /**
+   * Makes sure the arrays hold the given bucket, growing them at either end if needed, and marks it as updated.
+   *
+   * @param bucket the bucket number
+   * @return the index of the bucket in the arrays
+   */
+  private int claim(long bucket) {
+    if (bucketCount == 0) {
+      firstBucket = bucket;
+      bucketCount = 1;
+      ensureCapacity(1, 0);
+    } else if (bucket < firstBucket) {
+      int count = checkSpan(firstBucket - bucket + bucketCount);
+      ensureCapacity(count, count - bucketCount);
+      firstBucket = bucket;
+      bucketCount = count;
+    } else if (bucket - firstBucket >= bucketCount) {
+      bucketCount = checkSpan(bucket - firstBucket + 1);
+      ensureCapacity(bucketCount, 0);
+    }
+
+    firstUpdatedBucket = Math.min(firstUpdatedBucket, bucket);
+    return (int) (bucket - firstBucket);
+  }
+
+  /**
+   * Checks the records do not span more buckets than can be held.
+   *
+   * @param span the number of buckets spanned
+   * @return the span
+   */
+  private int checkSpan(long span) {
+    if (span > MAXIMUM_BUCKETS) {
+      throw new IllegalStateException("The records span more than " + MAXIMUM_BUCKETS + " slides of " + slide
+          + " seconds; use a longer slide.");
+    }
+    return (int) span;
+  }
+
+  /**
+   * Grows the arrays to hold at least the given number of buckets, doubling their length to keep growth amortized,
+   * and moves the existing buckets up by the given number of slots.
+   *
+   * @param capacity the number of buckets needed
+   * @param shift the number of empty buckets to insert at the start
+   */
+  private void ensureCapacity(int capacity, int shift) {
+    if (capacity <= records.length && shift == 0) {
+      return;
+    }
+
+    int length = records.length;
+    if (capacity > length) {
+      length = (int) Math.min(MAXIMUM_BUCKETS, Math.max(capacity, 2L * length));
+    }
+    records = grow(records, length, shift, 1);
+    debits = grow(debits, length, shift, 2);
+    credits = grow(credits, length, shift, 2);
+    autopaysStarted = grow(autopaysStarted, length, shift, 1);
+    autopaysEnded = grow(autopaysEnded, length, shift, 1);
+  }
+
+  private static long[] grow(long[] array, int length, int shift, int width) {
+    long[] grown = array.length == length * width ? array : new long[length * width];
+    System.arraycopy(array, 0, grown, shift * width, Math.min(array.length, grown.length - shift * width));
+    if (grown == array) {
+      Arrays.fill(grown, 0, shift * width, 0);
+    }
+    return grown;
+  }
+
+}
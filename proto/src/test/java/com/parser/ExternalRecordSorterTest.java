@@ -0,0 +1,118 @@
+package com.parser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks {@link ExternalRecordSorter} against a stable in-memory sort of the same records, with runs small enough to
+ * need one or more merge passes over more than {@link ExternalRecordSorter#MERGE_FAN_IN} runs.
+ */
+public class ExternalRecordSorterTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File runDirectory;
+  private File output;
+
+  @Before
+  public void setUp() throws IOException {
+    runDirectory = folder.newFolder("runs");
+    output = new File(folder.getRoot(), "sorted.dat");
+  }
+
+  @Test
+  public void sortsInASingleRun() throws IOException {
+    List<File> inputs = Arrays.asList(newRandomFile(5000, 1000, 1), newRandomFile(3000, 1000, 2));
+    assertSorted(inputs, new ExternalRecordSorter(1 << 20, 1, runDirectory));
+  }
+
+  @Test
+  public void mergesMoreRunsThanTheFanIn() throws IOException {
+    // 150 runs of 10 records take a merge pass into 3 longer runs before the final merge
+    List<File> inputs = Arrays.asList(newRandomFile(700, 50, 3), newRandomFile(500, 50, 4), newRandomFile(300, 50, 5));
+    assertSorted(inputs, new ExternalRecordSorter(10, 1, runDirectory));
+  }
+
+  @Test
+  public void mergesInSeveralPasses() throws IOException {
+    // 4993 runs of 1 record take two merge passes, and the last group of the first pass is a single run
+    List<File> inputs = Arrays.asList(newRandomFile(4993, 20, 6));
+    assertSorted(inputs, new ExternalRecordSorter(1, 1, runDirectory));
+  }
+
+  @Test
+  public void sortsRunsOnSeveralThreads() throws IOException {
+    int records = TimestampOrder.PARALLEL_THRESHOLD + 1000;
+    List<File> inputs = Arrays.asList(newRandomFile(records, 100000, 7), newRandomFile(1000, 100000, 8));
+    assertSorted(inputs, new ExternalRecordSorter(records, 4, runDirectory));
+  }
+
+  @Test
+  public void sortsTheRecordsReadFromAShortFile() throws IOException {
+    File full = newRandomFile(400, 30, 9);
+    File truncated = folder.newFile();
+    Mps7TestFiles.writeRandom(truncated, 300, 500, 30, 10);
+
+    List<File> inputs = Arrays.asList(full, truncated);
+    assertSorted(inputs, new ExternalRecordSorter(64, 1, runDirectory));
+  }
+
+  @Test
+  public void replacesAnInput() throws IOException {
+    File input = newRandomFile(1000, 100, 11);
+    List<long[]> expected = sortStably(Arrays.asList(input));
+
+    long records = new ExternalRecordSorter(100, 1, runDirectory).sort(Arrays.asList(input), input);
+
+    assertEquals(expected.size(), records);
+    assertRecordsEqual(expected, Mps7TestFiles.readAll(input));
+    assertEquals(0, runDirectory.list().length);
+  }
+
+  private File newRandomFile(int records, int timestamps, long seed) throws IOException {
+    File file = folder.newFile();
+    Mps7TestFiles.writeRandom(file, records, timestamps, seed);
+    return file;
+  }
+
+  private void assertSorted(List<File> inputs, ExternalRecordSorter sorter) throws IOException {
+    List<long[]> expected = sortStably(inputs);
+
+    long records = sorter.sort(inputs, output);
+
+    assertEquals(expected.size(), records);
+    assertRecordsEqual(expected, Mps7TestFiles.readAll(output));
+    assertEquals("The runs are deleted once merged", 0, runDirectory.list().length);
+  }
+
+  private static List<long[]> sortStably(List<File> inputs) throws IOException {
+    List<long[]> records = new ArrayList<>();
+    for (File input : inputs) {
+      records.addAll(Mps7TestFiles.readAll(input));
+    }
+    // List.sort is stable, so records with the same timestamp keep their input order
+    records.sort(Comparator.comparingLong(record -> record[1]));
+    return records;
+  }
+
+  private static void assertRecordsEqual(List<long[]> expected, List<long[]> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertArrayEquals("record " + i, expected.get(i), actual.get(i));
+    }
+  }
+
+}
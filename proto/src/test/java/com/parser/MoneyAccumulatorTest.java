@@ -0,0 +1,138 @@
+package com.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+/**
+ * Checks the 128-bit fixed-point arithmetic of {@link MoneyAccumulator}: the carry between the words, negative
+ * amounts, subtraction and rounding to cents.
+ */
+public class MoneyAccumulatorTest {
+
+  @Test
+  public void carriesFractionOverflowIntoHighWord() {
+    MoneyAccumulator total = new MoneyAccumulator();
+    total.add(0.75);
+    total.add(0.5);
+
+    assertEquals(1, total.getHigh());
+    assertEquals(1L << 62, total.getLow());
+    assertDollars("1.25", total);
+  }
+
+  @Test
+  public void carriesWhenLowWordWrapsToZero() {
+    MoneyAccumulator total = new MoneyAccumulator(0, 1L << 63);
+    total.add(0.5);
+
+    assertEquals(new MoneyAccumulator(1, 0), total);
+  }
+
+  @Test
+  public void holdsNegativeAmountsWithFloorHighWord() {
+    MoneyAccumulator fraction = new MoneyAccumulator();
+    fraction.add(-0.25);
+    assertEquals(-1, fraction.getHigh());
+    assertEquals(3L << 62, fraction.getLow());
+    assertDollars("-0.25", fraction);
+
+    // A whole amount has a zero low word, so negating it must not borrow from the high word
+    MoneyAccumulator whole = new MoneyAccumulator();
+    whole.add(-2.0);
+    assertEquals(new MoneyAccumulator(-2, 0), whole);
+  }
+
+  @Test
+  public void cancelsToExactlyZero() {
+    MoneyAccumulator total = new MoneyAccumulator();
+    total.add(1.1);
+    total.add(-1.1);
+
+    assertEquals(new MoneyAccumulator(), total);
+    assertEquals(0, total.toCents());
+  }
+
+  @Test
+  public void subtractsFixedPointValues() {
+    long[] words = new long[4];
+    MoneyAccumulator.add(words, 2, 3.5);
+
+    MoneyAccumulator.subtract(words, 2, 1, 3L << 62);
+    assertDollars("1.75", new MoneyAccumulator(words[2], words[3]));
+
+    MoneyAccumulator.subtract(words, 2, 2, 0);
+    assertDollars("-0.25", new MoneyAccumulator(words[2], words[3]));
+
+    // Subtracting a negative value adds its magnitude
+    MoneyAccumulator.subtract(words, 2, -1, 3L << 62);
+    assertEquals(0, words[2]);
+    assertEquals(0, words[3]);
+    assertEquals(0, words[0]);
+    assertEquals(0, words[1]);
+  }
+
+  @Test
+  public void sumIsExactAndIndependentOfOrder() {
+    SplittableRandom random = new SplittableRandom(7);
+    double[] amounts = new double[100000];
+    BigDecimal expected = BigDecimal.ZERO;
+    for (int i = 0; i < amounts.length; i++) {
+      amounts[i] = (random.nextBoolean() ? 1 : -1) * (0.01 + random.nextDouble() * 10000);
+      expected = expected.add(new BigDecimal(amounts[i]));
+    }
+
+    MoneyAccumulator forward = new MoneyAccumulator();
+    for (double amount : amounts) {
+      forward.add(amount);
+    }
+    MoneyAccumulator backward = new MoneyAccumulator();
+    for (int i = amounts.length - 1; i >= 0; i--) {
+      backward.add(amounts[i]);
+    }
+
+    assertEquals(forward, backward);
+    assertEquals(0, expected.compareTo(forward.toBigDecimal()));
+  }
+
+  @Test
+  public void roundsHalfCentsUp() {
+    MoneyAccumulator positive = new MoneyAccumulator();
+    positive.add(0.125);
+    assertEquals(13, positive.toCents());
+
+    MoneyAccumulator negative = new MoneyAccumulator();
+    negative.add(-0.125);
+    assertEquals(-12, negative.toCents());
+  }
+
+  @Test
+  public void comparesExactly() {
+    long[] words = new long[4];
+    MoneyAccumulator.add(words, 0, -0.5);
+    MoneyAccumulator.add(words, 2, 0.25);
+
+    assertTrue(MoneyAccumulator.compare(words, 0, words, 2) < 0);
+    assertTrue(MoneyAccumulator.compare(words, 2, words, 0) > 0);
+    assertEquals(0, MoneyAccumulator.compare(words, 2, words, 2));
+  }
+
+  @Test(expected = ArithmeticException.class)
+  public void rejectsNaN() {
+    new MoneyAccumulator().add(Double.NaN);
+  }
+
+  @Test(expected = ArithmeticException.class)
+  public void rejectsAmountsTooLargeToSum() {
+    new MoneyAccumulator().add(1e30);
+  }
+
+  private static void assertDollars(String expected, MoneyAccumulator actual) {
+    assertEquals(expected, actual.toBigDecimal().stripTrailingZeros().toPlainString());
+  }
+
+}
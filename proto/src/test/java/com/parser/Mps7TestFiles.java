@@ -0,0 +1,73 @@
+package com.parser;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import com.parser.ParserHelper.RecordType;
+
+/**
+ * Writes and reads back MPS7 files for the tests.
+ */
+final class Mps7TestFiles {
+
+  private Mps7TestFiles() {
+  }
+
+  /**
+   * Writes an MPS7 file of random records of every type.
+   *
+   * @param file the file to write
+   * @param records the number of records to write
+   * @param declared the record count to put in the header
+   * @param timestamps the number of distinct timestamps to draw from, so a small number repeats them
+   * @param seed the random seed
+   * @throws IOException thrown if an error occurs writing the file
+   */
+  static void writeRandom(File file, int records, long declared, int timestamps, long seed) throws IOException {
+    SplittableRandom random = new SplittableRandom(seed);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      new Mps7Header(Mps7Header.VERSION_1, declared).write(out);
+      for (int i = 0; i < records; i++) {
+        int type = random.nextInt(4);
+        out.writeByte(type);
+        // Start below 2^31 so some timestamps need the sign bit, to catch signed comparisons
+        out.writeInt(0x7fffff00 + random.nextInt(timestamps));
+        out.writeLong(random.nextLong());
+        if (RecordType.getRecordTypeFromRecordIndicator(type).isHasAmount()) {
+          out.writeDouble(random.nextDouble() * 1000);
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes an MPS7 file of random records of every type, with a header declaring all of them.
+   */
+  static void writeRandom(File file, int records, int timestamps, long seed) throws IOException {
+    writeRandom(file, records, records, timestamps, seed);
+  }
+
+  /**
+   * Reads the records the header of an MPS7 file declares, each as its type, timestamp, user ID and amount bits.
+   *
+   * @param file the file to read
+   * @return the records, in file order
+   * @throws IOException thrown if an error occurs reading the file
+   */
+  static List<long[]> readAll(File file) throws IOException {
+    RecordColumns columns = RecordColumns.read(file);
+    List<long[]> records = new ArrayList<>(columns.size());
+    for (int i = 0; i < columns.size(); i++) {
+      records.add(new long[] { columns.getType(i), columns.getTimestamp(i), columns.getUserId(i),
+          Double.doubleToRawLongBits(columns.getAmount(i)) });
+    }
+    return records;
+  }
+
+}
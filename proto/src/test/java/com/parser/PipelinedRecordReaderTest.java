@@ -0,0 +1,165 @@
+package com.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that a {@link PipelinedRecordReader} decodes exactly what a {@link MappedRecordReader} does, with buffers
+ * small enough that records and the header run across buffer edges, and after seeking.
+ */
+public class PipelinedRecordReaderTest {
+
+  /**
+   * Buffer sizes and counts: the smallest buffer, sizes that split records at every offset, and a larger ring.
+   */
+  private static final int[][] BUFFERS = { { 32, 2 }, { 33, 3 }, { 53, 2 }, { 1000, 4 }, { 4096, 2 } };
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @After
+  public void checkReaderThreadsStopped() throws InterruptedException {
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().equals("mps7-reader")) {
+        thread.join(1000);
+        assertFalse("The reader thread is stopped on close", thread.isAlive());
+      }
+    }
+  }
+
+  @Test
+  public void decodesRecordsAcrossBufferEdges() throws IOException {
+    File file = folder.newFile();
+    Mps7TestFiles.writeRandom(file, 2000, 1000, 1);
+
+    for (int[] buffers : BUFFERS) {
+      assertSameRecords(file, buffers[0], buffers[1], -1);
+    }
+  }
+
+  @Test
+  public void stopsAtPartialTrailingRecord() throws IOException {
+    File file = folder.newFile();
+    Mps7TestFiles.writeRandom(file, 500, 1000, 2);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(raf.length() - 5);
+    }
+
+    for (int[] buffers : BUFFERS) {
+      assertSameRecords(file, buffers[0], buffers[1], -1);
+    }
+  }
+
+  @Test
+  public void stopsAtDeclaredRecordCount() throws IOException {
+    File file = folder.newFile();
+    Mps7TestFiles.writeRandom(file, 500, 400, 1000, 3);
+
+    for (int[] buffers : BUFFERS) {
+      assertSameRecords(file, buffers[0], buffers[1], -1);
+    }
+  }
+
+  @Test
+  public void restartsReadingAfterSeek() throws IOException {
+    File file = folder.newFile();
+    Mps7TestFiles.writeRandom(file, 2000, 1000, 4);
+
+    for (int[] buffers : BUFFERS) {
+      assertSameRecords(file, buffers[0], buffers[1], 37);
+      assertSameRecords(file, buffers[0], buffers[1], 1999);
+    }
+  }
+
+  @Test
+  public void readsNoHeaderFromShortFile() throws IOException {
+    File file = folder.newFile();
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.write(new byte[] { 'M', 'P', 'S', '7' });
+    }
+
+    try (PipelinedRecordReader reader = new PipelinedRecordReader(file, 32, 2)) {
+      assertNull(reader.readHeader());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsBufferSmallerThanCarry() throws IOException {
+    new PipelinedRecordReader(folder.newFile(), 31, 2).close();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsSingleBuffer() throws IOException {
+    new PipelinedRecordReader(folder.newFile(), 4096, 1).close();
+  }
+
+  /**
+   * Reads the file with both readers side by side, comparing every record and position.
+   *
+   * @param seekAfter the number of records after which both readers seek back to the record half way there,
+   *          restarting the pipelined reader's thread, or -1 to read straight through
+   */
+  private static void assertSameRecords(File file, int bufferSize, int bufferCount, int seekAfter)
+      throws IOException {
+    String buffers = bufferSize + "x" + bufferCount + " : ";
+    try (MappedRecordReader mapped = new MappedRecordReader(file);
+        PipelinedRecordReader pipelined = new PipelinedRecordReader(file, bufferSize, bufferCount)) {
+      Mps7Header expectedHeader = mapped.readHeader();
+      Mps7Header header = pipelined.readHeader();
+      assertNotNull(header);
+      assertEquals(buffers + "header", expectedHeader.getRecordCount(), header.getRecordCount());
+      assertEquals(buffers + "position after header", mapped.getPosition(), pipelined.getPosition());
+
+      RecordCursor expected = new RecordCursor();
+      RecordCursor actual = new RecordCursor();
+      long records = 0;
+      long rewindPosition = 0;
+      long rewindRecords = 0;
+      while (true) {
+        boolean more = mapped.next(expected);
+        assertEquals(buffers + "record " + records + " read", more, pipelined.next(actual));
+        if (!more) {
+          break;
+        }
+
+        String at = buffers + "record " + records;
+        assertEquals(at, expected.getType(), actual.getType());
+        assertEquals(at, expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(at, expected.getUserId(), actual.getUserId());
+        assertEquals(at, Double.doubleToRawLongBits(expected.getAmount()),
+            Double.doubleToRawLongBits(actual.getAmount()));
+        assertEquals(at, mapped.getPosition(), pipelined.getPosition());
+
+        records++;
+        if (records == seekAfter / 2) {
+          rewindPosition = mapped.getPosition();
+          rewindRecords = records;
+        }
+        if (records == seekAfter) {
+          // Go back over records the reader thread has already handed over, so stale buffers would show
+          long left = expectedHeader.getRecordCount() - rewindRecords;
+          mapped.seek(rewindPosition);
+          pipelined.seek(rewindPosition);
+          mapped.setRecordLimit(left);
+          pipelined.setRecordLimit(left);
+          assertEquals(buffers + "position after seek", rewindPosition, pipelined.getPosition());
+        }
+      }
+
+      assertEquals(buffers + "end", mapped.getPosition(), pipelined.getPosition());
+      assertEquals(buffers + "records read", mapped.getRecordsRead(), pipelined.getRecordsRead());
+    }
+  }
+
+}
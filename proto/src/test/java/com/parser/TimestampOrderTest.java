@@ -0,0 +1,106 @@
+package com.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link TimestampOrder} against a stable comparison sort of the unsigned timestamps, on the calling thread and
+ * on several threads.
+ */
+public class TimestampOrderTest {
+
+  private static final int PARALLEL_SIZE = TimestampOrder.PARALLEL_THRESHOLD * 2 + 3;
+
+  @Test
+  public void sortsSmallInputs() {
+    for (int size : new int[] { 0, 1, 5, 1000 }) {
+      assertStableOrder(randomTimestamps(size, new Random(size)), size, 1);
+    }
+  }
+
+  @Test
+  public void sortsUnsignedTimestampsSequentially() {
+    int[] timestamps = randomTimestamps(PARALLEL_SIZE, new Random(1));
+    assertStableOrder(timestamps, PARALLEL_SIZE, 1);
+  }
+
+  @Test
+  public void sortsUnsignedTimestampsInParallel() {
+    int[] timestamps = randomTimestamps(PARALLEL_SIZE, new Random(2));
+    assertStableOrder(timestamps, PARALLEL_SIZE, 4);
+  }
+
+  @Test
+  public void keepsEqualTimestampsInOrderInParallel() {
+    // A narrow range repeats every timestamp many times, and leaves the upper bytes in a single bucket
+    Random random = new Random(3);
+    int[] timestamps = new int[PARALLEL_SIZE];
+    for (int i = 0; i < timestamps.length; i++) {
+      timestamps[i] = 1388534400 + random.nextInt(100000);
+    }
+    assertStableOrder(timestamps, PARALLEL_SIZE, 4);
+  }
+
+  @Test
+  public void keepsIdenticalTimestampsInOrderInParallel() {
+    int[] timestamps = new int[PARALLEL_SIZE];
+    Arrays.fill(timestamps, 7);
+    assertStableOrder(timestamps, PARALLEL_SIZE, 3);
+  }
+
+  @Test
+  public void sortsOnlyTheGivenSize() {
+    int[] timestamps = { 5, 3, 1, 0 };
+    TimestampOrder order = TimestampOrder.sort(timestamps, 3);
+
+    assertEquals(3, order.size());
+    assertEquals(2, order.getIndex(0));
+    assertEquals(1, order.getIndex(1));
+    assertEquals(0, order.getIndex(2));
+    assertEquals(5, order.getTimestamp(2));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsSizeLargerThanArray() {
+    TimestampOrder.sort(new int[2], 3);
+  }
+
+  private static int[] randomTimestamps(int size, Random random) {
+    int[] timestamps = new int[size];
+    for (int i = 0; i < size; i++) {
+      timestamps[i] = random.nextInt();
+    }
+    return timestamps;
+  }
+
+  private static void assertStableOrder(int[] timestamps, int size, int parallelism) {
+    Integer[] expected = new Integer[size];
+    for (int i = 0; i < size; i++) {
+      expected[i] = i;
+    }
+    // Arrays.sort on objects is stable
+    Arrays.sort(expected, (a, b) -> Integer.compareUnsigned(timestamps[a], timestamps[b]));
+
+    TimestampOrder order = TimestampOrder.sort(timestamps, size, parallelism);
+    assertEquals(size, order.size());
+    for (int i = 0; i < size; i++) {
+      assertEquals("index at " + i, expected[i].intValue(), order.getIndex(i));
+      assertEquals("timestamp at " + i, timestamps[expected[i]] & 0xffffffffL, order.getTimestamp(i));
+    }
+
+    TimestampOrder.Cursor cursor = order.cursor();
+    for (int i = 0; i < size; i++) {
+      assertTrue(cursor.next());
+      assertEquals(expected[i].intValue(), cursor.getIndex());
+      assertEquals(timestamps[expected[i]] & 0xffffffffL, cursor.getTimestamp());
+    }
+    assertFalse(cursor.next());
+  }
+
+}
@@ -0,0 +1,436 @@
+package com.parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A small CSV tokenizer for the known zips.csv, plans.csv and slcsp.csv schemas, used in place of reflective bean
+ * mapping. Rows are read straight from bytes, columns are bound to positions by their header name once, and fields are
+ * only turned into values when asked for:
+ * <ul>
+ * <li><b>Numbers : </b>parsed from the bytes into primitives, with no String or boxed value in between
+ * <li><b>Codes : </b>two letter codes such as states are looked up in a cache, so each is only created once
+ * <li><b>Raw fields : </b>can be copied to an output stream exactly as they were read
+ * </ul>
+ *
+ * Quoted fields, with doubled quotes and separators or line breaks inside them, and both \n and \r\n line endings are
+ * supported.
+ *
+ */
+public class CsvTokenizer implements Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Powers of ten that are exact as doubles.
+	 */
+	private static final double[] POWERS_OF_TEN = new double[23];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	private final InputStream in;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int bufferPosition;
+	private int bufferLimit;
+
+	/**
+	 * The raw bytes of the current row, without its line ending.
+	 */
+	private byte[] row = new byte[256];
+	private int rowLength;
+
+	private int[] fieldStarts = new int[8];
+	private int[] fieldEnds = new int[8];
+	private boolean[] fieldQuoted = new boolean[8];
+	private int fieldCount;
+
+	private long lineNumber;
+
+	/**
+	 * Two letter codes by their packed letters.
+	 */
+	private final String[] codes = new String[1 << 14];
+
+	public CsvTokenizer(InputStream in) {
+		this(in, 0);
+	}
+
+	/**
+	 * Creates a tokenizer over part of a file, so that line numbers count from the start of the file.
+	 *
+	 * @param in the stream to read, starting at the start of a row
+	 * @param linesBefore the number of lines in the file before the stream
+	 */
+	public CsvTokenizer(InputStream in, long linesBefore) {
+		this.in = in;
+		this.lineNumber = linesBefore;
+	}
+
+	/**
+	 * Reads the header row and finds the position of each of the given columns.
+	 *
+	 * @param names the column names to find
+	 * @return the position of each column, in the same order as the names
+	 * @throws IOException thrown when something goes wrong reading the stream
+	 * @throws IllegalArgumentException thrown when the header row is missing or lacks one of the columns
+	 */
+	public int[] bindColumns(String... names) throws IOException {
+		if (!next()) {
+			throw new IllegalArgumentException("The file is empty; it must have a header row.");
+		}
+
+		int[] columns = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			columns[i] = findColumn(names[i]);
+			if (columns[i] < 0) {
+				throw new IllegalArgumentException("The header row does not contain '" + names[i] + "'.");
+			}
+		}
+		return columns;
+	}
+
+	/**
+	 * Finds the position of a column in the current row, when it is the header row.
+	 *
+	 * @param name the column name to find
+	 * @return the position of the first field holding the name in any case, or -1 if there is none
+	 */
+	public int findColumn(String name) {
+		for (int c = 0; c < fieldCount; c++) {
+			if (getString(c).equalsIgnoreCase(name)) {
+				return c;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads the next row.
+	 *
+	 * @return true if a row was read, or false at the end of the stream
+	 * @throws IOException thrown when something goes wrong reading the stream, or a quoted field is never closed
+	 */
+	public boolean next() throws IOException {
+		int b = read();
+		if (b == -1) {
+			return false;
+		}
+
+		rowLength = 0;
+		fieldCount = 0;
+		lineNumber++;
+		int fieldStart = 0;
+		boolean quoted = false;
+		boolean inQuotes = false;
+
+		while (true) {
+			if (inQuotes) {
+				if (b == -1) {
+					throw new IOException("Line " + lineNumber + " has a quoted value that is never closed.");
+				}
+				append(b);
+				if (b == '"') {
+					// A doubled quote is an escaped quote; anything else closes the quoted value
+					b = read();
+					if (b == '"') {
+						append(b);
+						b = read();
+					} else {
+						inQuotes = false;
+					}
+					continue;
+				}
+				if (b == '\n') {
+					lineNumber++;
+				}
+			} else if (b == -1 || b == '\n') {
+				// Drop the \r of a \r\n line ending
+				if (b == '\n' && rowLength > fieldStart && row[rowLength - 1] == '\r') {
+					rowLength--;
+				}
+				addField(fieldStart, rowLength, quoted);
+				return true;
+			} else if (b == ',') {
+				addField(fieldStart, rowLength, quoted);
+				append(b);
+				fieldStart = rowLength;
+				quoted = false;
+			} else {
+				if (b == '"' && rowLength == fieldStart) {
+					quoted = true;
+					inQuotes = true;
+				}
+				append(b);
+			}
+			b = read();
+		}
+	}
+
+	/**
+	 * Get the number of fields in the current row.
+	 *
+	 * @return the number of fields
+	 */
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	/**
+	 * Get the line the current row started on, counting from 1 for the header row.
+	 *
+	 * @return the line number
+	 */
+	public long getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * Checks whether a field of the current row is empty or missing.
+	 *
+	 * @param column the position of the field
+	 * @return true if the field has no value
+	 */
+	public boolean isEmpty(int column) {
+		return column >= fieldCount || fieldEnds[column] - fieldStarts[column] <= (fieldQuoted[column] ? 2 : 0);
+	}
+
+	/**
+	 * Get a field of the current row as a String.
+	 *
+	 * @param column the position of the field
+	 * @return the value of the field, without its quotes, or an empty String if the row is too short
+	 */
+	public String getString(int column) {
+		if (column >= fieldCount) {
+			return "";
+		}
+
+		int start = fieldStarts[column];
+		int end = fieldEnds[column];
+		if (!fieldQuoted[column]) {
+			return new String(row, start, end - start, StandardCharsets.UTF_8);
+		}
+
+		// Strip the outer quotes and undouble the inner ones
+		byte[] value = new byte[end - start];
+		int length = 0;
+		for (int i = start + 1; i < end; i++) {
+			if (row[i] == '"') {
+				i++;
+				if (i >= end || row[i] != '"') {
+					// Anything after the closing quote is kept as it is
+					for (; i < end; i++) {
+						value[length++] = row[i];
+					}
+					break;
+				}
+			}
+			value[length++] = row[i];
+		}
+		return new String(value, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Get a two letter field of the current row, such as a state, as a cached String.
+	 *
+	 * @param column the position of the field
+	 * @return the value of the field, the same instance for every row with the same value
+	 */
+	public String getCode(int column) {
+		if (column < fieldCount && !fieldQuoted[column] && fieldEnds[column] - fieldStarts[column] == 2) {
+			int first = row[fieldStarts[column]];
+			int second = row[fieldStarts[column] + 1];
+			if (first > 0 && second > 0) {
+				int key = first << 7 | second;
+				String code = codes[key];
+				if (code == null) {
+					code = getString(column);
+					codes[key] = code;
+				}
+				return code;
+			}
+		}
+		return getString(column);
+	}
+
+	/**
+	 * Checks whether a field of the current row equals the given value, ignoring case.
+	 *
+	 * @param column the position of the field
+	 * @param value the ASCII value to compare with
+	 * @return true if the field holds the value
+	 */
+	public boolean equalsIgnoreCase(int column, String value) {
+		if (column >= fieldCount || fieldQuoted[column]) {
+			return getString(column).equalsIgnoreCase(value);
+		}
+
+		int start = fieldStarts[column];
+		if (fieldEnds[column] - start != value.length()) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			if (Character.toLowerCase((char) row[start + i]) != Character.toLowerCase(value.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get a field of the current row made up of exactly the given number of digits, such as a zip code, as an int.
+	 *
+	 * @param column the position of the field
+	 * @param length the number of digits
+	 * @return the value of the field, or -1 if it is not exactly that many digits
+	 */
+	public int getFixedDigits(int column, int length) {
+		if (column >= fieldCount || fieldQuoted[column] || fieldEnds[column] - fieldStarts[column] != length) {
+			return -1;
+		}
+
+		int value = 0;
+		for (int i = fieldStarts[column]; i < fieldEnds[column]; i++) {
+			int digit = row[i] - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Get a field of the current row as an int.
+	 *
+	 * @param column the position of the field
+	 * @return the value of the field
+	 * @throws NumberFormatException thrown when the field is not a whole number
+	 */
+	public int getInt(int column) {
+		if (column >= fieldCount || fieldQuoted[column]) {
+			return Integer.parseInt(getString(column).trim());
+		}
+
+		int start = fieldStarts[column];
+		int end = fieldEnds[column];
+		boolean negative = start < end && row[start] == '-';
+		int i = negative ? start + 1 : start;
+		if (i == end || end - i > 9) {
+			return Integer.parseInt(getString(column).trim());
+		}
+
+		int value = 0;
+		for (; i < end; i++) {
+			int digit = row[i] - '0';
+			if (digit < 0 || digit > 9) {
+				return Integer.parseInt(getString(column).trim());
+			}
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Get a field of the current row as a double. Plain decimals such as 245.2 are parsed straight from the bytes, and
+	 * give the same value as {@link Double#parseDouble(String)}; anything else falls back to it.
+	 *
+	 * @param column the position of the field
+	 * @return the value of the field
+	 * @throws NumberFormatException thrown when the field is not a number
+	 */
+	public double getDouble(int column) {
+		if (column >= fieldCount || fieldQuoted[column]) {
+			return Double.parseDouble(getString(column));
+		}
+
+		int start = fieldStarts[column];
+		int end = fieldEnds[column];
+		boolean negative = start < end && row[start] == '-';
+		int i = negative ? start + 1 : start;
+
+		long mantissa = 0;
+		int digits = 0;
+		int decimals = -1;
+		for (; i < end; i++) {
+			byte b = row[i];
+			if (b >= '0' && b <= '9') {
+				mantissa = mantissa * 10 + (b - '0');
+				digits++;
+				if (decimals >= 0) {
+					decimals++;
+				}
+			} else if (b == '.' && decimals < 0) {
+				decimals = 0;
+			} else {
+				break;
+			}
+		}
+
+		// The mantissa and the power of ten are both exact, so one division rounds correctly
+		if (i < end || digits == 0 || digits > 15 || decimals >= POWERS_OF_TEN.length) {
+			return Double.parseDouble(getString(column));
+		}
+		double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Writes a field of the current row exactly as it was read, quotes included.
+	 *
+	 * @param column the position of the field
+	 * @param out the stream to write to
+	 * @throws IOException thrown when something goes wrong writing the stream
+	 */
+	public void writeRaw(int column, OutputStream out) throws IOException {
+		if (column < fieldCount) {
+			out.write(row, fieldStarts[column], fieldEnds[column] - fieldStarts[column]);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private void addField(int start, int end, boolean quoted) {
+		if (fieldCount == fieldStarts.length) {
+			fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+			fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+			fieldQuoted = Arrays.copyOf(fieldQuoted, fieldCount * 2);
+		}
+		fieldStarts[fieldCount] = start;
+		fieldEnds[fieldCount] = end;
+		fieldQuoted[fieldCount] = quoted;
+		fieldCount++;
+	}
+
+	private void append(int b) {
+		if (rowLength == row.length) {
+			row = Arrays.copyOf(row, rowLength * 2);
+		}
+		row[rowLength++] = (byte) b;
+	}
+
+	private int read() throws IOException {
+		if (bufferPosition == bufferLimit) {
+			bufferLimit = in.read(buffer, 0, buffer.length);
+			bufferPosition = 0;
+			if (bufferLimit <= 0) {
+				bufferLimit = 0;
+				return -1;
+			}
+		}
+		return buffer[bufferPosition++] & 0xff;
+	}
+
+}
@@ -0,0 +1,304 @@
+package com.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.opencsv.exceptions.CsvException;
+
+/**
+ * Fills in the rates of a CSV file using several threads. Every row is independent, so the file is processed in three
+ * steps:
+ * <ol>
+ * <li><b>Split : </b>the calling thread reads the file into chunks of whole rows, following the quotes so that a line
+ * break inside a quoted value never splits a row
+ * <li><b>Fill in : </b>each chunk is tokenized and its rates looked up on a pool of threads, against the one
+ * {@link RateAreaIndex} and {@link RateFiller}, which are never modified and so are shared without locking
+ * <li><b>Write : </b>the calling thread writes the filled in chunks in the order they were read, so the rows come out
+ * in the same order as they went in
+ * </ol>
+ *
+ * Only a few chunks per thread are read ahead of the writer, so memory use does not grow with the file.
+ *
+ */
+public class ParallelRateUpdater {
+
+	/**
+	 * The default target size of a chunk in bytes.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+	/**
+	 * The number of chunks per thread that may be read ahead of the writer.
+	 */
+	private static final int CHUNKS_PER_THREAD = 2;
+
+	private final int threads;
+	private final int chunkSize;
+
+	/**
+	 * The statistics to add the row counts to.
+	 */
+	private SlcspStats stats = new SlcspStats();
+
+	/**
+	 * Creates an updater with the default chunk size.
+	 *
+	 * @param threads the number of threads to fill in rows on
+	 */
+	public ParallelRateUpdater(int threads) {
+		this(threads, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Creates an updater.
+	 *
+	 * @param threads the number of threads to fill in rows on
+	 * @param chunkSize the target size of a chunk in bytes; chunks end on the first row boundary past this size
+	 */
+	public ParallelRateUpdater(int threads, int chunkSize) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("The number of threads must be at least 1.");
+		}
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("The chunk size must be at least 1 byte.");
+		}
+		this.threads = threads;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Sets the statistics to add the row counts of each chunk to.
+	 *
+	 * @param stats the statistics
+	 */
+	public void setStats(SlcspStats stats) {
+		this.stats = stats;
+	}
+
+	/**
+	 * Copies the CSV rows from the input to the output, filling in the rate of each one.
+	 *
+	 * @param index the rate area index
+	 * @param queries the extra rates to fill in alongside the SLCSP rate
+	 * @param in the CSV file to fill in
+	 * @param out the stream to write the filled in file to
+	 * @throws IOException thrown when something goes wrong reading or writing a stream
+	 * @throws CsvException thrown when the file does not contain zipcode and rate as headers
+	 */
+	public void update(RateAreaIndex index, List<RateQuery> queries, InputStream in, OutputStream out)
+			throws IOException, CsvException {
+		RowChunker chunker = new RowChunker(in);
+
+		// The header row is read on its own, to bind the columns once for every chunk
+		byte[] header = chunker.next(1);
+		if (header == null) {
+			header = new byte[0];
+		}
+		RateFiller filler;
+		try (CsvTokenizer tokenizer = new CsvTokenizer(new ByteArrayInputStream(header))) {
+			filler = RateFiller.readHeader(index, queries, tokenizer, out);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			Deque<Future<byte[]>> pending = new ArrayDeque<>();
+			byte[] chunk;
+			while ((chunk = chunker.next(chunkSize)) != null) {
+				if (pending.size() >= threads * CHUNKS_PER_THREAD) {
+					out.write(await(pending.poll()));
+				}
+				byte[] rows = chunk;
+				long linesBefore = chunker.getLinesBefore();
+				pending.add(executor.submit(() -> fillIn(filler, rows, linesBefore, stats)));
+			}
+			while (!pending.isEmpty()) {
+				out.write(await(pending.poll()));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Fills in the rates of a chunk of rows.
+	 *
+	 * @param filler the filler bound to the header row
+	 * @param rows the whole rows of the chunk
+	 * @param linesBefore the number of lines in the file before the chunk
+	 * @param stats the statistics to add the chunk's row counts to
+	 * @return the filled in rows
+	 * @throws IOException thrown when a quoted value is never closed
+	 */
+	private static byte[] fillIn(RateFiller filler, byte[] rows, long linesBefore, SlcspStats stats)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(rows.length + rows.length / 4);
+		try (CsvTokenizer tokenizer = new CsvTokenizer(new ByteArrayInputStream(rows), linesBefore)) {
+			long[] counts = new long[SlcspStats.RowOutcome.values().length];
+			while (tokenizer.next()) {
+				counts[filler.writeRow(tokenizer, out).ordinal()]++;
+			}
+			stats.addRows(counts);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] await(Future<byte[]> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while filling in the rates.");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Reads a CSV stream in chunks of whole rows. A row ends at a line break outside quotes, following the same rules
+	 * as {@link CsvTokenizer}: a quote only opens a quoted value at the start of a field, and a doubled quote inside one
+	 * is an escaped quote.
+	 */
+	private static class RowChunker {
+
+		private static final int UNQUOTED = 0;
+		private static final int QUOTED = 1;
+		private static final int QUOTE_IN_QUOTED = 2;
+
+		private final InputStream in;
+		private byte[] buffer = new byte[1 << 16];
+		private int start;
+		private int scanned;
+		private int limit;
+		private boolean endOfStream;
+
+		/**
+		 * The number of line breaks scanned, and the number before the most recent chunk.
+		 */
+		private long lines;
+		private long linesBefore;
+		private long linesTaken;
+
+		private int state = UNQUOTED;
+		private boolean fieldStart = true;
+
+		RowChunker(InputStream in) {
+			this.in = in;
+		}
+
+		/**
+		 * Reads the next chunk.
+		 *
+		 * @param targetSize the smallest size of the chunk, unless the stream ends first
+		 * @return the whole rows of the chunk, line breaks included, or null at the end of the stream
+		 * @throws IOException thrown when something goes wrong reading the stream
+		 */
+		byte[] next(int targetSize) throws IOException {
+			while (true) {
+				while (scanned < limit) {
+					if (isRowEnd(buffer[scanned++]) && scanned - start >= targetSize) {
+						return take(scanned);
+					}
+				}
+				if (endOfStream || !fill()) {
+					return limit > start ? take(limit) : null;
+				}
+			}
+		}
+
+		/**
+		 * Get the number of lines before the most recent chunk.
+		 *
+		 * @return the number of line breaks, inside quotes or not, before the chunk
+		 */
+		long getLinesBefore() {
+			return linesBefore;
+		}
+
+		/**
+		 * Moves the scan on by one byte.
+		 *
+		 * @param b the next byte
+		 * @return true if the byte ends a row
+		 */
+		private boolean isRowEnd(byte b) {
+			if (b == '\n') {
+				lines++;
+			}
+			if (state == QUOTED) {
+				if (b == '"') {
+					state = QUOTE_IN_QUOTED;
+				}
+				return false;
+			}
+			if (state == QUOTE_IN_QUOTED) {
+				if (b == '"') {
+					state = QUOTED;
+					return false;
+				}
+				// Anything but a second quote closes the quoted value
+				state = UNQUOTED;
+				fieldStart = false;
+			}
+
+			if (b == '\n') {
+				fieldStart = true;
+				return true;
+			}
+			if (b == '"' && fieldStart) {
+				state = QUOTED;
+			}
+			fieldStart = b == ',';
+			return false;
+		}
+
+		private byte[] take(int end) {
+			byte[] chunk = Arrays.copyOfRange(buffer, start, end);
+			start = end;
+			linesBefore = linesTaken;
+			linesTaken = lines;
+			return chunk;
+		}
+
+		/**
+		 * Reads more of the stream into the buffer, first moving the unread bytes to its start and growing it if full.
+		 *
+		 * @return false at the end of the stream
+		 */
+		private boolean fill() throws IOException {
+			if (start > 0) {
+				System.arraycopy(buffer, start, buffer, 0, limit - start);
+				scanned -= start;
+				limit -= start;
+				start = 0;
+			}
+			if (limit == buffer.length) {
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			}
+
+			int read = in.read(buffer, limit, buffer.length - limit);
+			if (read < 0) {
+				endOfStream = true;
+				return false;
+			}
+			limit += read;
+			return true;
+		}
+
+	}
+
+}
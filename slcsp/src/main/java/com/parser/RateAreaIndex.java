@@ -0,0 +1,813 @@
+package com.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import com.opencsv.exceptions.CsvException;
+
+/**
+ * A precomputed index of the zips.csv and plans.csv resources, holding only what a rate lookup needs:
+ * <ul>
+ * <li><b>Zip codes : </b>the single rate area of each zip code, or none if it is in more than one rate area
+ * <li><b>Rate areas : </b>the distinct plan rates of each rate area for every metal level, in ascending order
+ * </ul>
+ *
+ * Any metal level and rank can be looked up, such as the lowest GOLD rate or the third lowest BRONZE rate, and a SLCSP
+ * lookup is the SILVER level at rank 2. All of the metal levels are gathered in one pass over plans.csv, so many
+ * variants are answered from the same index rather than one run each.
+ *
+ * Zip codes are 5 digit numbers, so the zip codes are held in a dense array of 100000 slots indexed by the zip code
+ * itself. A rate area is packed into an int, holding the 2 letters of its state and its number, and each slot holds the
+ * position of its zip code's rate area in a sorted array of packed rate areas. The rates of each metal level are held
+ * in one array, rate area after rate area, with a second array giving where each rate area's rates start. A lookup is
+ * a handful of array reads, with no Strings built or hashed.
+ * <p>
+ * The CSV files are only parsed the first time the index is needed. The index is then saved as a compact binary file
+ * in the .slcsp directory of the user's home directory, along with a SHA-256 digest of both resources, and every later
+ * run loads that file instead. Changing either resource changes the digest, so a stale index is never used. The
+ * directory and the index are only readable and writable by their owner, and an index that belongs to another user
+ * or sits in a directory others can write to is never read.
+ *
+ */
+public class RateAreaIndex {
+
+	private static String ZIP_FILE_PATH = "zips.csv";
+	private static String PLAN_FILE_PATH = "plans.csv";
+
+	private static final byte[] MAGIC = { 'S', 'L', 'C', 'S', 'P', 'I', 'D', 'X' };
+	private static final int FORMAT_VERSION = 4;
+	private static final int DIGEST_LENGTH = 32;
+
+	/**
+	 * The directory under the user's home directory that the index is saved in.
+	 */
+	private static final String CACHE_DIRECTORY = ".slcsp";
+	private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rwx------");
+
+	/**
+	 * The metal level of a SLCSP.
+	 */
+	public static final String SILVER = "Silver";
+
+	/**
+	 * The number of possible 5 digit zip codes.
+	 */
+	private static final int ZIP_CODES = 100000;
+
+	/**
+	 * Marks a zip code in more than one rate area.
+	 */
+	private static final int AMBIGUOUS = -1;
+
+	/**
+	 * For each zip code, 1 more than the position of its rate area, 0 if the zip code is unknown, or AMBIGUOUS.
+	 */
+	private final int[] zipAreas;
+
+	/**
+	 * The packed rate areas, in ascending order.
+	 */
+	private final int[] rateAreas;
+
+	/**
+	 * The metal levels, as first spelled in plans.csv.
+	 */
+	private final String[] metalLevels;
+
+	/**
+	 * For each metal level, the distinct rates of every rate area in ascending order, one rate area after another.
+	 */
+	private final double[][] rates;
+
+	/**
+	 * For each metal level, where the rates of each rate area start in its rates, followed by where the last ones end.
+	 */
+	private final int[][] rateStarts;
+
+	/**
+	 * The position of the SILVER metal level, or -1 if there are no SILVER plans.
+	 */
+	private final int silver;
+
+	private RateAreaIndex(int[] zipAreas, int[] rateAreas, String[] metalLevels, double[][] rates, int[][] rateStarts) {
+		this.zipAreas = zipAreas;
+		this.rateAreas = rateAreas;
+		this.metalLevels = metalLevels;
+		this.rates = rates;
+		this.rateStarts = rateStarts;
+		this.silver = findMetalLevel(SILVER);
+	}
+
+	/**
+	 * Parses a zip code.
+	 *
+	 * @param zip the zip code as text
+	 * @return the zip code as an int, or -1 if it is not exactly 5 digits
+	 */
+	public static int parseZip(String zip) {
+		if (zip == null || zip.length() != 5) {
+			return -1;
+		}
+
+		int value = 0;
+		for (int i = 0; i < 5; i++) {
+			int digit = zip.charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Packs a rate area into an int: the 2 letters of the state in the high bytes and the rate area number in the low
+	 * 16 bits. A packed rate area is never 0.
+	 *
+	 * @param state the 2 letter state code
+	 * @param area the rate area number within the state
+	 * @return the packed rate area
+	 * @throws IllegalArgumentException thrown when the state is not 2 ASCII letters or the number does not fit
+	 */
+	public static int packRateArea(String state, int area) {
+		if (state.length() != 2 || state.charAt(0) == 0 || state.charAt(0) > 0x7f || state.charAt(1) > 0x7f
+				|| area < 0 || area > 0xffff) {
+			throw new IllegalArgumentException("The rate area " + state + " " + area + " cannot be packed.");
+		}
+		return state.charAt(0) << 24 | state.charAt(1) << 16 | area;
+	}
+
+	/**
+	 * Formats a packed rate area.
+	 *
+	 * @param rateArea the packed rate area
+	 * @return the state - rateArea combination string, such as AL-11
+	 */
+	public static String formatRateArea(int rateArea) {
+		return "" + (char) (rateArea >>> 24) + (char) (rateArea >>> 16 & 0x7f) + "-" + (rateArea & 0xffff);
+	}
+
+	/**
+	 * Checks whether the zip code is in zips.csv.
+	 *
+	 * @param zip the zip code
+	 * @return true if the zip code is in at least one rate area
+	 */
+	public boolean containsZip(String zip) {
+		int value = parseZip(zip);
+		return value >= 0 && zipAreas[value] != 0;
+	}
+
+	/**
+	 * Get the packed rate area of the zip code.
+	 *
+	 * @param zip the zip code as an int
+	 * @return the packed rate area, or 0 if the zip code is unknown or in more than one rate area
+	 */
+	public int getRateArea(int zip) {
+		int position = zip < 0 || zip >= ZIP_CODES ? 0 : zipAreas[zip];
+		return position > 0 ? rateAreas[position - 1] : 0;
+	}
+
+	/**
+	 * Get the rate area of the zip code.
+	 *
+	 * @param zip the zip code
+	 * @return the state - rateArea combination string, or null if the zip code is unknown or in more than one rate area
+	 */
+	public String getRateArea(String zip) {
+		int rateArea = getRateArea(parseZip(zip));
+		return rateArea == 0 ? null : formatRateArea(rateArea);
+	}
+
+	/**
+	 * Get the metal levels that have plans.
+	 *
+	 * @return the metal levels, as first spelled in plans.csv
+	 */
+	public String[] getMetalLevels() {
+		return metalLevels.clone();
+	}
+
+	/**
+	 * Finds the position of a metal level, to look rates up by.
+	 *
+	 * @param metalLevel the metal level, in any case
+	 * @return the position of the metal level, or -1 if there are no plans of that metal level
+	 */
+	public int findMetalLevel(String metalLevel) {
+		for (int i = 0; i < metalLevels.length; i++) {
+			if (metalLevels[i].equalsIgnoreCase(metalLevel)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Get a rate of the rate area by its rank among the rate area's distinct rates of the metal level.
+	 *
+	 * @param rateArea the state - rateArea combination string
+	 * @param metalLevel the metal level, in any case
+	 * @param rank the rank of the rate, 1 for the lowest
+	 * @return the rate, or NaN if the rate area has fewer distinct rates of the metal level
+	 */
+	public double getRate(String rateArea, String metalLevel, int rank) {
+		int position = findRateArea(rateArea);
+		return position < 0 ? Double.NaN : getRateAt(findMetalLevel(metalLevel), position, rank);
+	}
+
+	/**
+	 * Get the lowest SILVER rate of the rate area.
+	 *
+	 * @param rateArea the state - rateArea combination string
+	 * @return the lowest rate, or NaN if the rate area has no SILVER plans
+	 */
+	public double getLowestRate(String rateArea) {
+		return getRate(rateArea, SILVER, 1);
+	}
+
+	/**
+	 * Get the second lowest distinct SILVER rate of the rate area.
+	 *
+	 * @param rateArea the state - rateArea combination string
+	 * @return the second lowest rate, or NaN if the rate area has fewer than 2 distinct SILVER rates
+	 */
+	public double getSecondLowestRate(String rateArea) {
+		return getRate(rateArea, SILVER, 2);
+	}
+
+	/**
+	 * Get the SLCSP rate of the rate area: the second lowest distinct SILVER rate, or the only SILVER rate if all of the
+	 * rate area's SILVER plans have the same rate.
+	 *
+	 * @param rateArea the state - rateArea combination string
+	 * @return the SLCSP rate, or NaN if the rate area has no SILVER plans
+	 */
+	public double getSlcspRate(String rateArea) {
+		int position = findRateArea(rateArea);
+		return position < 0 ? Double.NaN : getSlcspRateAt(position);
+	}
+
+	/**
+	 * Looks up a rate of a zip code by its rank among the distinct rates of the metal level in the zip code's rate area.
+	 *
+	 * @param zip the zip code as an int
+	 * @param metalLevel the position of the metal level, from {@link #findMetalLevel(String)}
+	 * @param rank the rank of the rate, 1 for the lowest
+	 * @return the rate, or NaN if the zip code is unknown, in more than one rate area, or in a rate area with fewer
+	 *         distinct rates of the metal level
+	 */
+	public double lookupRate(int zip, int metalLevel, int rank) {
+		int position = zip < 0 || zip >= ZIP_CODES ? 0 : zipAreas[zip];
+		return position > 0 ? getRateAt(metalLevel, position - 1, rank) : Double.NaN;
+	}
+
+	/**
+	 * Looks up several rates of a zip code at once, finding the zip code's rate area only once.
+	 *
+	 * @param zip the zip code as an int
+	 * @param metalLevels the position of the metal level of each rate, from {@link #findMetalLevel(String)}
+	 * @param ranks the rank of each rate, 1 for the lowest
+	 * @param rates filled with each rate, or NaN where the zip code's rate area has fewer distinct rates of the metal
+	 *          level
+	 * @return false, with every rate NaN, if the zip code is unknown or in more than one rate area
+	 */
+	public boolean lookupRates(int zip, int[] metalLevels, int[] ranks, double[] rates) {
+		int position = zip < 0 || zip >= ZIP_CODES ? 0 : zipAreas[zip];
+		for (int i = 0; i < rates.length; i++) {
+			rates[i] = position > 0 ? getRateAt(metalLevels[i], position - 1, ranks[i]) : Double.NaN;
+		}
+		return position > 0;
+	}
+
+	/**
+	 * Looks up the SLCSP rate of a zip code.
+	 *
+	 * @param zip the zip code as an int
+	 * @return the SLCSP rate, or NaN if the zip code is unknown, in more than one rate area, or in a rate area with no
+	 *         SILVER plans
+	 */
+	public double lookupSlcspRate(int zip) {
+		int position = zip < 0 || zip >= ZIP_CODES ? 0 : zipAreas[zip];
+		return position > 0 ? getSlcspRateAt(position - 1) : Double.NaN;
+	}
+
+	/**
+	 * Looks up the SLCSP rate of a zip code.
+	 *
+	 * @param zip the zip code
+	 * @return the SLCSP rate, or NaN if the zip code is unknown, in more than one rate area, or in a rate area with no
+	 *         SILVER plans
+	 */
+	public double lookupSlcspRate(String zip) {
+		return lookupSlcspRate(parseZip(zip));
+	}
+
+	private double getRateAt(int metalLevel, int position, int rank) {
+		if (metalLevel < 0 || rank < 1) {
+			return Double.NaN;
+		}
+		int index = rateStarts[metalLevel][position] + rank - 1;
+		return index < rateStarts[metalLevel][position + 1] ? rates[metalLevel][index] : Double.NaN;
+	}
+
+	private double getSlcspRateAt(int position) {
+		if (silver < 0) {
+			return Double.NaN;
+		}
+		// The second lowest rate, or the only one
+		int start = rateStarts[silver][position];
+		int count = rateStarts[silver][position + 1] - start;
+		return count == 0 ? Double.NaN : rates[silver][start + Math.min(count, 2) - 1];
+	}
+
+	/**
+	 * Finds the position of a rate area.
+	 *
+	 * @param rateArea the state - rateArea combination string
+	 * @return the position in the rate area arrays, or -1 if the rate area is not in the index
+	 */
+	private int findRateArea(String rateArea) {
+		int dash = rateArea.indexOf('-');
+		if (dash != 2) {
+			return -1;
+		}
+		try {
+			int position = Arrays.binarySearch(rateAreas,
+					packRateArea(rateArea.substring(0, 2), Integer.parseInt(rateArea.substring(3))));
+			return position < 0 ? -1 : position;
+		} catch (IllegalArgumentException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Loads the index for the zips.csv and plans.csv resources of the context class loader, building and saving it
+	 * first if there is no saved index for them yet.
+	 *
+	 * @return the index
+	 * @throws IOException thrown when something goes wrong reading a resource
+	 * @throws CsvException thrown when a resource lacks a needed column or holds a value that is not a number
+	 */
+	public static RateAreaIndex load() throws IOException, CsvException {
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		return load(readResource(loader, ZIP_FILE_PATH), readResource(loader, PLAN_FILE_PATH));
+	}
+
+	/**
+	 * Loads the index for the zips.csv and plans.csv files in the given directory, building and saving it first if
+	 * there is no saved index for them yet.
+	 *
+	 * @param directory the directory holding zips.csv and plans.csv
+	 * @return the index
+	 * @throws IOException thrown when something goes wrong reading a file
+	 * @throws CsvException thrown when a file lacks a needed column or holds a value that is not a number
+	 */
+	public static RateAreaIndex load(File directory) throws IOException, CsvException {
+		return load(Files.readAllBytes(new File(directory, ZIP_FILE_PATH).toPath()),
+				Files.readAllBytes(new File(directory, PLAN_FILE_PATH).toPath()));
+	}
+
+	private static RateAreaIndex load(byte[] zips, byte[] plans) throws IOException, CsvException {
+		// Name the saved index after both resources, so it is rebuilt whenever either changes
+		byte[] digest = digest(zips, plans);
+		StringBuilder name = new StringBuilder("rate-areas-");
+		for (int i = 0; i < 8; i++) {
+			name.append(String.format("%02x", digest[i]));
+		}
+		File directory = new File(System.getProperty("user.home"), CACHE_DIRECTORY);
+		File indexFile = new File(directory, name.append(".idx").toString());
+
+		if (indexFile.isFile()) {
+			try {
+				if (!isPrivate(directory, indexFile)) {
+					throw new IOException("The rate area index is not private to this user : " + indexFile);
+				}
+				return read(indexFile, digest);
+			} catch (IOException e) {
+				System.err.println("Rebuilding the rate area index : " + e.getMessage());
+			}
+		}
+
+		RateAreaIndex index = build(new ByteArrayInputStream(zips), new ByteArrayInputStream(plans));
+		try {
+			createPrivateDirectory(directory);
+			index.write(indexFile, digest);
+			deleteOtherIndexes(directory, indexFile);
+		} catch (IOException e) {
+			// The index still works for this run; it is just built again next time
+			System.err.println("Could not save the rate area index : " + indexFile);
+		}
+		return index;
+	}
+
+	/**
+	 * Deletes the indexes saved for earlier versions of the CSV files, so only the latest one is kept.
+	 *
+	 * @param directory the directory holding the indexes
+	 * @param indexFile the index just saved
+	 */
+	private static void deleteOtherIndexes(File directory, File indexFile) {
+		File[] indexFiles = directory.listFiles((dir, fileName) -> fileName.startsWith("rate-areas-")
+				&& fileName.endsWith(".idx") && !fileName.equals(indexFile.getName()));
+		if (indexFiles == null) {
+			return;
+		}
+		for (File file : indexFiles) {
+			if (!file.delete()) {
+				System.err.println("Could not delete an old rate area index : " + file);
+			}
+		}
+	}
+
+	/**
+	 * Calculates the SHA-256 digest of zips.csv and plans.csv together, with the length of zips.csv in between so the
+	 * boundary between the two counts.
+	 *
+	 * @param zips the contents of zips.csv
+	 * @param plans the contents of plans.csv
+	 * @return the digest
+	 */
+	private static byte[] digest(byte[] zips, byte[] plans) {
+		try {
+			MessageDigest sha = MessageDigest.getInstance("SHA-256");
+			sha.update(zips);
+			sha.update(Integer.toString(zips.length).getBytes(StandardCharsets.US_ASCII));
+			sha.update(plans);
+			return sha.digest();
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Creates the given directory if it is missing, readable and writable by its owner only where the file system
+	 * supports POSIX permissions.
+	 *
+	 * @param directory the directory to create
+	 * @throws IOException thrown when the directory cannot be created
+	 */
+	private static void createPrivateDirectory(File directory) throws IOException {
+		if (directory.isDirectory()) {
+			return;
+		}
+		if (Files.getFileAttributeView(directory.getParentFile().toPath(), PosixFileAttributeView.class) != null) {
+			Files.createDirectories(directory.toPath(), PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+		} else {
+			Files.createDirectories(directory.toPath());
+		}
+	}
+
+	/**
+	 * Checks that a saved index belongs to the current user and that no one else can write to its directory, so an
+	 * index planted by another user is never read.
+	 *
+	 * @param directory the directory holding the index
+	 * @param indexFile the saved index
+	 * @return true if the index can be trusted
+	 * @throws IOException thrown when the owner or permissions cannot be read
+	 */
+	private static boolean isPrivate(File directory, File indexFile) throws IOException {
+		String user = System.getProperty("user.name");
+		Path directoryPath = directory.toPath();
+		if (!Files.getOwner(indexFile.toPath()).getName().equals(user)
+				|| !Files.getOwner(directoryPath).getName().equals(user)) {
+			return false;
+		}
+
+		PosixFileAttributeView view = Files.getFileAttributeView(directoryPath, PosixFileAttributeView.class);
+		if (view != null) {
+			Set<PosixFilePermission> permissions = view.readAttributes().permissions();
+			return !permissions.contains(PosixFilePermission.GROUP_WRITE)
+					&& !permissions.contains(PosixFilePermission.OTHERS_WRITE);
+		}
+		return true;
+	}
+
+	/**
+	 * Builds the index from the CSV files. Only the needed columns are read, bound by their header names.
+	 *
+	 * @param zips the contents of zips.csv
+	 * @param plans the contents of plans.csv
+	 * @return the index
+	 * @throws IOException thrown when something goes wrong reading the files
+	 * @throws CsvException thrown when a file lacks a needed column or holds a value that is not a number
+	 */
+	public static RateAreaIndex build(InputStream zips, InputStream plans) throws IOException, CsvException {
+		// Map each zip to its packed rate area, marking the zips with more than one rate area as ambiguous
+		int[] zipRateAreas = new int[ZIP_CODES];
+		try (CsvTokenizer tokenizer = new CsvTokenizer(zips)) {
+			int[] columns = bindColumns(tokenizer, ZIP_FILE_PATH, "zipcode", "state", "rate_area");
+			while (tokenizer.next()) {
+				int zip = tokenizer.getFixedDigits(columns[0], 5);
+				if (zip < 0) {
+					throw new CsvException(ZIP_FILE_PATH + " : line " + tokenizer.getLineNumber() + " holds '"
+							+ tokenizer.getString(columns[0]) + "' where a 5 digit zip code is needed.");
+				}
+				int rateArea = getRateArea(tokenizer, ZIP_FILE_PATH, columns[1], columns[2]);
+
+				if (zipRateAreas[zip] == 0) {
+					zipRateAreas[zip] = rateArea;
+				} else if (zipRateAreas[zip] != rateArea) {
+					zipRateAreas[zip] = AMBIGUOUS;
+				}
+			}
+		}
+
+		// Gather the rates of each metal level and rate area in one pass
+		List<String> metalLevels = new ArrayList<>();
+		List<Map<Integer, RateList>> metalRates = new ArrayList<>();
+		try (CsvTokenizer tokenizer = new CsvTokenizer(plans)) {
+			int[] columns = bindColumns(tokenizer, PLAN_FILE_PATH, "state", "metal_level", "rate", "rate_area");
+			while (tokenizer.next()) {
+				if (tokenizer.isEmpty(columns[1])) {
+					continue;
+				}
+
+				int metalLevel = 0;
+				while (metalLevel < metalLevels.size()
+						&& !tokenizer.equalsIgnoreCase(columns[1], metalLevels.get(metalLevel))) {
+					metalLevel++;
+				}
+				if (metalLevel == metalLevels.size()) {
+					metalLevels.add(tokenizer.getString(columns[1]));
+					metalRates.add(new HashMap<>());
+				}
+
+				int rateArea = getRateArea(tokenizer, PLAN_FILE_PATH, columns[0], columns[3]);
+				metalRates.get(metalLevel).computeIfAbsent(rateArea, area -> new RateList())
+						.add(getDouble(tokenizer, PLAN_FILE_PATH, columns[2]));
+			}
+		}
+
+		// Lay out every rate area that a zip is in or a plan is for in a sorted array
+		IntStream planAreas = metalRates.stream().flatMapToInt(areas -> areas.keySet().stream().mapToInt(i -> i));
+		int[] rateAreas = IntStream.concat(Arrays.stream(zipRateAreas), planAreas)
+				.filter(rateArea -> rateArea != 0 && rateArea != AMBIGUOUS)
+				.sorted()
+				.distinct()
+				.toArray();
+
+		// Sort each rate area's rates and drop the repeats, laying them out in rate area order
+		double[][] rates = new double[metalLevels.size()][];
+		int[][] rateStarts = new int[metalLevels.size()][];
+		for (int m = 0; m < rates.length; m++) {
+			Map<Integer, RateList> areas = metalRates.get(m);
+			int total = areas.values().stream().mapToInt(list -> list.count).sum();
+			double[] sorted = new double[total];
+			int[] starts = new int[rateAreas.length + 1];
+			int count = 0;
+			for (int i = 0; i < rateAreas.length; i++) {
+				starts[i] = count;
+				RateList list = areas.get(rateAreas[i]);
+				if (list != null) {
+					Arrays.sort(list.rates, 0, list.count);
+					for (int r = 0; r < list.count; r++) {
+						if (r == 0 || list.rates[r] != list.rates[r - 1]) {
+							sorted[count++] = list.rates[r];
+						}
+					}
+				}
+			}
+			starts[rateAreas.length] = count;
+			rates[m] = Arrays.copyOf(sorted, count);
+			rateStarts[m] = starts;
+		}
+
+		// Swap each zip's packed rate area for its position, plus 1 so that 0 stays unknown
+		for (int zip = 0; zip < ZIP_CODES; zip++) {
+			if (zipRateAreas[zip] != 0 && zipRateAreas[zip] != AMBIGUOUS) {
+				zipRateAreas[zip] = Arrays.binarySearch(rateAreas, zipRateAreas[zip]) + 1;
+			}
+		}
+
+		return new RateAreaIndex(zipRateAreas, rateAreas, metalLevels.toArray(new String[0]), rates, rateStarts);
+	}
+
+	private static int getRateArea(CsvTokenizer tokenizer, String file, int stateColumn, int areaColumn)
+			throws CsvException {
+		int area = getInt(tokenizer, file, areaColumn);
+		try {
+			return packRateArea(tokenizer.getCode(stateColumn), area);
+		} catch (IllegalArgumentException e) {
+			throw new CsvException(file + " : line " + tokenizer.getLineNumber() + " : " + e.getMessage());
+		}
+	}
+
+	private static int[] bindColumns(CsvTokenizer tokenizer, String file, String... names)
+			throws IOException, CsvException {
+		try {
+			return tokenizer.bindColumns(names);
+		} catch (IllegalArgumentException e) {
+			throw new CsvException(file + " : " + e.getMessage());
+		}
+	}
+
+	private static int getInt(CsvTokenizer tokenizer, String file, int column) throws CsvException {
+		try {
+			return tokenizer.getInt(column);
+		} catch (NumberFormatException e) {
+			throw new CsvException(file + " : line " + tokenizer.getLineNumber() + " holds '"
+					+ tokenizer.getString(column) + "' where a whole number is needed.");
+		}
+	}
+
+	private static double getDouble(CsvTokenizer tokenizer, String file, int column) throws CsvException {
+		try {
+			return tokenizer.getDouble(column);
+		} catch (NumberFormatException e) {
+			throw new CsvException(file + " : line " + tokenizer.getLineNumber() + " holds '"
+					+ tokenizer.getString(column) + "' where a number is needed.");
+		}
+	}
+
+	/**
+	 * The rates of a single metal level and rate area, gathered while building the index.
+	 */
+	private static class RateList {
+
+		private double[] rates = new double[8];
+		private int count;
+
+		private void add(double rate) {
+			if (count == rates.length) {
+				rates = Arrays.copyOf(rates, count * 2);
+			}
+			rates[count++] = rate;
+		}
+
+	}
+
+	/**
+	 * Saves the index to the given file, writing it to a temporary file first so a partly written index is never read.
+	 * The temporary file is created readable and writable by its owner only, and the move keeps that.
+	 *
+	 * @param file the file to save to
+	 * @param sourceDigest the SHA-256 digest of the CSV files the index was built from, checked by
+	 *            {@link #read(File, byte[])}
+	 * @throws IOException thrown when something goes wrong writing the file
+	 */
+	public void write(File file, byte[] sourceDigest) throws IOException {
+		if (sourceDigest.length != DIGEST_LENGTH) {
+			throw new IllegalArgumentException("The source digest must be " + DIGEST_LENGTH + " bytes.");
+		}
+
+		File temp = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(), file.getName(), ".tmp")
+				.toFile();
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+				out.write(MAGIC);
+				out.writeByte(FORMAT_VERSION);
+				out.write(sourceDigest);
+
+				out.writeInt(rateAreas.length);
+				for (int rateArea : rateAreas) {
+					out.writeInt(rateArea);
+				}
+
+				out.writeInt(metalLevels.length);
+				for (int m = 0; m < metalLevels.length; m++) {
+					out.writeUTF(metalLevels[m]);
+					for (int start : rateStarts[m]) {
+						out.writeInt(start);
+					}
+					for (double rate : rates[m]) {
+						out.writeDouble(rate);
+					}
+				}
+
+				// Only the known zip codes are written, as pairs of zip code and slot
+				int zipCount = 0;
+				for (int zip = 0; zip < ZIP_CODES; zip++) {
+					if (zipAreas[zip] != 0) {
+						zipCount++;
+					}
+				}
+				out.writeInt(zipCount);
+				for (int zip = 0; zip < ZIP_CODES; zip++) {
+					if (zipAreas[zip] != 0) {
+						out.writeInt(zip);
+						out.writeInt(zipAreas[zip]);
+					}
+				}
+			}
+
+			SlcspHelper.replaceAtomically(temp, file);
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+	/**
+	 * Reads an index saved by {@link #write(File, byte[])}.
+	 *
+	 * @param file the file to read
+	 * @param sourceDigest the SHA-256 digest of the CSV files the index must have been built from
+	 * @return the index
+	 * @throws IOException thrown when something goes wrong reading the file, it is not a saved index, or it was built
+	 *             from other CSV files
+	 */
+	public static RateAreaIndex read(File file, byte[] sourceDigest) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC) || in.readUnsignedByte() != FORMAT_VERSION) {
+				throw new IOException("The file is not a rate area index : " + file);
+			}
+			byte[] digest = new byte[DIGEST_LENGTH];
+			in.readFully(digest);
+			if (!MessageDigest.isEqual(digest, sourceDigest)) {
+				throw new IOException("The rate area index was built from other CSV files : " + file);
+			}
+
+			int areaCount = in.readInt();
+			int[] rateAreas = new int[areaCount];
+			for (int i = 0; i < areaCount; i++) {
+				rateAreas[i] = in.readInt();
+			}
+
+			int metalCount = in.readInt();
+			String[] metalLevels = new String[metalCount];
+			double[][] rates = new double[metalCount][];
+			int[][] rateStarts = new int[metalCount][areaCount + 1];
+			for (int m = 0; m < metalCount; m++) {
+				metalLevels[m] = in.readUTF();
+				for (int i = 0; i <= areaCount; i++) {
+					rateStarts[m][i] = in.readInt();
+					if (rateStarts[m][i] < (i == 0 ? 0 : rateStarts[m][i - 1])) {
+						throw new IOException("The rate area index is corrupt : " + file);
+					}
+				}
+				rates[m] = new double[rateStarts[m][areaCount]];
+				for (int i = 0; i < rates[m].length; i++) {
+					rates[m][i] = in.readDouble();
+				}
+			}
+
+			int zipCount = in.readInt();
+			int[] zipAreas = new int[ZIP_CODES];
+			for (int i = 0; i < zipCount; i++) {
+				int zip = in.readInt();
+				int slot = in.readInt();
+				if (zip < 0 || zip >= ZIP_CODES || slot < AMBIGUOUS || slot > areaCount) {
+					throw new IOException("The rate area index is corrupt : " + file);
+				}
+				zipAreas[zip] = slot;
+			}
+
+			return new RateAreaIndex(zipAreas, rateAreas, metalLevels, rates, rateStarts);
+		}
+	}
+
+	/**
+	 * Reads a whole resource into memory.
+	 *
+	 * @param loader the class loader to find the resource with
+	 * @param path the resource path
+	 * @return the contents of the resource
+	 * @throws IOException thrown when the resource is missing or something goes wrong reading it
+	 */
+	private static byte[] readResource(ClassLoader loader, String path) throws IOException {
+		try (InputStream is = loader.getResourceAsStream(path)) {
+			if (is == null) {
+				throw new FileNotFoundException("Missing resource : " + path);
+			}
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = is.read(buffer)) != -1) {
+				bytes.write(buffer, 0, read);
+			}
+			return bytes.toByteArray();
+		}
+	}
+
+}
@@ -0,0 +1,186 @@
+package com.parser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.opencsv.exceptions.CsvException;
+
+/**
+ * Fills in the rate columns of CSV rows, copying every other field exactly as it was read:
+ * <ul>
+ * <li><b>rate : </b>the SLCSP rate of the row's zip code, as always
+ * <li><b>Rate queries : </b>one column per {@link RateQuery}, named as {@link RateQuery#getColumnName()}; a column the
+ * file already has is filled in place, and any other is added after the last column
+ * </ul>
+ *
+ * A row whose zip code is unknown or in more than one rate area keeps its rates as they are, and a rate the zip code's
+ * rate area does not have is left blank. The columns are bound once from the header row, and a filler holds no state
+ * per row, so one filler may be shared by several threads.
+ *
+ */
+public class RateFiller {
+
+	private final RateAreaIndex index;
+	private final int zipColumn;
+	private final int rateColumn;
+
+	/**
+	 * The column, metal level position and rank of each rate query.
+	 */
+	private final int[] queryColumns;
+	private final int[] metalLevels;
+	private final int[] ranks;
+
+	/**
+	 * The number of fields every row is padded to, so that the added columns are always present.
+	 */
+	private final int minimumFieldCount;
+	private final int lastColumn;
+
+	private RateFiller(RateAreaIndex index, int zipColumn, int rateColumn, int[] queryColumns, int[] metalLevels,
+			int[] ranks, int minimumFieldCount) {
+		this.index = index;
+		this.zipColumn = zipColumn;
+		this.rateColumn = rateColumn;
+		this.queryColumns = queryColumns;
+		this.metalLevels = metalLevels;
+		this.ranks = ranks;
+		this.minimumFieldCount = minimumFieldCount;
+
+		int last = rateColumn;
+		for (int column : queryColumns) {
+			last = Math.max(last, column);
+		}
+		this.lastColumn = last;
+	}
+
+	/**
+	 * Reads the header row, binds the zipcode, rate and rate query columns, and writes the header row with any added
+	 * columns.
+	 *
+	 * @param index the rate area index
+	 * @param queries the extra rates to fill in, or an empty list for only the SLCSP rate
+	 * @param tokenizer the tokenizer at the start of the file
+	 * @param out the stream to write the header row to
+	 * @return the filler for the rows that follow
+	 * @throws IOException thrown when something goes wrong reading or writing a stream
+	 * @throws CsvException thrown when the file does not contain zipcode and rate as headers
+	 * @throws IllegalArgumentException thrown when a query is for a metal level with no plans
+	 */
+	public static RateFiller readHeader(RateAreaIndex index, List<RateQuery> queries, CsvTokenizer tokenizer,
+			OutputStream out) throws IOException, CsvException {
+		int[] columns;
+		try {
+			columns = tokenizer.bindColumns("zipcode", "rate");
+		} catch (IllegalArgumentException e) {
+			throw new CsvException(
+				"The modifiable file headers do not contain 'zipcode' and 'rate'. Please format your file "
+				+ "with the required headers, and try again.");
+		}
+
+		int fieldCount = tokenizer.getFieldCount();
+		int[] queryColumns = new int[queries.size()];
+		int[] metalLevels = new int[queries.size()];
+		int[] ranks = new int[queries.size()];
+		StringBuilder added = new StringBuilder();
+		int addedCount = 0;
+		for (int i = 0; i < queries.size(); i++) {
+			RateQuery query = queries.get(i);
+			metalLevels[i] = index.findMetalLevel(query.getMetalLevel());
+			if (metalLevels[i] < 0) {
+				throw new IllegalArgumentException("There are no " + query.getMetalLevel() + " plans to look up.");
+			}
+			ranks[i] = query.getRank();
+
+			queryColumns[i] = tokenizer.findColumn(query.getColumnName());
+			if (queryColumns[i] < 0) {
+				queryColumns[i] = fieldCount + addedCount++;
+				added.append(',').append(query.getColumnName());
+			}
+		}
+
+		RateFiller filler = new RateFiller(index, columns[0], columns[1], queryColumns, metalLevels, ranks,
+				addedCount == 0 ? 0 : fieldCount + addedCount);
+		filler.copyRow(tokenizer, out, tokenizer.getFieldCount());
+		out.write(added.toString().getBytes(StandardCharsets.UTF_8));
+		out.write('\n');
+		return filler;
+	}
+
+	/**
+	 * Writes the current row with its rates filled in.
+	 *
+	 * @param tokenizer the tokenizer positioned on the row
+	 * @param out the stream to write to
+	 * @return what happened to the row's SLCSP rate, for the statistics
+	 * @throws IOException thrown when something goes wrong writing the stream
+	 */
+	public SlcspStats.RowOutcome writeRow(CsvTokenizer tokenizer, OutputStream out) throws IOException {
+		// Read the zip straight from the bytes, only building a String for a quoted one
+		int zip = tokenizer.getFixedDigits(zipColumn, 5);
+		if (zip < 0) {
+			zip = RateAreaIndex.parseZip(tokenizer.getString(zipColumn));
+		}
+
+		int fieldCount = Math.max(tokenizer.getFieldCount(), minimumFieldCount);
+		if (index.getRateArea(zip) == 0) {
+			// Leave the rates as they are, since the zip is unknown or in more than one rate area
+			copyRow(tokenizer, out, fieldCount);
+			out.write('\n');
+			return zip < 0 ? SlcspStats.RowOutcome.MALFORMED : SlcspStats.RowOutcome.UNMATCHED;
+		}
+
+		fieldCount = Math.max(fieldCount, lastColumn + 1);
+		double slcspRate = index.lookupSlcspRate(zip);
+		for (int column = 0; column < fieldCount; column++) {
+			if (column > 0) {
+				out.write(',');
+			}
+			if (column == rateColumn) {
+				writeRate(out, slcspRate);
+			} else {
+				int query = findQuery(column);
+				if (query >= 0) {
+					writeRate(out, index.lookupRate(zip, metalLevels[query], ranks[query]));
+				} else {
+					tokenizer.writeRaw(column, out);
+				}
+			}
+		}
+		out.write('\n');
+		return Double.isNaN(slcspRate) ? SlcspStats.RowOutcome.BLANK : SlcspStats.RowOutcome.FILLED;
+	}
+
+	private int findQuery(int column) {
+		for (int i = 0; i < queryColumns.length; i++) {
+			if (queryColumns[i] == column) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Writes a rate, or nothing for a blank rate.
+	 */
+	private static void writeRate(OutputStream out, double rate) throws IOException {
+		if (!Double.isNaN(rate)) {
+			out.write(String.valueOf(rate).getBytes(StandardCharsets.US_ASCII));
+		}
+	}
+
+	/**
+	 * Copies the fields of the current row as they were read, without a line ending, padding it with empty fields.
+	 */
+	private void copyRow(CsvTokenizer tokenizer, OutputStream out, int fieldCount) throws IOException {
+		for (int column = 0; column < fieldCount; column++) {
+			if (column > 0) {
+				out.write(',');
+			}
+			tokenizer.writeRaw(column, out);
+		}
+	}
+
+}
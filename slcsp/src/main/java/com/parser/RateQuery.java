@@ -0,0 +1,93 @@
+package com.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A rate to look up for each zip code: the rate of the given rank among the distinct rates of a metal level in the
+ * zip code's rate area. Written as metal:rank, such as Gold:1 for the lowest GOLD rate or Bronze:2 for the second
+ * lowest BRONZE rate.
+ *
+ */
+public class RateQuery {
+
+	private final String metalLevel;
+	private final int rank;
+
+	/**
+	 * Creates a query.
+	 *
+	 * @param metalLevel the metal level, in any case
+	 * @param rank the rank of the rate, 1 for the lowest
+	 */
+	public RateQuery(String metalLevel, int rank) {
+		if (metalLevel == null || metalLevel.isEmpty()) {
+			throw new IllegalArgumentException("A rate query needs a metal level.");
+		}
+		if (rank < 1) {
+			throw new IllegalArgumentException("The rank of a rate query must be at least 1.");
+		}
+		this.metalLevel = metalLevel;
+		this.rank = rank;
+	}
+
+	/**
+	 * Parses a query written as metal:rank, such as Gold:1.
+	 *
+	 * @param query the query
+	 * @return the parsed query
+	 * @throws IllegalArgumentException thrown when the query is not written as metal:rank
+	 */
+	public static RateQuery parse(String query) {
+		int colon = query.indexOf(':');
+		if (colon < 0) {
+			throw new IllegalArgumentException("The rate query '" + query + "' must be written as metal:rank.");
+		}
+		try {
+			return new RateQuery(query.substring(0, colon).trim(), Integer.parseInt(query.substring(colon + 1).trim()));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("The rate query '" + query + "' must have a whole number rank.");
+		}
+	}
+
+	/**
+	 * Parses a comma separated list of queries, such as Gold:1,Bronze:2.
+	 *
+	 * @param queries the queries
+	 * @return the parsed queries, in the same order
+	 * @throws IllegalArgumentException thrown when a query is not written as metal:rank
+	 */
+	public static List<RateQuery> parseList(String queries) {
+		List<RateQuery> list = new ArrayList<>();
+		for (String query : queries.split(",")) {
+			if (!query.trim().isEmpty()) {
+				list.add(parse(query));
+			}
+		}
+		return list;
+	}
+
+	public String getMetalLevel() {
+		return metalLevel;
+	}
+
+	public int getRank() {
+		return rank;
+	}
+
+	/**
+	 * Get the name of the CSV column the query's rates are written to.
+	 *
+	 * @return the metal level in lower case and the rank, such as gold_1
+	 */
+	public String getColumnName() {
+		return metalLevel.toLowerCase(Locale.ROOT) + "_" + rank;
+	}
+
+	@Override
+	public String toString() {
+		return metalLevel + ":" + rank;
+	}
+
+}
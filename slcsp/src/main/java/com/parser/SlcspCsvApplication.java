@@ -1,30 +1,19 @@
 package com.parser;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedHashSet;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.stream.Collectors;
 
-import com.google.common.collect.Iterators;
-import com.opencsv.CSVReader;
-import com.opencsv.CSVWriter;
-import com.opencsv.bean.CsvToBeanBuilder;
-import com.opencsv.bean.HeaderColumnNameMappingStrategy;
-import com.opencsv.bean.StatefulBeanToCsv;
-import com.opencsv.bean.StatefulBeanToCsvBuilder;
-import com.opencsv.exceptions.CsvDataTypeMismatchException;
 import com.opencsv.exceptions.CsvException;
-import com.opencsv.exceptions.CsvRequiredFieldEmptyException;
 
 /**
  * The main entry point for the application that parses a list of zipcodes, and
@@ -33,15 +22,61 @@ import com.opencsv.exceptions.CsvRequiredFieldEmptyException;
  */
 public class SlcspCsvApplication {
 
-	private static String ZIP_FILE_PATH = "zips.csv";
-	private static String PLAN_FILE_PATH = "plans.csv";
 	private String fileToModifyPath;
+	private int threads;
+	private List<RateQuery> rateQueries = Collections.emptyList();
+	private SlcspStats stats = new SlcspStats();
 
 	public SlcspCsvApplication(String fileToModify) {
+		this(fileToModify, 1);
+	}
+
+	/**
+	 * Creates an application that fills in the rates on the given number of threads.
+	 * 
+	 * @param fileToModify the CSV file to fill in
+	 * @param threads the number of threads to fill in rows on; 1 fills them in on the calling thread
+	 */
+	public SlcspCsvApplication(String fileToModify, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("The number of threads must be at least 1.");
+		}
 		this.fileToModifyPath = fileToModify;
+		this.threads = threads;
 	}
 
 	public static void main(String[] args) {
+		// Run as a resident lookup service rather than filling in a file
+		if (args.length > 0 && args[0].startsWith("--serve")) {
+			serve(args);
+			return;
+		}
+		
+		// Fill in the rows on several threads, and extra rates, when asked to
+		int threads = 1;
+		List<RateQuery> rateQueries = Collections.emptyList();
+		String[] statsExport = null;
+		int options = 0;
+		try {
+			for (; options < args.length && args[options].startsWith("--"); options++) {
+				if (args[options].startsWith("--threads=")) {
+					threads = Integer.parseInt(args[options].substring("--threads=".length()));
+				} else if (args[options].startsWith("--rates=")) {
+					rateQueries = RateQuery.parseList(args[options].substring("--rates=".length()));
+				} else if (args[options].startsWith("--stats=")) {
+					statsExport = args[options].substring("--stats=".length()).split(",", 2);
+					SlcspStats.Format.fromName(statsExport[0]);
+				} else {
+					System.out.println("Unknown option : " + args[options]);
+					return;
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println("Invalid option : " + e.getMessage());
+			return;
+		}
+		args = Arrays.copyOfRange(args, options, args.length);
+		
 		// Check for a modifiable file that contains zip codes needing matching rates
 		if (args.length != 1) {
 			System.out.println("Please provide only the modifiable CSV file as input.");
@@ -52,21 +87,24 @@ public class SlcspCsvApplication {
 		}
 
 		try {
-			SlcspCsvApplication parser = new SlcspCsvApplication(args[0]);
+			SlcspCsvApplication parser = new SlcspCsvApplication(args[0], threads);
+			parser.setRateQueries(rateQueries);
 			parser.updateRates();
 			System.out.println("File has been written to : " + args[0]);
+			
+			if (statsExport != null) {
+				parser.getStats().setExport(SlcspStats.Format.fromName(statsExport[0]),
+						statsExport.length > 1 ? new File(statsExport[1]) : null);
+				parser.getStats().export();
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println("Invalid option : " + e.getMessage());
 		} catch (FileNotFoundException e) {
 			System.err.println("Error occurred finding a file.");
 			System.err.println(e);
 		} catch (IOException e) {
 			System.err.println("Error occurred accessing or writing to a file.");
 			System.err.println(e);
-		} catch (CsvDataTypeMismatchException e) {
-			System.err.println("Error occurred converting a file into a POJO.");
-			System.err.println(e);
-		} catch (CsvRequiredFieldEmptyException e) {
-			System.err.println("Error occurred converting a file with required fields: the required fields are empty.");
-			System.err.println(e);
 		} catch (CsvException e) {
 			System.err.println("Error occurred with the given file.");
 			System.err.println(e);
@@ -74,197 +112,158 @@ public class SlcspCsvApplication {
 	}
 
 	/**
-	 * Updates the rates for the given csv file.
+	 * Sets the extra rates to fill in alongside the SLCSP rate, each into its own column.
 	 * 
-	 * @throws IOException thrown when something goes wrong reading or writing a resource
-	 * @throws CsvException thrown when the modifiable file does not contain zipcode and rate as headers
+	 * @param rateQueries the rates to fill in, such as the lowest GOLD rate
 	 */
-	private void updateRates() throws IOException, CsvException {
-		// Setting the mapping strategy now so we can check the headers first
-		HeaderColumnNameMappingStrategy<SlcspEntity> mappingStrategy =
-	            new HeaderColumnNameMappingStrategy<>();
-	    mappingStrategy.setType(SlcspEntity.class);
-	    getHeaders(mappingStrategy);
-		
-		// Parse out the list of zips to fill in for
-		List<SlcspEntity> modifyList = loadModifiableFile();
-		
-		// Load the zip map into memory, from only the applicable zips
-		Map<String, Set<String>> zipMap = 
-				loadZipFile(modifyList.stream()
-					.map(record -> record.getZipcode())
-					.collect(Collectors.toSet()));
-		
-		// Load the rate map into memory, from only the applicable plan areas
-		Map<String, Set<Double>> planMap = 
-				loadPlanFile(zipMap.values()
-					.stream()
-					.flatMap(Set::stream)
-					.collect(Collectors.toSet()));
-		
-		// Get the second lowest rate for each given zip
-		modifyList.forEach(record -> {
-			String zip = record.getZipcode();
-			Set<String> areaCodes = zipMap.get(zip);
-			
-			// If the area codes are not null, find the SLCSP rate 
-			if (areaCodes != null) {
-				// Get the applicable plans for the zipcode's area code
-				Map<String, Set<Double>> paredMap = 
-					planMap.entrySet()
-						.stream()
-						.filter(entry -> areaCodes.contains(entry.getKey()))
-						.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-				
-				// Get all the rates for the plans, and sort them
-				Set<Double> rates = new LinkedHashSet<>();
-				paredMap.values()
-					.stream()
-					.flatMap(Set::stream)
-					.sorted()
-					.forEachOrdered(rates::add);
-				Double rate = null;
-				if (rates.size() == 1) {
-					rate = rates.iterator().next();
-				} else if (rates.size() > 1) {
-					// Get the second lowest rate
-					rate = Iterators.get(rates.iterator(), 1);
-				}
-				record.setRate(rate);
-			}
-		});
-		
-		// Write it out to the input file
-	    FileWriter writer = new FileWriter(fileToModifyPath);
-	    StatefulBeanToCsvBuilder<SlcspEntity> builder = new StatefulBeanToCsvBuilder<>(writer);
-	    StatefulBeanToCsv<SlcspEntity> beanWriter = builder
-	              .withMappingStrategy(mappingStrategy)
-	              .withQuotechar(CSVWriter.NO_QUOTE_CHARACTER)
-	              .build();
-
-	    beanWriter.write(modifyList);
-		writer.close();
+	public void setRateQueries(List<RateQuery> rateQueries) {
+		this.rateQueries = rateQueries;
 	}
 	
 	/**
-	 * Get the headers of the modifiable file.
+	 * Get the statistics of the rates filled in so far: the bytes read, the rows by outcome, and the time spent loading
+	 * the index, filling in the rows and swapping the file into place.
 	 * 
-	 * @param mapping the mapping strategy to set the headers on
-	 * @throws IOException thrown when something goes wrong reading or writing a resource
-	 * @throws CsvException thrown when the file does not contain zipcode and rate as headers
+	 * @return the statistics
 	 */
-	private void getHeaders(HeaderColumnNameMappingStrategy<SlcspEntity> mapping)
-			throws IOException, CsvException {
-		FileReader fr = new FileReader(fileToModifyPath);
-		CSVReader reader = new CSVReader(fr);
-		mapping.captureHeader(reader);
-		
-		// If the headers do not include both zipcode and rate, throw an error
-		if (!Arrays.asList(mapping.generateHeader()).containsAll(SlcspEntity.requiredHeaders())) {
-			reader.close();
-			fr.close();
-			throw new CsvException(
-				"The modifiable file headers do not contain 'zipcode' and 'rate'. Please format your file with the "
-				+ "required headers, and try again.");
-		}
-				
-		reader.close();
-		fr.close();
+	public SlcspStats getStats() {
+		return stats;
 	}
 	
 	/**
-	 * Load the input file into a list of entities.
+	 * Starts a {@link SlcspServer} from the following options:
+	 * <ul>
+	 * <li><b>--serve[=port] : </b>Serve lookups on the given port, or 8080.
+	 * <li><b>--data=directory : </b>Load zips.csv and plans.csv from the directory, and reload them when they change,
+	 * rather than using the packaged files.
+	 * <li><b>--threads=count : </b>Serve requests on the given number of threads, or twice the number of cores.
+	 * </ul>
 	 * 
-	 * @return a list of {@link SlcspEntity}
-	 * @throws IllegalStateException thrown when the builder is incomplete and cannot run methods
-	 * @throws IOException thrown when something goes wrong reading a resource
+	 * @param args the options
 	 */
-	private List<SlcspEntity> loadModifiableFile() throws IllegalStateException, IOException {
-		FileReader fr = new FileReader(fileToModifyPath);
-		List<SlcspEntity> list = new CsvToBeanBuilder<SlcspEntity>(fr)
-				.withType(SlcspEntity.class)
-				.withOrderedResults(true)
-				.build()
-				.parse();
+	private static void serve(String[] args) {
+		int port = SlcspServer.DEFAULT_PORT;
+		File dataDirectory = null;
+		int threads = Runtime.getRuntime().availableProcessors() * 2;
 		
-		fr.close();
-		return list;
+		try {
+			for (String arg : args) {
+				if (arg.startsWith("--serve=")) {
+					port = Integer.parseInt(arg.substring("--serve=".length()));
+				} else if (arg.startsWith("--data=")) {
+					dataDirectory = new File(arg.substring("--data=".length()));
+				} else if (arg.startsWith("--threads=")) {
+					threads = Integer.parseInt(arg.substring("--threads=".length()));
+				} else if (!arg.equals("--serve")) {
+					System.out.println("Unknown option : " + arg);
+					return;
+				}
+			}
+			
+			SlcspServer server = new SlcspServer(port, dataDirectory, threads);
+			server.start();
+			System.out.println("Serving SLCSP lookups on port : " + server.getPort());
+		} catch (IllegalArgumentException e) {
+			System.err.println("Invalid option : " + e.getMessage());
+		} catch (IOException e) {
+			System.err.println("Error occurred reading the rate data or opening the port.");
+			System.err.println(e);
+		} catch (CsvException e) {
+			System.err.println("Error occurred with the rate data.");
+			System.err.println(e);
+		}
 	}
-
+	
 	/**
-	 * Load the zip file containing the corresponding states and rate areas.
+	 * Updates the rates for the given csv file. The file is streamed row by row into a temporary file next to it, which
+	 * then replaces the original, so memory use does not grow with the file and the original is never left half
+	 * written. A symbolic link is followed to the file it points at, and a file with other hard links is written over
+	 * in place so every link sees the rates. Every column of each row is kept in place; only the rate column is filled in. With more than 1 thread
+	 * the rows are filled in by a {@link ParallelRateUpdater}, and still come out in the order they went in. Any rate
+	 * queries are filled in alongside the SLCSP rate by the same pass.
 	 * 
-	 * @param applicableZips the zip codes to get rate areas for
-	 * @return a map of zipcode to set of rate areas
-	 * @throws IOException thrown when something goes wrong closing the input stream
+	 * @throws IOException thrown when something goes wrong reading or writing a resource
+	 * @throws CsvException thrown when the modifiable file does not contain zipcode and rate as headers
 	 */
-	private Map<String, Set<String>> loadZipFile(Set<String> applicableZips) throws IOException {
-		InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(ZIP_FILE_PATH);
-
-		List<ZipCodeEntity> list = new CsvToBeanBuilder<ZipCodeEntity>(new InputStreamReader(is))
-				.withType(ZipCodeEntity.class)
-				.build()
-				.parse();
-
-		Map<String, Set<String>> zipMap = new HashMap<>();
-
-		// Filter for the applicable zipcodes only, and add the mapping
-		list.stream()
-			.filter(bean -> applicableZips.contains(bean.getZipcode()))
-			.forEach(bean -> {
-				String zip = bean.getZipcode();
-				String stateArea = bean.getStateRateArea();
-				
-				if (!zipMap.containsKey(zip)) {
-					zipMap.put(zip, new HashSet<>());
-				}
-				
-				Set<String> value = zipMap.get(zip);
-				value.add(stateArea);
-			});
-		
-		// if a zipcode doesn't have exactly 1 rate area, remove from the list
-		zipMap.entrySet().removeIf(entry -> entry.getValue().size() != 1);
+	public void updateRates() throws IOException, CsvException {
+		// Load the precomputed rate area index, building it from the CSV resources on the first run
+		long start = stats.startPhase();
+		RateAreaIndex index = RateAreaIndex.load();
+		stats.endPhase(SlcspStats.Phase.LOAD, start);
 		
-		is.close();
-		return zipMap;
+		// Replace the file a symbolic link points at, rather than the link itself
+		File file = new File(fileToModifyPath).toPath().toRealPath().toFile();
+		File temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+		try {
+			start = stats.startPhase();
+			try (InputStream in = new FileInputStream(file);
+					OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), 1 << 16)) {
+				if (threads > 1) {
+					ParallelRateUpdater updater = new ParallelRateUpdater(threads);
+					updater.setStats(stats);
+					updater.update(index, rateQueries, in, out);
+				} else {
+					updateRates(index, rateQueries, in, out, stats);
+				}
+			}
+			stats.addBytesRead(file.length());
+			stats.endPhase(SlcspStats.Phase.FILL, start);
+			
+			// Swap the filled in file for the original in one step, unless other hard links share the original and
+			// would be left holding the old rows; then it is written over in place instead
+			start = stats.startPhase();
+			if (getLinkCount(file) > 1) {
+				try (OutputStream out = new FileOutputStream(file)) {
+					Files.copy(temp.toPath(), out);
+				}
+			} else {
+				SlcspHelper.replaceAtomically(temp, file);
+			}
+			stats.endPhase(SlcspStats.Phase.WRITE, start);
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
 	}
-
+	
 	/**
-	 * Load the plan file containing the corresponding rate areas and plan rates.
+	 * Gets the number of hard links to the given file.
 	 * 
-	 * @param applicableAreas the rate areas to get rates for
-	 * @return a map of rate area to set of rates
-	 * @throws IOException thrown when something goes wrong closing the input stream
+	 * @param file the file
+	 * @return the number of hard links, or 1 where the file system does not report it
+	 * @throws IOException thrown when the file's attributes cannot be read
 	 */
-	private Map<String, Set<Double>> loadPlanFile(Set<String> applicableAreas) throws IOException {
-		InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(PLAN_FILE_PATH);
-
-		List<PlanEntity> list = new CsvToBeanBuilder<PlanEntity>(new InputStreamReader(is))
-				.withType(PlanEntity.class)
-				.build()
-				.parse();
-
-		Map<String, Set<Double>> planMap = new HashMap<>();
-
-		// Filter for SILVER plans only and the applicable rate areas, and add the mapping
-		list.stream()
-			.filter(bean -> bean.getMetal_level().equalsIgnoreCase("Silver"))
-			.filter(bean -> applicableAreas.contains(bean.getStateRateArea()))
-			.forEach(bean -> {
-				Double rate = bean.getRate();
-				String stateArea = bean.getStateRateArea();
-
-				if (!planMap.containsKey(stateArea)) {
-					planMap.put(stateArea, new HashSet<>());
-				}
+	private static int getLinkCount(File file) throws IOException {
+		try {
+			return (Integer) Files.getAttribute(file.toPath(), "unix:nlink");
+		} catch (UnsupportedOperationException | IllegalArgumentException e) {
+			return 1;
+		}
+	}
 	
-				Set<Double> value = planMap.get(stateArea);
-				value.add(rate);
-			});
-		
-		is.close();
-		return planMap;
+	/**
+	 * Copies the CSV rows from the input to the output on the calling thread, filling in the rate of each one.
+	 * 
+	 * @param index the rate area index
+	 * @param queries the extra rates to fill in
+	 * @param in the CSV file to fill in
+	 * @param out the stream to write the filled in file to
+	 * @param stats the statistics to add the row counts to
+	 * @throws IOException thrown when something goes wrong reading or writing a stream
+	 * @throws CsvException thrown when the file does not contain zipcode and rate as headers
+	 */
+	private static void updateRates(RateAreaIndex index, List<RateQuery> queries, InputStream in, OutputStream out,
+			SlcspStats stats) throws IOException, CsvException {
+		try (CsvTokenizer tokenizer = new CsvTokenizer(in)) {
+			// Find the zipcode and rate columns first, so the rows can be filled in as they are read
+			RateFiller filler = RateFiller.readHeader(index, queries, tokenizer, out);
+			
+			// Count the rows locally and add them once, so nothing shared is touched per row
+			long[] counts = new long[SlcspStats.RowOutcome.values().length];
+			while (tokenizer.next()) {
+				counts[filler.writeRow(tokenizer, out).ordinal()]++;
+			}
+			stats.addRows(counts);
+		}
 	}
 
 }
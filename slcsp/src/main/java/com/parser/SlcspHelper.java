@@ -0,0 +1,32 @@
+package com.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Helper class used by {@link SlcspCsvApplication}, {@link RateAreaIndex} and {@link SlcspStats} to write files.
+ *
+ */
+public class SlcspHelper {
+
+	/**
+	 * Moves a fully written temporary file over the target in one step, so a reader never sees a partly written
+	 * target. Where the file system cannot move atomically, the target is replaced with a plain move instead.
+	 *
+	 * @param temp the written file, in the target's directory
+	 * @param target the file to replace
+	 * @throws IOException thrown if the file cannot be moved
+	 */
+	public static void replaceAtomically(File temp, File target) throws IOException {
+		try {
+			Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+}
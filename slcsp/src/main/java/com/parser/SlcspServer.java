@@ -0,0 +1,362 @@
+package com.parser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.opencsv.exceptions.CsvException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A resident SLCSP lookup service. The rate area index is loaded once and kept in memory, and zip codes are looked up
+ * over HTTP:
+ * <ul>
+ * <li><b>GET /slcsp?zipcode=64148 : </b>looks up one zip code, or several separated by commas
+ * <li><b>POST /slcsp : </b>looks up every zip code in the request body, one per line; a zipcode header line is skipped
+ * </ul>
+ *
+ * Either way the response is a CSV file with a zipcode and a rate column, in the same order as the request, and with
+ * a blank rate where no SLCSP can be found. A zip code that is not 5 digits is echoed back as a quoted field. Other
+ * rates are added with a rates parameter of {@link RateQuery} values, such as rates=Gold:1,Bronze:2, each as its own
+ * column.
+ * <p>
+ * <b>GET /metrics</b> serves the {@link SlcspStats} of every request so far as Prometheus text, or as JSON with
+ * format=json.
+ * <p>
+ * When the data is read from a directory rather than the packaged resources, the directory's zips.csv and plans.csv are
+ * checked for changes every few seconds. A changed file is loaded into a new index in the background, which replaces
+ * the old one once it is ready, so lookups never wait on a reload.
+ *
+ */
+public class SlcspServer {
+
+	/**
+	 * The default port to listen on.
+	 */
+	public static final int DEFAULT_PORT = 8080;
+
+	private static final long RELOAD_CHECK_SECONDS = 2;
+
+	private final int port;
+	private final File dataDirectory;
+	private final int threads;
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private ScheduledExecutorService reloader;
+
+	/**
+	 * The current index; replaced as a whole on reload, and never modified.
+	 */
+	private volatile RateAreaIndex index;
+	private long dataVersion;
+
+	private final SlcspStats stats = new SlcspStats();
+
+	/**
+	 * Creates a server.
+	 *
+	 * @param port the port to listen on
+	 * @param dataDirectory the directory holding zips.csv and plans.csv, or null to use the packaged resources
+	 * @param threads the number of threads to serve requests on
+	 */
+	public SlcspServer(int port, File dataDirectory, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("The number of threads must be at least 1.");
+		}
+		this.port = port;
+		this.dataDirectory = dataDirectory;
+		this.threads = threads;
+	}
+
+	/**
+	 * Loads the index and starts serving requests.
+	 *
+	 * @throws IOException thrown when something goes wrong reading the data or opening the port
+	 * @throws CsvException thrown when the data lacks a needed column or holds a value that is not a number
+	 */
+	public void start() throws IOException, CsvException {
+		dataVersion = getDataVersion();
+		index = loadIndex();
+
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/slcsp", this::handle);
+		server.createContext("/metrics", this::handleMetrics);
+		// The index is immutable, so requests are served concurrently without locking
+		executor = Executors.newFixedThreadPool(threads);
+		server.setExecutor(executor);
+		server.start();
+
+		if (dataDirectory != null) {
+			reloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "slcsp-reloader");
+				thread.setDaemon(true);
+				return thread;
+			});
+			reloader.scheduleWithFixedDelay(this::reloadIfChanged, RELOAD_CHECK_SECONDS, RELOAD_CHECK_SECONDS,
+					TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Stops serving requests.
+	 */
+	public void stop() {
+		if (reloader != null) {
+			reloader.shutdownNow();
+		}
+		if (server != null) {
+			server.stop(0);
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Get the port the server is listening on.
+	 *
+	 * @return the port
+	 */
+	public int getPort() {
+		return server == null ? port : server.getAddress().getPort();
+	}
+
+	public SlcspStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Replaces the index if zips.csv or plans.csv has changed since it was loaded. A file that fails to load is
+	 * reported and the old index is kept.
+	 */
+	void reloadIfChanged() {
+		long version = getDataVersion();
+		if (version == dataVersion) {
+			return;
+		}
+
+		try {
+			index = loadIndex();
+			dataVersion = version;
+			System.out.println("Reloaded the rate data from : " + dataDirectory);
+		} catch (IOException | CsvException e) {
+			System.err.println("Error occurred reloading the rate data; still serving the previous data.");
+			System.err.println(e);
+		}
+	}
+
+	private RateAreaIndex loadIndex() throws IOException, CsvException {
+		long start = stats.startPhase();
+		RateAreaIndex loaded = dataDirectory == null ? RateAreaIndex.load() : RateAreaIndex.load(dataDirectory);
+		stats.endPhase(SlcspStats.Phase.LOAD, start);
+		return loaded;
+	}
+
+	/**
+	 * Get a value that changes whenever zips.csv or plans.csv is modified.
+	 *
+	 * @return the combined modification times and lengths of the data files
+	 */
+	private long getDataVersion() {
+		if (dataDirectory == null) {
+			return 0;
+		}
+		File zips = new File(dataDirectory, "zips.csv");
+		File plans = new File(dataDirectory, "plans.csv");
+		return 31 * (31 * (31 * zips.lastModified() + zips.length()) + plans.lastModified()) + plans.length();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		long start = stats.startPhase();
+		try {
+			// Take a single snapshot of the index, so a reload midway does not mix old and new rates
+			RateAreaIndex current = index;
+			StringBuilder response = new StringBuilder("zipcode,rate");
+
+			// Find the metal level of each extra rate once for the whole request
+			String query = exchange.getRequestURI().getRawQuery();
+			String rates = getQueryParameter(query, "rates");
+			List<RateQuery> queries;
+			int[] metalLevels;
+			try {
+				queries = rates == null ? Collections.emptyList() : RateQuery.parseList(rates);
+				metalLevels = new int[queries.size()];
+				for (int i = 0; i < queries.size(); i++) {
+					metalLevels[i] = current.findMetalLevel(queries.get(i).getMetalLevel());
+					if (metalLevels[i] < 0) {
+						throw new IllegalArgumentException("There are no " + queries.get(i).getMetalLevel()
+								+ " plans to look up.");
+					}
+					response.append(',').append(queries.get(i).getColumnName());
+				}
+			} catch (IllegalArgumentException e) {
+				send(exchange, 400, e.getMessage() + "\n");
+				return;
+			}
+			response.append('\n');
+			RateLookup lookup = new RateLookup(current, queries, metalLevels);
+
+			if ("GET".equals(exchange.getRequestMethod())) {
+				String zips = getQueryParameter(query, "zipcode");
+				if (zips == null) {
+					send(exchange, 400, "Please provide the zipcode query parameter.\n");
+					return;
+				}
+				for (String zip : zips.split(",")) {
+					lookup.append(response, zip.trim());
+				}
+			} else if ("POST".equals(exchange.getRequestMethod())) {
+				BufferedReader reader = new BufferedReader(
+						new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+				String line;
+				boolean first = true;
+				while ((line = reader.readLine()) != null) {
+					String zip = line.trim();
+					if (!zip.isEmpty() && !(first && zip.equals("zipcode"))) {
+						lookup.append(response, zip);
+					}
+					first = false;
+				}
+			} else {
+				exchange.getResponseHeaders().set("Allow", "GET, POST");
+				send(exchange, 405, "Only GET and POST are supported.\n");
+				return;
+			}
+
+			stats.addRows(lookup.getCounts());
+			exchange.getResponseHeaders().set("Content-Type", "text/csv; charset=utf-8");
+			send(exchange, 200, response.toString());
+		} finally {
+			exchange.close();
+			stats.endPhase(SlcspStats.Phase.REQUEST, start);
+		}
+	}
+
+	private void handleMetrics(HttpExchange exchange) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				exchange.getResponseHeaders().set("Allow", "GET");
+				send(exchange, 405, "Only GET is supported.\n");
+				return;
+			}
+
+			String format = getQueryParameter(exchange.getRequestURI().getRawQuery(), "format");
+			if ("json".equalsIgnoreCase(format)) {
+				exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+				send(exchange, 200, stats.toJson());
+			} else {
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				send(exchange, 200, stats.toPrometheus());
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Looks up the SLCSP rate and any extra rates of the zip codes of one request, counting the zip codes by outcome.
+	 */
+	private static class RateLookup {
+
+		private final RateAreaIndex index;
+		private final int[] metalLevels;
+		private final int[] ranks;
+		private final double[] rates;
+		private final long[] counts = new long[SlcspStats.RowOutcome.values().length];
+
+		RateLookup(RateAreaIndex index, List<RateQuery> queries, int[] metalLevels) {
+			this.index = index;
+			this.metalLevels = metalLevels;
+			this.ranks = new int[queries.size()];
+			for (int i = 0; i < ranks.length; i++) {
+				ranks[i] = queries.get(i).getRank();
+			}
+			this.rates = new double[ranks.length];
+		}
+
+		void append(StringBuilder response, String zip) {
+			int value = RateAreaIndex.parseZip(zip);
+			if (value < 0) {
+				// Anything but 5 digits is echoed as a quoted field, so a comma or quote in it cannot shift the columns
+				appendQuoted(response, zip);
+			} else {
+				response.append(zip);
+			}
+			double slcspRate = index.lookupSlcspRate(value);
+			appendRate(response, slcspRate);
+			index.lookupRates(value, metalLevels, ranks, rates);
+			for (double rate : rates) {
+				appendRate(response, rate);
+			}
+			response.append('\n');
+
+			SlcspStats.RowOutcome outcome;
+			if (value < 0) {
+				outcome = SlcspStats.RowOutcome.MALFORMED;
+			} else if (index.getRateArea(value) == 0) {
+				outcome = SlcspStats.RowOutcome.UNMATCHED;
+			} else {
+				outcome = Double.isNaN(slcspRate) ? SlcspStats.RowOutcome.BLANK : SlcspStats.RowOutcome.FILLED;
+			}
+			counts[outcome.ordinal()]++;
+		}
+
+		long[] getCounts() {
+			return counts;
+		}
+
+		private static void appendQuoted(StringBuilder response, String field) {
+			response.append('"');
+			for (int i = 0; i < field.length(); i++) {
+				char c = field.charAt(i);
+				if (c == '"') {
+					response.append('"');
+				}
+				response.append(c);
+			}
+			response.append('"');
+		}
+
+		private static void appendRate(StringBuilder response, double rate) {
+			response.append(',');
+			if (!Double.isNaN(rate)) {
+				response.append(rate);
+			}
+		}
+
+	}
+
+	private static void send(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static String getQueryParameter(String query, String name) throws UnsupportedEncodingException {
+		if (query == null) {
+			return null;
+		}
+		for (String pair : query.split("&")) {
+			int equals = pair.indexOf('=');
+			if (equals > 0 && URLDecoder.decode(pair.substring(0, equals), "UTF-8").equals(name)) {
+				return URLDecoder.decode(pair.substring(equals + 1), "UTF-8");
+			}
+		}
+		return null;
+	}
+
+}
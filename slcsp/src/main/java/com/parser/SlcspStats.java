@@ -0,0 +1,324 @@
+package com.parser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Operational statistics for filling in rates, showing where the time goes without attaching a profiler:
+ * <ul>
+ * <li><b>Bytes read : </b>the bytes of CSV rows read
+ * <li><b>Rows : </b>the number of rows, by what happened to them: rate filled in, rate left blank, left as it was
+ * because the zip code is unknown or in more than one rate area, or malformed because the zip code is not 5 digits
+ * <li><b>Phase latency : </b>a histogram of the time spent in each {@link Phase}, with the throughput of the fill phase
+ * </ul>
+ *
+ * The statistics are counted and exported the same way as the parser statistics of the proto module.
+ */
+public class SlcspStats {
+
+	/**
+	 * The phases of filling in rates.
+	 */
+	public enum Phase {
+		/**
+		 * Loading the rate area index, or building it from the CSV files.
+		 */
+		LOAD,
+		/**
+		 * Reading the rows, looking up their rates and writing them out.
+		 */
+		FILL,
+		/**
+		 * Swapping the filled in file into place.
+		 */
+		WRITE,
+		/**
+		 * Answering a single request of the lookup service.
+		 */
+		REQUEST
+	}
+
+	/**
+	 * What happened to a row, as returned by {@link RateFiller#writeRow(CsvTokenizer, OutputStream)}.
+	 */
+	public enum RowOutcome {
+		FILLED,
+		BLANK,
+		UNMATCHED,
+		MALFORMED
+	}
+
+	/**
+	 * The formats the statistics can be exported in.
+	 */
+	public enum Format {
+		JSON,
+		PROMETHEUS;
+
+		/**
+		 * Finds the format with the given name, in any case.
+		 *
+		 * @param name the format name
+		 * @return the format
+		 * @throws IllegalArgumentException thrown if there is no format with the name
+		 */
+		public static Format fromName(String name) {
+			for (Format format : values()) {
+				if (format.name().equalsIgnoreCase(name)) {
+					return format;
+				}
+			}
+			throw new IllegalArgumentException("The statistics format must be json or prometheus.");
+		}
+	}
+
+	/**
+	 * The histogram bucket bounds are powers of 4 nanoseconds, from about 1 microsecond to about 18 minutes.
+	 */
+	private static final int FIRST_BUCKET_SHIFT = 10;
+	private static final int BUCKET_SHIFT_STEP = 2;
+	private static final int BUCKETS = 16;
+
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder[] rows = new LongAdder[RowOutcome.values().length];
+
+	/**
+	 * Per phase, the number of observations in each bucket plus one past the last bound, then the count and the total.
+	 */
+	private final AtomicLongArray[] phaseBuckets = new AtomicLongArray[Phase.values().length];
+	private final LongAdder[] phaseCounts = new LongAdder[Phase.values().length];
+	private final LongAdder[] phaseNanos = new LongAdder[Phase.values().length];
+
+	private Format format = Format.JSON;
+	private File exportFile;
+
+	/**
+	 * Creates empty statistics.
+	 */
+	public SlcspStats() {
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = new LongAdder();
+		}
+		for (int i = 0; i < phaseBuckets.length; i++) {
+			phaseBuckets[i] = new AtomicLongArray(BUCKETS + 1);
+			phaseCounts[i] = new LongAdder();
+			phaseNanos[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Sets where {@link #export()} writes the statistics.
+	 *
+	 * @param format the format to export in
+	 * @param exportFile the file to replace on each export, or null to output to the console
+	 */
+	public void setExport(Format format, File exportFile) {
+		this.format = format;
+		this.exportFile = exportFile;
+	}
+
+	public Format getFormat() {
+		return format;
+	}
+
+	public void addBytesRead(long bytes) {
+		bytesRead.add(bytes);
+	}
+
+	/**
+	 * Adds row counts.
+	 *
+	 * @param counts the number of rows, indexed by {@link RowOutcome} ordinal
+	 */
+	public void addRows(long[] counts) {
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] != 0) {
+				rows[i].add(counts[i]);
+			}
+		}
+	}
+
+	/**
+	 * Starts timing a phase.
+	 *
+	 * @return the start time, to pass to {@link #endPhase(Phase, long)}
+	 */
+	public long startPhase() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Ends timing a phase, adding the time since the start to the phase's histogram.
+	 *
+	 * @param phase the phase that ended
+	 * @param start the start time from {@link #startPhase()}
+	 */
+	public void endPhase(Phase phase, long start) {
+		long nanos = Math.max(0, System.nanoTime() - start);
+		int bucket = 0;
+		while (bucket < BUCKETS && nanos > 1L << (FIRST_BUCKET_SHIFT + bucket * BUCKET_SHIFT_STEP)) {
+			bucket++;
+		}
+
+		phaseBuckets[phase.ordinal()].incrementAndGet(bucket);
+		phaseCounts[phase.ordinal()].increment();
+		phaseNanos[phase.ordinal()].add(nanos);
+	}
+
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	public long getRows(RowOutcome outcome) {
+		return rows[outcome.ordinal()].sum();
+	}
+
+	/**
+	 * Get the total time spent in a phase.
+	 *
+	 * @param phase the phase
+	 * @return the total time in nanoseconds
+	 */
+	public long getPhaseNanos(Phase phase) {
+		return phaseNanos[phase.ordinal()].sum();
+	}
+
+	/**
+	 * Writes the statistics where {@link #setExport(Format, File)} says, replacing the export file whole so a scraper
+	 * never reads a partly written one.
+	 *
+	 * @throws IOException thrown if an error occurs writing the export file
+	 */
+	public void export() throws IOException {
+		String text = format == Format.JSON ? toJson() : toPrometheus();
+		if (exportFile == null) {
+			System.out.print(text);
+			return;
+		}
+
+		File temp = File.createTempFile(exportFile.getName(), ".tmp", exportFile.getAbsoluteFile().getParentFile());
+		try {
+			try (OutputStream out = new FileOutputStream(temp)) {
+				out.write(text.getBytes(StandardCharsets.UTF_8));
+			}
+			SlcspHelper.replaceAtomically(temp, exportFile);
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+	/**
+	 * Formats the statistics as a JSON object.
+	 *
+	 * @return the JSON text
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder("{\n");
+		json.append("  \"bytes_read\": ").append(getBytesRead()).append(",\n");
+		json.append("  \"rows\": {");
+		for (RowOutcome outcome : RowOutcome.values()) {
+			json.append(outcome.ordinal() == 0 ? " " : ", ").append('"').append(outcome.name().toLowerCase(Locale.ROOT))
+					.append("\": ").append(getRows(outcome));
+		}
+		json.append(" },\n");
+		json.append("  \"fill_rows_per_second\": ").append(formatDecimal(getFillRate(getTotalRows()))).append(",\n");
+		json.append("  \"fill_bytes_per_second\": ").append(formatDecimal(getFillRate(getBytesRead()))).append(",\n");
+
+		json.append("  \"phases\": {\n");
+		for (Phase phase : Phase.values()) {
+			AtomicLongArray buckets = phaseBuckets[phase.ordinal()];
+			json.append("    \"").append(phase.name().toLowerCase(Locale.ROOT)).append("\": { \"count\": ")
+					.append(phaseCounts[phase.ordinal()].sum()).append(", \"seconds\": ")
+					.append(formatDecimal(getPhaseNanos(phase) / 1e9)).append(", \"buckets\": {");
+			for (int i = 0; i <= BUCKETS; i++) {
+				json.append(i == 0 ? " " : ", ").append('"').append(getBucketBound(i)).append("\": ")
+						.append(buckets.get(i));
+			}
+			json.append(" } }").append(phase.ordinal() < Phase.values().length - 1 ? ",\n" : "\n");
+		}
+		json.append("  }\n}\n");
+		return json.toString();
+	}
+
+	/**
+	 * Formats the statistics in the Prometheus text exposition format.
+	 *
+	 * @return the Prometheus text
+	 */
+	public String toPrometheus() {
+		StringBuilder text = new StringBuilder();
+		text.append("# HELP slcsp_bytes_read_total Bytes of CSV rows read.\n");
+		text.append("# TYPE slcsp_bytes_read_total counter\n");
+		text.append("slcsp_bytes_read_total ").append(getBytesRead()).append('\n');
+
+		text.append("# HELP slcsp_rows_total Rows looked up, by outcome.\n");
+		text.append("# TYPE slcsp_rows_total counter\n");
+		for (RowOutcome outcome : RowOutcome.values()) {
+			text.append("slcsp_rows_total{outcome=\"").append(outcome.name().toLowerCase(Locale.ROOT)).append("\"} ")
+					.append(getRows(outcome)).append('\n');
+		}
+
+		text.append("# HELP slcsp_fill_rows_per_second Rows filled in per second of the fill phase.\n");
+		text.append("# TYPE slcsp_fill_rows_per_second gauge\n");
+		text.append("slcsp_fill_rows_per_second ").append(formatDecimal(getFillRate(getTotalRows()))).append('\n');
+
+		text.append("# HELP slcsp_phase_seconds Time spent in each phase.\n");
+		text.append("# TYPE slcsp_phase_seconds histogram\n");
+		for (Phase phase : Phase.values()) {
+			String label = "phase=\"" + phase.name().toLowerCase(Locale.ROOT) + "\"";
+			AtomicLongArray buckets = phaseBuckets[phase.ordinal()];
+			long cumulative = 0;
+			for (int i = 0; i <= BUCKETS; i++) {
+				cumulative += buckets.get(i);
+				text.append("slcsp_phase_seconds_bucket{").append(label).append(",le=\"").append(getBucketBound(i))
+						.append("\"} ").append(cumulative).append('\n');
+			}
+			text.append("slcsp_phase_seconds_sum{").append(label).append("} ")
+					.append(formatDecimal(getPhaseNanos(phase) / 1e9)).append('\n');
+			text.append("slcsp_phase_seconds_count{").append(label).append("} ")
+					.append(phaseCounts[phase.ordinal()].sum()).append('\n');
+		}
+		return text.toString();
+	}
+
+	private long getTotalRows() {
+		long total = 0;
+		for (LongAdder count : rows) {
+			total += count.sum();
+		}
+		return total;
+	}
+
+	/**
+	 * Get the given amount per second of the fill phase.
+	 */
+	private double getFillRate(long amount) {
+		long nanos = getPhaseNanos(Phase.FILL);
+		return nanos == 0 ? 0 : amount * 1e9 / nanos;
+	}
+
+	/**
+	 * Get the inclusive upper bound of a histogram bucket in seconds, written out exactly as in the exports.
+	 */
+	private static String getBucketBound(int bucket) {
+		if (bucket == BUCKETS) {
+			return "+Inf";
+		}
+		return BigDecimal.valueOf(1L << (FIRST_BUCKET_SHIFT + bucket * BUCKET_SHIFT_STEP), 9).stripTrailingZeros()
+				.toPlainString();
+	}
+
+	private static String formatDecimal(double value) {
+		return String.format(Locale.ROOT, "%.9g", value).replaceAll("(\\.\\d*?)0+(e|$)", "$1$2")
+				.replaceAll("\\.(e|$)", "$1");
+	}
+
+}
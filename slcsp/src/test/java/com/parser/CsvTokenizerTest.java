@@ -0,0 +1,90 @@
+package com.parser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link CsvTokenizer} binds header columns the way OpenCSV did, and splits quoted fields and line
+ * endings correctly.
+ */
+public class CsvTokenizerTest {
+
+	@Test
+	public void bindsColumnsInAnyCase() throws IOException {
+		try (CsvTokenizer tokenizer = tokenize("ZipCode,State,RATE\n64148,MO,245.2\n")) {
+			assertArrayEquals(new int[] { 2, 0 }, tokenizer.bindColumns("rate", "zipcode"));
+			assertTrue(tokenizer.next());
+			assertEquals(64148, tokenizer.getFixedDigits(0, 5));
+			assertEquals(245.2, tokenizer.getDouble(2), 0);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsHeaderWithoutColumn() throws IOException {
+		try (CsvTokenizer tokenizer = tokenize("zipcode,state\n")) {
+			tokenizer.bindColumns("zipcode", "rate");
+		}
+	}
+
+	@Test
+	public void findsFirstMatchingColumn() throws IOException {
+		try (CsvTokenizer tokenizer = tokenize("rate,Rate,zipcode\n")) {
+			assertTrue(tokenizer.next());
+			assertEquals(0, tokenizer.findColumn("RATE"));
+			assertEquals(-1, tokenizer.findColumn("state"));
+		}
+	}
+
+	@Test
+	public void splitsQuotedFields() throws IOException {
+		try (CsvTokenizer tokenizer = tokenize("\"a,b\",\"say \"\"hi\"\"\",\"two\nlines\",\r\nlast\r\n")) {
+			assertTrue(tokenizer.next());
+			assertEquals(4, tokenizer.getFieldCount());
+			assertEquals("a,b", tokenizer.getString(0));
+			assertEquals("say \"hi\"", tokenizer.getString(1));
+			assertEquals("two\nlines", tokenizer.getString(2));
+			assertTrue(tokenizer.isEmpty(3));
+
+			assertTrue(tokenizer.next());
+			assertEquals(1, tokenizer.getFieldCount());
+			assertEquals("last", tokenizer.getString(0));
+			assertEquals(3, tokenizer.getLineNumber());
+			assertFalse(tokenizer.next());
+		}
+	}
+
+	@Test
+	public void copiesRawFieldsExactly() throws IOException {
+		try (CsvTokenizer tokenizer = tokenize("\"x,\"\"y\"\"\",plain\n")) {
+			assertTrue(tokenizer.next());
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			tokenizer.writeRaw(0, out);
+			tokenizer.writeRaw(1, out);
+			assertEquals("\"x,\"\"y\"\"\"plain", new String(out.toByteArray(), StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	public void readsFixedDigitsOnly() throws IOException {
+		try (CsvTokenizer tokenizer = tokenize("0123,12345,1234x\n")) {
+			assertTrue(tokenizer.next());
+			assertEquals(-1, tokenizer.getFixedDigits(0, 5));
+			assertEquals(12345, tokenizer.getFixedDigits(1, 5));
+			assertEquals(-1, tokenizer.getFixedDigits(2, 5));
+		}
+	}
+
+	private static CsvTokenizer tokenize(String csv) {
+		return new CsvTokenizer(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+	}
+
+}